@@ -0,0 +1,53 @@
+package com.justinschaaf.twitchc4;
+
+/**
+ * Shared setup for the benchmarks. Runs the bot headless, with every chat
+ * message going to a counter instead of Twitch
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+final class C4BenchSupport {
+
+    /**
+     * The total length of every message sent, so the JIT can't discard them
+     */
+    static volatile long consumed = 0;
+
+    private C4BenchSupport() {}
+
+    /**
+     * Loads the bot headless with a board of the given size
+     *
+     * @param size The board size, e.g. "7x6"
+     */
+    static void load(String size) {
+
+        String[] dims = size.split("x");
+
+        C4Config cfg = new C4Config();
+        cfg.gameWhileOnline = true;
+        cfg.gameWhileOffline = true;
+        cfg.gameRandomStart = false;
+        cfg.cmdUserCooldown = 0;
+        cfg.gameBoardWidth = Integer.parseInt(dims[0]);
+        cfg.gameBoardHeight = Integer.parseInt(dims[1]);
+
+        TwitchC4.loadHeadless(cfg, (channel, message) -> consumed += message.length());
+
+    }
+
+    /**
+     * Fills the given board with a pattern that never lines up three chips,
+     * so a full scan for a winner has to check every cell
+     *
+     * @param board The empty board to fill
+     */
+    static void fillWithoutWinner(C4Board board) {
+
+        for (int col = 0; col < board.getWidth(); col++)
+            for (int row = 0; row < board.getHeight(); row++)
+                board.play(col, (col / 2 + row) % 2 == 0 ? C4Board.P1 : C4Board.P2);
+
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.justinschaaf.twitchc4;
+
+import com.github.twitch4j.common.enums.CommandPermission;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link C4Commands#handle(String, String, Set, String)} across
+ * different numbers of channels. Commands run on the calling thread
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class C4CommandsBenchmark {
+
+    private static final Set<CommandPermission> PERMS = Set.of(CommandPermission.EVERYONE);
+
+    @Param({"1", "100", "10000"})
+    public int channels;
+
+    private String[] names;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+
+        C4BenchSupport.load("7x6");
+
+        names = new String[channels];
+
+        for (int i = 0; i < channels; i++) {
+            names[i] = "channel" + i;
+            TwitchC4.getCmds().getChannel(names[i]);
+        }
+
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TwitchC4.getTimer().stop();
+    }
+
+    private String channel() {
+        if (++next == channels) next = 0;
+        return names[next];
+    }
+
+    /**
+     * The most common case: a chat message which isn't a command
+     */
+    @Benchmark
+    public void notACommand() {
+        TwitchC4.getCmds().handle(channel(), "viewer", PERMS, "hello chat, how is everyone doing today?");
+    }
+
+    @Benchmark
+    public void unknownCommand() {
+        TwitchC4.getCmds().handle(channel(), "viewer", PERMS, "c4!dance");
+    }
+
+    @Benchmark
+    public void help() {
+        TwitchC4.getCmds().handle(channel(), "viewer", PERMS, "c4!help");
+    }
+
+    @Benchmark
+    public void putNotInGame() {
+        TwitchC4.getCmds().handle(channel(), "viewer", PERMS, "c4!put 4");
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.justinschaaf.twitchc4;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the game engine: win detection, moves, and rendering
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class C4GameBenchmark {
+
+    @Param({"7x6", "20x20", "100x100", "500x500"})
+    public String size;
+
+    /**
+     * A full board with no winner, the worst case for a full scan
+     */
+    private C4Game full;
+
+    /**
+     * A game which is actually played in
+     */
+    private C4Game game;
+    private int col = 0;
+
+    /**
+     * A game whose board gains a chip before every render, so each render
+     * rebuilds a row as it would after a real move
+     */
+    private C4Game rendered;
+    private int renderCol = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+
+        C4BenchSupport.load(size);
+
+        full = new C4Game("bench", "p1", "p2");
+        C4BenchSupport.fillWithoutWinner(full.getBoard());
+
+        game = new C4Game("bench", "p3", "p4");
+        rendered = new C4Game("bench", "p5", "p6");
+
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TwitchC4.getTimer().stop();
+    }
+
+    @Benchmark
+    public int getWinner() {
+        return full.getWinner();
+    }
+
+    @Benchmark
+    public boolean isWinLastMove() {
+        C4Board b = full.getBoard();
+        return b.isWin(b.getLastColumn(), b.getLastRow(), TwitchC4.getConfig().gameConnectLength);
+    }
+
+    @Benchmark
+    public boolean isValidMove() {
+        col = (col + 1) % TwitchC4.getConfig().gameBoardWidth;
+        return game.isValidMove(col + 1);
+    }
+
+    /**
+     * A full turn, including the win check, rendering the board, and starting the next turn
+     */
+    @Benchmark
+    public void doTurn() {
+
+        // Start over whenever the game ends
+        if (game.isOver()) game = new C4Game("bench", "p3", "p4");
+
+        col = (col + 1) % TwitchC4.getConfig().gameBoardWidth;
+        if (game.isValidMove(col + 1)) game.doTurn(col + 1);
+
+    }
+
+    /**
+     * Renders the board after a move, averaged over whole games: one row is
+     * rebuilt per move, and the whole board once per game
+     */
+    @Benchmark
+    public void printBoard() {
+
+        C4Board b = rendered.getBoard();
+
+        // Start over once it's full, which costs a full render on the next move like a new game would
+        if (b.isFull())
+            for (int c = 0; c < b.getWidth(); c++)
+                for (int row = b.getColumnHeight(c) - 1; row >= 0; row--)
+                    b.undo(c, b.get(c, row));
+
+        do renderCol = (renderCol + 1) % b.getWidth(); while (!b.canPlay(renderCol));
+
+        b.play(renderCol, b.getMoves() % 2 == 0 ? C4Board.P1 : C4Board.P2);
+        rendered.printBoard();
+
+    }
+
+}
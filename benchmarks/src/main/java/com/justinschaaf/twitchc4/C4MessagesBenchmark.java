@@ -0,0 +1,50 @@
+package com.justinschaaf.twitchc4;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks formatting messages with {@link C4Messages#send(String, String, String...)}
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class C4MessagesBenchmark {
+
+    @Setup(Level.Trial)
+    public void setup() {
+        C4BenchSupport.load("7x6");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TwitchC4.getTimer().stop();
+    }
+
+    @Benchmark
+    public void noReplacements() {
+        C4Messages.send("bench", TwitchC4.getConfig().locGameTie);
+    }
+
+    @Benchmark
+    public void oneReplacement() {
+        C4Messages.send("bench", TwitchC4.getConfig().locGameTurnStart, "%p%", "justinhschaaf");
+    }
+
+    @Benchmark
+    public void twoReplacements() {
+        C4Messages.send("bench", TwitchC4.getConfig().locChallengeSendTo, "%f%", "justinhschaaf", "%t%", "TheOnlyCheezIt");
+    }
+
+    @Benchmark
+    public void repeatedReplacement() {
+        C4Messages.send("bench", TwitchC4.getConfig().locChallengeSend, "%f%", "justinhschaaf");
+    }
+
+}
@@ -0,0 +1,779 @@
+package com.justinschaaf.twitchc4;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the games and challenges in each channel as JSON over a local HTTP
+ * endpoint, so stream overlays don't have to read the board out of chat.
+ *
+ * Every change to a channel bumps its version. Each version is serialized at
+ * most once, from within the channel's mailbox, and the bytes are cached and
+ * shared by every client, so a thousand overlays cost one serialization per
+ * move. The version doubles as the ETag, so clients can poll cheaply with
+ * If-None-Match, wait for the next version with a long-poll, or keep an
+ * event stream open and have every version pushed to them. Waiting clients
+ * don't hold a thread; they're answered when the channel changes or their
+ * wait times out on the shared {@link C4Timer}. Responses and events are
+ * written by a separate pool, events one stream at a time, and a stream which
+ * falls behind only ever has the newest version waiting for it, so a stalled
+ * overlay can't hold up any other client.
+ *
+ * Endpoints:
+ * <ul>
+ *     <li>GET /channels lists every channel with its version and how many games and challenges it has</li>
+ *     <li>GET /channels/{channel}[?wait=seconds] gets a channel's state. With If-None-Match and wait, the
+ *     response is held until the next version or the wait runs out</li>
+ *     <li>GET /channels/{channel}/events streams every version of a channel as server-sent events</li>
+ * </ul>
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Api {
+
+    private static final String JSON = "application/json; charset=utf-8";
+
+    /**
+     * The number of threads answering requests. None of them ever wait on a channel
+     */
+    private static final int THREADS = 2;
+
+    /**
+     * Tells apart versions from before and after a restart, since versions start over from 0
+     */
+    private final String boot = Long.toString(System.currentTimeMillis(), 36);
+
+    private final int maxWait;
+
+    /**
+     * The last serialized version of each channel
+     */
+    private final ConcurrentHashMap<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * The clients waiting on each channel
+     */
+    private final ConcurrentHashMap<String, Watchers> watchers = new ConcurrentHashMap<>();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Writes responses and events. Kept apart from the executor, since a write
+     * to a stalled client blocks until the client reads or goes away
+     */
+    private ExecutorService writers;
+
+    /**
+     * Creates the API. Nothing is served until {@link #start(String, int)} is called
+     * @param maxWait The longest a long-poll can wait, in seconds
+     */
+    public C4Api(int maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Starts serving on the given address
+     *
+     * @param host The address to listen on
+     * @param port The port to listen on
+     * @throws IOException If the server can't be bound
+     */
+    public void start(String host, int port) throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/channels", this::serve);
+
+        executor = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "C4-Api");
+            t.setDaemon(true);
+            return t;
+        });
+
+        writers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "C4-Api-Events");
+            t.setDaemon(true);
+            return t;
+        });
+
+        server.setExecutor(executor);
+        server.start();
+
+    }
+
+    /**
+     * Stops the server, closing every long-poll and event stream
+     */
+    public void stop() {
+
+        if (server == null) return;
+
+        for (Watchers w : watchers.values()) w.close();
+
+        server.stop(0);
+        executor.shutdownNow();
+        writers.shutdownNow();
+        server = null;
+
+    }
+
+    /**
+     * Gets the address the server is listening on
+     * @return The bound address, or null if the server isn't running
+     */
+    public InetSocketAddress getAddress() {
+        return server == null ? null : server.getAddress();
+    }
+
+    /**
+     * Pushes a channel's new version to everyone waiting on it. Must be called
+     * from within the channel's mailbox, after its version has been bumped
+     *
+     * @param channel The channel which changed
+     */
+    public void changed(C4Channel channel) {
+
+        Watchers w = watchers.get(channel.getName());
+        if (w == null || w.isEmpty()) return;
+
+        Snapshot s = snapshot(channel);
+        executor.execute(() -> w.publish(s));
+
+    }
+
+    /*
+     * REQUESTS
+     */
+
+    /**
+     * Routes a request under /channels
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Access-Control-Allow-Origin", "*");
+        headers.set("Access-Control-Expose-Headers", "ETag");
+
+        String method = exchange.getRequestMethod();
+
+        // Browsers ask first, since If-None-Match isn't a simple header
+        if (method.equals("OPTIONS")) {
+            headers.set("Access-Control-Allow-Methods", "GET");
+            headers.set("Access-Control-Allow-Headers", "If-None-Match");
+            respond(exchange, 204, null, null);
+            return;
+        }
+
+        if (!method.equals("GET")) {
+            respond(exchange, 405, null, null);
+            return;
+        }
+
+        String[] path = exchange.getRequestURI().getPath().split("/");
+
+        // The path always starts with an empty segment and "channels"
+        if (path.length == 2) list(exchange);
+        else if (path.length == 3 || (path.length == 4 && path[3].equals("events"))) {
+
+            C4Channel channel = find(path[2]);
+
+            if (channel == null) respond(exchange, 404, null, null);
+            else if (path.length == 3) get(exchange, channel);
+            else stream(exchange, channel);
+
+        } else respond(exchange, 404, null, null);
+
+    }
+
+    /**
+     * Finds a channel without creating it, unless it's one the bot joins
+     *
+     * @return The channel, or null if the bot hasn't heard of it
+     */
+    private C4Channel find(String name) {
+
+        name = name.toLowerCase(Locale.ROOT);
+
+        C4Channel channel = TwitchC4.getCmds().findChannel(name);
+        if (channel != null) return channel;
+
+        for (String c : TwitchC4.getConfig().channels)
+            if (c.equalsIgnoreCase(name)) return TwitchC4.getCmds().getChannel(name);
+
+        return null;
+
+    }
+
+    /**
+     * Lists every channel. Only reads what's safe to read from any thread, so it never waits on a mailbox
+     */
+    private void list(HttpExchange exchange) {
+
+        StringBuilder json = new StringBuilder("{\"channels\":[");
+        boolean first = true;
+
+        for (C4Channel c : TwitchC4.getCmds().getChannels()) {
+
+            if (!first) json.append(',');
+            first = false;
+
+            json.append("{\"name\":");
+            string(json, c.getName());
+            json.append(",\"version\":").append(c.getVersion());
+            json.append(",\"games\":").append(c.getGameCount());
+            json.append(",\"challenges\":").append(c.getChallengeCount());
+            json.append('}');
+
+        }
+
+        json.append("]}");
+
+        respond(exchange, 200, null, json.toString().getBytes(StandardCharsets.UTF_8));
+
+    }
+
+    /**
+     * Answers a request for a channel's state, straight away or once it changes
+     */
+    private void get(HttpExchange exchange, C4Channel channel) {
+
+        String etag = exchange.getRequestHeaders().getFirst("If-None-Match");
+        int wait = Math.min(maxWait, parseWait(exchange.getRequestURI().getQuery()));
+
+        if (etag != null && etag.equals(etag(channel.getVersion()))) {
+
+            if (wait <= 0) {
+                respond(exchange, 304, etag, null);
+                return;
+            }
+
+            Watchers w = watchers.computeIfAbsent(channel.getName(), n -> new Watchers());
+            Poll poll = new Poll(exchange, writers);
+
+            poll.timeout = TwitchC4.getTimer().schedule(
+                    () -> executor.execute(() -> {
+                        if (w.remove(poll)) poll.respond(304, etag, null);
+                    }),
+                    wait,
+                    TimeUnit.SECONDS
+            );
+
+            w.add(poll);
+
+            // The channel may have changed before the poll was added, in which case nothing will wake it
+            if (etag.equals(etag(channel.getVersion())) || !w.remove(poll)) return;
+
+            poll.timeout.cancel();
+
+        }
+
+        // Only go through the mailbox if this version hasn't been serialized yet
+        Snapshot cached = snapshots.get(channel.getName());
+
+        if (cached != null && cached.version == channel.getVersion()) {
+            respond(exchange, 200, cached.etag, cached.json);
+            return;
+        }
+
+        CompletableFuture
+                .supplyAsync(() -> snapshot(channel), channel)
+                .thenAccept(s -> respond(exchange, 200, s.etag, s.json));
+
+    }
+
+    /**
+     * Opens an event stream of a channel's versions, starting with the current one
+     */
+    private void stream(HttpExchange exchange, C4Channel channel) throws IOException {
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "text/event-stream; charset=utf-8");
+        headers.set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+
+        Stream stream = new Stream(exchange, writers);
+        watchers.computeIfAbsent(channel.getName(), n -> new Watchers()).add(stream);
+
+        // Queued through the mailbox, so it's ordered before any version pushed after it
+        channel.execute(() -> stream.offer(snapshot(channel)));
+
+    }
+
+    /**
+     * Reads the wait parameter of a query string
+     *
+     * @return The number of seconds to wait, or 0 if there isn't one
+     */
+    private static int parseWait(String query) {
+
+        if (query == null) return 0;
+
+        for (String param : query.split("&")) {
+
+            if (!param.startsWith("wait=")) continue;
+
+            try {
+                return Math.max(0, Integer.parseInt(param.substring(5)));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+
+        }
+
+        return 0;
+
+    }
+
+    /**
+     * Sends a complete response and closes the exchange, on the writers
+     *
+     * @param etag The ETag to send, or null for none
+     * @param json The body, or null for none
+     */
+    private void respond(HttpExchange exchange, int status, String etag, byte[] json) {
+        respond(writers, exchange, status, etag, json);
+    }
+
+    /**
+     * Sends a complete response and closes the exchange on the given writers,
+     * so the thread asking never waits on the client
+     */
+    private static void respond(Executor writers, HttpExchange exchange, int status, String etag, byte[] json) {
+
+        writers.execute(() -> {
+
+            try {
+                send(exchange, status, etag, json);
+            } catch (IOException e) {
+                // The client went away
+            }
+
+        });
+
+    }
+
+    /**
+     * Writes a complete response and closes the exchange. Blocks until the client has taken it all
+     *
+     * @param etag The ETag to send, or null for none
+     * @param json The body, or null for none
+     */
+    private static void send(HttpExchange exchange, int status, String etag, byte[] json) throws IOException {
+
+        try {
+
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Cache-Control", "no-cache");
+            if (etag != null) headers.set("ETag", etag);
+
+            if (json == null) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+
+            headers.set("Content-Type", JSON);
+            exchange.sendResponseHeaders(status, json.length);
+
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(json);
+            }
+
+        } finally {
+            exchange.close();
+        }
+
+    }
+
+    /*
+     * SERIALIZATION
+     */
+
+    private String etag(long version) {
+        return "\"" + boot + '-' + version + '"';
+    }
+
+    /**
+     * Gets a channel's current version, serializing it unless it already has
+     * been. Must be called from within the channel's mailbox
+     */
+    private Snapshot snapshot(C4Channel channel) {
+
+        long version = channel.getVersion();
+
+        Snapshot cached = snapshots.get(channel.getName());
+        if (cached != null && cached.version == version) return cached;
+
+        Snapshot s = new Snapshot(version, etag(version), render(channel, version));
+        snapshots.put(channel.getName(), s);
+
+        return s;
+
+    }
+
+    /**
+     * Serializes the games and challenges in a channel. Must be called from within the channel's mailbox
+     */
+    private static byte[] render(C4Channel channel, long version) {
+
+        StringBuilder json = new StringBuilder(256);
+
+        json.append("{\"channel\":");
+        string(json, channel.getName());
+        json.append(",\"version\":").append(version);
+
+        json.append(",\"games\":[");
+        boolean first = true;
+
+        for (C4Game g : channel.getGames()) {
+
+            if (!first) json.append(',');
+            first = false;
+
+            C4Board board = g.getBoard();
+            String[] p = g.getPlayers();
+
+            json.append("{\"id\":").append(g.getId());
+            json.append(",\"p1\":");
+            string(json, p[0]);
+            json.append(",\"p2\":");
+            string(json, p[1]);
+            json.append(",\"turn\":");
+            string(json, g.getPlayerTurn());
+            json.append(",\"turnStartedAt\":").append(g.getTurnStartedAt());
+
+            if (g.getDifficulty() != null) {
+                json.append(",\"bot\":");
+                string(json, g.getDifficulty().name().toLowerCase(Locale.ROOT));
+            }
+
+            if (g.getVote() != null) json.append(",\"team\":true");
+
+            json.append(",\"width\":").append(board.getWidth());
+            json.append(",\"height\":").append(board.getHeight());
+
+            // Columns start from 0, in the order they were played
+            json.append(",\"moves\":[");
+            short[] moves = g.getHistory();
+            for (int i = 0; i < moves.length; i++) json.append(i == 0 ? "" : ",").append(moves[i]);
+            json.append(']');
+
+            // One string per row, top first, with 0 for empty and 1 or 2 for each player's chips
+            json.append(",\"board\":[");
+
+            for (int row = board.getHeight() - 1; row >= 0; row--) {
+                if (row < board.getHeight() - 1) json.append(',');
+                json.append('"');
+                for (int col = 0; col < board.getWidth(); col++) json.append((char) ('0' + board.get(col, row)));
+                json.append('"');
+            }
+
+            json.append("]}");
+
+        }
+
+        json.append("],\"challenges\":[");
+        first = true;
+
+        for (C4Challenge c : channel.getChallenges()) {
+
+            if (!first) json.append(',');
+            first = false;
+
+            json.append("{\"id\":").append(c.getId());
+            json.append(",\"from\":");
+            string(json, c.getFrom());
+            json.append(",\"to\":");
+            if (c.getTo() == null) json.append("null");
+            else string(json, c.getTo());
+            json.append(",\"created\":").append(c.getCreated());
+            json.append('}');
+
+        }
+
+        json.append("]}");
+
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+
+    }
+
+    /**
+     * Appends a string as a quoted, escaped JSON string. Shared with the {@link C4ArchiveExporter}
+     */
+    static void string(StringBuilder json, String s) {
+
+        json.append('"');
+
+        for (int i = 0; i < s.length(); i++) {
+
+            char c = s.charAt(i);
+
+            if (c == '"' || c == '\\') json.append('\\').append(c);
+            else if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+            else json.append(c);
+
+        }
+
+        json.append('"');
+
+    }
+
+    /**
+     * A serialized version of a channel, shared by every client
+     */
+    private static class Snapshot {
+
+        private final long version;
+        private final String etag;
+        private final byte[] json;
+
+        private Snapshot(long version, String etag, byte[] json) {
+            this.version = version;
+            this.etag = etag;
+            this.json = json;
+        }
+
+    }
+
+    /*
+     * WATCHERS
+     */
+
+    /**
+     * The clients waiting on a single channel. Guarded by its own monitor
+     */
+    private static class Watchers {
+
+        private final List<Poll> polls = new ArrayList<>();
+        private final List<Stream> streams = new ArrayList<>();
+
+        private synchronized boolean isEmpty() {
+            return polls.isEmpty() && streams.isEmpty();
+        }
+
+        private synchronized void add(Poll poll) {
+            polls.add(poll);
+        }
+
+        private synchronized void add(Stream stream) {
+            streams.add(stream);
+        }
+
+        /**
+         * Removes a poll, so only one of the timeout and a new version answers it
+         * @return true if the poll was still waiting
+         */
+        private synchronized boolean remove(Poll poll) {
+            return polls.remove(poll);
+        }
+
+        /**
+         * Answers every poll and queues the version for every stream, dropping any stream which has gone away
+         */
+        private void publish(Snapshot s) {
+
+            List<Poll> answered;
+            List<Stream> open;
+
+            synchronized (this) {
+                answered = new ArrayList<>(polls);
+                polls.clear();
+                open = new ArrayList<>(streams);
+            }
+
+            for (Poll p : answered) {
+                p.timeout.cancel();
+                p.respond(200, s.etag, s.json);
+            }
+
+            for (Stream st : open)
+                if (!st.offer(s))
+                    synchronized (this) {
+                        streams.remove(st);
+                    }
+
+        }
+
+        private void close() {
+
+            List<Poll> answered;
+            List<Stream> open;
+
+            synchronized (this) {
+                answered = new ArrayList<>(polls);
+                open = new ArrayList<>(streams);
+                polls.clear();
+                streams.clear();
+            }
+
+            for (Poll p : answered) p.exchange.close();
+            for (Stream st : open) st.close();
+
+        }
+
+    }
+
+    /**
+     * A long-poll waiting for the next version
+     */
+    private static class Poll {
+
+        private final HttpExchange exchange;
+        private final Executor writers;
+        private C4Timer.Timeout timeout;
+
+        private Poll(HttpExchange exchange, Executor writers) {
+            this.exchange = exchange;
+            this.writers = writers;
+        }
+
+        /**
+         * Answers the poll on the writers, so publishing never waits on the client
+         */
+        private void respond(int status, String etag, byte[] json) {
+            C4Api.respond(writers, exchange, status, etag, json);
+        }
+
+    }
+
+    /**
+     * An open event stream. Holds at most one version waiting to be written,
+     * since every event carries the whole channel, and has at most one writer
+     * working through it at a time. Guarded by its own monitor
+     */
+    private static class Stream {
+
+        private final HttpExchange exchange;
+        private final Executor writers;
+
+        /**
+         * The last version written, so the first version and a push racing it aren't both sent
+         */
+        private long sent = -1;
+
+        /**
+         * The newest version which hasn't been written yet, or null if there isn't one
+         */
+        private Snapshot pending;
+
+        private boolean writing;
+        private boolean closed;
+
+        private Stream(HttpExchange exchange, Executor writers) {
+            this.exchange = exchange;
+            this.writers = writers;
+        }
+
+        /**
+         * Queues a version to be sent as an event, replacing any older version
+         * still waiting. Never waits on the client
+         *
+         * @return false if the client has gone away
+         */
+        private boolean offer(Snapshot s) {
+
+            synchronized (this) {
+
+                if (closed) return false;
+                if (s.version <= sent || (pending != null && s.version <= pending.version)) return true;
+
+                pending = s;
+
+                if (writing) return true;
+                writing = true;
+
+            }
+
+            writers.execute(this::drain);
+            return true;
+
+        }
+
+        /**
+         * Writes versions until none are waiting. Runs on the writers, since it blocks while the client isn't reading
+         */
+        private void drain() {
+
+            while (true) {
+
+                Snapshot s;
+                boolean close;
+
+                synchronized (this) {
+
+                    s = pending;
+                    pending = null;
+                    close = closed;
+
+                    if (s == null || close) writing = false;
+
+                }
+
+                // Closed outside the monitor, so offering a version never waits on the client
+                if (close) exchange.close();
+                if (s == null || close) return;
+
+                try {
+
+                    OutputStream os = exchange.getResponseBody();
+                    os.write(("id: " + s.version + "\ndata: ").getBytes(StandardCharsets.UTF_8));
+                    os.write(s.json);
+                    os.write("\n\n".getBytes(StandardCharsets.UTF_8));
+                    os.flush();
+
+                } catch (IOException e) {
+
+                    synchronized (this) {
+                        closed = true;
+                        writing = false;
+                    }
+
+                    exchange.close();
+                    return;
+
+                }
+
+                synchronized (this) {
+                    sent = s.version;
+                }
+
+            }
+
+        }
+
+        /**
+         * Closes the stream. The exchange is closed by the writers, since closing it writes to the client too
+         */
+        private void close() {
+
+            synchronized (this) {
+
+                if (closed) return;
+                closed = true;
+
+                if (writing) return;
+                writing = true;
+
+            }
+
+            writers.execute(this::drain);
+
+        }
+
+    }
+
+}
@@ -0,0 +1,901 @@
+package com.justinschaaf.twitchc4;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a compact record of every finished game, for analytics without a
+ * database. Each record is a header with the players, board size, start and
+ * end times, and result, followed by every move packed into as few bits as
+ * the board's width needs: 4 bits for up to 16 columns, up to 9 bits for 500.
+ * A full game on the standard board takes about 100 bytes, mostly names.
+ *
+ * Records are appended to segment files of up to
+ * {@link C4Config#archiveSegmentSize} MiB, each with an index of the offset
+ * of every record in it, so a reader can skip straight to the nth game.
+ * Segments are never rewritten once full, so they can be copied or shipped
+ * off while the bot is running. Records are framed with their length and a
+ * checksum like the {@link C4Journal}, and a record torn by a crash is cut
+ * off the last segment when the archive is opened again
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Archive {
+
+    /**
+     * "C4AR"
+     */
+    static final int SEGMENT_MAGIC = 0x43344152;
+    static final int VERSION = 1;
+
+    /**
+     * The magic and version at the start of every segment
+     */
+    static final int SEGMENT_HEADER = 2 * Integer.BYTES;
+
+    static final String SEGMENT_PREFIX = "games-";
+    static final String SEGMENT_SUFFIX = ".c4a";
+    static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Big enough for every move on the largest board, at 9 bits each
+     */
+    static final int MAX_RECORD = 1 << 19;
+
+    public static final byte DRAW = 0;
+    public static final byte P1_WIN = 1;
+    public static final byte P2_WIN = 2;
+
+    private static final byte FLAG_P1_FIRST = 1;
+    private static final byte FLAG_TEAM = 2;
+
+    private final Path dir;
+    private final long segmentSize;
+    private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private volatile boolean running = false;
+
+    private final AtomicLong archived = new AtomicLong();
+
+    // The segment being appended to, only touched by the writer thread once started
+    private int segment;
+    private FileChannel log;
+    private FileChannel index;
+
+    /**
+     * The number of records in the current segment's index, and where the last of them ends
+     */
+    private long entries;
+    private long indexed;
+
+    /**
+     * Creates an archive which doesn't store anything
+     */
+    public C4Archive() {
+        this.dir = null;
+        this.segmentSize = 0;
+    }
+
+    /**
+     * Creates an archive which stores records in the given directory,
+     * carrying on from the last segment already there
+     *
+     * @param dir The directory to keep the segments in
+     * @param segmentSize How large a segment may grow before a new one is started, in bytes
+     * @throws IOException If the directory can't be read or written
+     */
+    public C4Archive(Path dir, long segmentSize) throws IOException {
+
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(dir);
+
+        List<Integer> segments = segments(dir);
+
+        if (segments.isEmpty()) open(0);
+        else {
+            for (int i = 0; i < segments.size() - 1; i++) archived.addAndGet(Files.size(index(dir, segments.get(i))) / Long.BYTES);
+            recover(segments.get(segments.size() - 1));
+        }
+
+        running = true;
+        writer = new Thread(this::write, "C4-Archive");
+        writer.setDaemon(true);
+        writer.start();
+
+    }
+
+    /**
+     * Whether or not this archive stores anything
+     * @return true if this archive writes to disk
+     */
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    /**
+     * Encodes a finished game and queues it to be appended. Must be called
+     * from within the game's channel's mailbox, before it's removed
+     *
+     * @param g The game which ended
+     * @param winner The player who won the game, or null if it was a draw
+     */
+    public void record(C4Game g, String winner) {
+
+        if (!running) return;
+
+        String[] p = g.getPlayers();
+        byte result = winner == null ? DRAW : winner.equals(p[0]) ? P1_WIN : P2_WIN;
+        byte flags = (byte) ((g.isP1First() ? FLAG_P1_FIRST : 0) | (g.getVote() != null ? FLAG_TEAM : 0));
+
+        queue.add(encode(g.getId(), g.getChannel(), p[0], p[1], g.getBoard().getWidth(), g.getBoard().getHeight(),
+                TwitchC4.getConfig().gameConnectLength, g.getDifficulty() == null ? -1 : g.getDifficulty().ordinal(),
+                flags, result, g.getStartedAt(), System.currentTimeMillis(), g.getHistory()));
+
+    }
+
+    /**
+     * Stops appending to the archive, after writing everything still queued
+     */
+    public void close() {
+
+        if (!running) return;
+        running = false;
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    /**
+     * Gets the number of games in the archive, including those from before the bot started
+     * @return The number of archived games
+     */
+    public long getArchived() {
+        return archived.get();
+    }
+
+    /**
+     * Gets the number of the segment being appended to
+     * @return The current segment
+     */
+    public int getSegment() {
+        return segment;
+    }
+
+    /*
+     * WRITING
+     */
+
+    /**
+     * The writer thread's main loop. Appends every queued record to the
+     * current segment and its offset to the index, starting a new segment
+     * whenever the next record would take the current one past its size.
+     * Nothing is synced until a segment is full or the archive is closed, as
+     * the archive is for analytics rather than recovery, and a crash of the
+     * bot alone loses nothing that was already written
+     */
+    private void write() {
+
+        List<byte[]> batch = new ArrayList<>();
+
+        while (running || !queue.isEmpty()) {
+
+            try {
+
+                byte[] first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                batch.add(first);
+                queue.drainTo(batch);
+
+                long before = archived.get();
+                ByteBuffer offsets = ByteBuffer.allocate(batch.size() * Long.BYTES);
+
+                try {
+
+                    for (byte[] record : batch) {
+
+                        if (log.position() > SEGMENT_HEADER && log.position() + record.length > segmentSize) {
+                            flush(offsets);
+                            roll();
+                        }
+
+                        offsets.putLong(log.position());
+                        writeFully(log, ByteBuffer.wrap(record));
+
+                    }
+
+                    flush(offsets);
+
+                } catch (IOException e) {
+                    System.err.println("Failed to archive " + (batch.size() - (archived.get() - before)) + " games: " + e);
+                    repair();
+                }
+
+            } catch (InterruptedException e) {
+                if (!running) break;
+            } finally {
+                batch.clear();
+            }
+
+        }
+
+        try {
+            log.force(false);
+            index.force(false);
+            log.close();
+            index.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close the archive: " + e);
+        }
+
+    }
+
+    /**
+     * Appends the offsets of the records just written to the index
+     */
+    private void flush(ByteBuffer offsets) throws IOException {
+
+        offsets.flip();
+        long count = offsets.remaining() / Long.BYTES;
+        writeFully(index, offsets);
+        offsets.clear();
+
+        entries += count;
+        indexed = log.position();
+        archived.addAndGet(count);
+
+    }
+
+    /**
+     * Cuts the current segment and its index back to the last record in the
+     * index after a failed write, so every record in a segment stays indexed
+     * and later offsets land in the right place
+     */
+    private void repair() {
+
+        try {
+            log.truncate(indexed);
+            log.position(indexed);
+            index.truncate(entries * Long.BYTES);
+            index.position(entries * Long.BYTES);
+        } catch (IOException e) {
+            System.err.println("Failed to repair " + segment(dir, segment) + ": " + e);
+        }
+
+    }
+
+    /**
+     * Syncs and closes the current segment, then starts the next one
+     */
+    private void roll() throws IOException {
+
+        log.force(false);
+        index.force(false);
+        log.close();
+        index.close();
+
+        open(segment + 1);
+
+    }
+
+    /**
+     * Creates a new, empty segment and index
+     */
+    private void open(int n) throws IOException {
+
+        segment = n;
+        log = FileChannel.open(segment(dir, n), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        index = FileChannel.open(index(dir, n), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER).putInt(SEGMENT_MAGIC).putInt(VERSION);
+        header.flip();
+        writeFully(log, header);
+
+        entries = 0;
+        indexed = SEGMENT_HEADER;
+
+    }
+
+    /**
+     * Reopens the last segment to append to, cutting off a torn record at the
+     * end and rebuilding its index if it doesn't match
+     */
+    private void recover(int n) throws IOException {
+
+        List<Long> offsets = new ArrayList<>();
+        long end;
+
+        try (Reader r = new Reader(dir, n)) {
+            while (r.next() != null) offsets.add(r.offset);
+            end = r.end;
+        }
+
+        // Not even a valid header, so start the segment again
+        if (end < 0) {
+            open(n);
+            return;
+        }
+
+        segment = n;
+        log = FileChannel.open(segment(dir, n), StandardOpenOption.WRITE);
+        log.truncate(end);
+        log.position(end);
+
+        index = FileChannel.open(index(dir, n), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+        if (index.size() != (long) offsets.size() * Long.BYTES) {
+            ByteBuffer rebuilt = ByteBuffer.allocate(offsets.size() * Long.BYTES);
+            for (long offset : offsets) rebuilt.putLong(offset);
+            rebuilt.flip();
+            index.truncate(0);
+            writeFully(index, rebuilt);
+        }
+
+        index.position(index.size());
+        entries = offsets.size();
+        indexed = end;
+        archived.addAndGet(offsets.size());
+
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /*
+     * ENCODING
+     */
+
+    /**
+     * Gets how many bits each move takes on a board of the given width
+     *
+     * @param width The number of columns
+     * @return Enough bits to hold any column, but at least 4
+     */
+    public static int bits(int width) {
+        return Math.max(4, 32 - Integer.numberOfLeadingZeros(width - 1));
+    }
+
+    /**
+     * Frames a game as its length, body, and checksum
+     */
+    static byte[] encode(long id, String channel, String p1, String p2, int width, int height, int connect, int bot,
+                         byte flags, byte result, long startedAt, long endedAt, short[] moves) {
+
+        byte[] c = channel.getBytes(StandardCharsets.UTF_8);
+        byte[] a = p1.getBytes(StandardCharsets.UTF_8);
+        byte[] b = p2.getBytes(StandardCharsets.UTF_8);
+        int bits = bits(width);
+        int packed = (int) (((long) moves.length * bits + 7) / 8);
+
+        int length = 3 * Long.BYTES + 3 * Short.BYTES + 3 + 3 * Short.BYTES + c.length + a.length + b.length + Integer.BYTES + packed;
+        ByteBuffer buf = ByteBuffer.allocate(length + 2 * Integer.BYTES);
+
+        buf.putInt(length);
+        buf.putLong(id);
+        buf.putLong(startedAt);
+        buf.putLong(endedAt);
+        buf.putShort((short) width);
+        buf.putShort((short) height);
+        buf.putShort((short) connect);
+        buf.put((byte) bot);
+        buf.put(flags);
+        buf.put(result);
+        buf.putShort((short) c.length).put(c);
+        buf.putShort((short) a.length).put(a);
+        buf.putShort((short) b.length).put(b);
+        buf.putInt(moves.length);
+
+        // Little end first, each move straddling bytes as needed
+        long acc = 0;
+        int held = 0;
+
+        for (short m : moves) {
+
+            acc |= (long) m << held;
+            held += bits;
+
+            while (held >= 8) {
+                buf.put((byte) acc);
+                acc >>>= 8;
+                held -= 8;
+            }
+
+        }
+
+        if (held > 0) buf.put((byte) acc);
+
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), Integer.BYTES, length);
+        buf.putInt((int) crc.getValue());
+
+        return buf.array();
+
+    }
+
+    /**
+     * Reads a record's body, which has already been checked
+     */
+    private static Record decode(ByteBuffer buf) {
+
+        long id = buf.getLong();
+        long startedAt = buf.getLong();
+        long endedAt = buf.getLong();
+        int width = buf.getShort();
+        int height = buf.getShort();
+        int connect = buf.getShort();
+        int bot = buf.get();
+        byte flags = buf.get();
+        byte result = buf.get();
+        String channel = string(buf);
+        String p1 = string(buf);
+        String p2 = string(buf);
+
+        short[] moves = new short[buf.getInt()];
+        int bits = bits(width);
+        int mask = (1 << bits) - 1;
+        long acc = 0;
+        int held = 0;
+
+        for (int i = 0; i < moves.length; i++) {
+
+            while (held < bits) {
+                acc |= (buf.get() & 0xFFL) << held;
+                held += 8;
+            }
+
+            moves[i] = (short) (acc & mask);
+            acc >>>= bits;
+            held -= bits;
+
+        }
+
+        return new Record(id, channel, p1, p2, width, height, connect, bot, flags, result, startedAt, endedAt, moves);
+
+    }
+
+    private static String string(ByteBuffer buf) {
+
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+
+    }
+
+    /*
+     * FILES
+     */
+
+    /**
+     * Lists the numbers of the segments in a directory, oldest first
+     *
+     * @param dir The directory the archive is kept in
+     * @return The segment numbers in ascending order
+     * @throws IOException If the directory can't be read
+     */
+    static List<Integer> segments(Path dir) throws IOException {
+
+        if (!Files.isDirectory(dir)) return new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                    .map(f -> f.getFileName().toString())
+                    .filter(f -> f.startsWith(SEGMENT_PREFIX) && f.endsWith(SEGMENT_SUFFIX))
+                    .map(f -> f.substring(SEGMENT_PREFIX.length(), f.length() - SEGMENT_SUFFIX.length()))
+                    .filter(f -> !f.isEmpty() && f.chars().allMatch(Character::isDigit))
+                    .map(Integer::parseInt)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+    }
+
+    static Path segment(Path dir, int n) {
+        return dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, n, SEGMENT_SUFFIX));
+    }
+
+    static Path index(Path dir, int n) {
+        return dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, n, INDEX_SUFFIX));
+    }
+
+    /**
+     * Reads every record in an archive in order, one large sequential read
+     * at a time. A segment ends at its first torn or corrupt record
+     */
+    public static class Reader implements Closeable {
+
+        private static final int BUFFER = 1 << 20;
+
+        private final Path dir;
+        private final List<Integer> segments;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+        private final CRC32 crc = new CRC32();
+
+        private int next = 0;
+        private int segment = -1;
+        private FileChannel channel;
+
+        /**
+         * Where the buffer's contents start in the current segment
+         */
+        private long base;
+
+        /**
+         * Where the last record read starts in its segment
+         */
+        private long offset;
+
+        /**
+         * Where the last record read ends in its segment, or -1 if the segment's header wasn't valid
+         */
+        private long end = -1;
+
+        /**
+         * Opens every segment in a directory
+         *
+         * @param dir The directory the archive is kept in
+         * @throws IOException If the directory can't be read
+         */
+        public Reader(Path dir) throws IOException {
+            this.dir = dir;
+            this.segments = segments(dir);
+        }
+
+        /**
+         * Opens a single segment
+         */
+        private Reader(Path dir, int n) {
+            this.dir = dir;
+            this.segments = List.of(n);
+        }
+
+        /**
+         * Skips the given number of games, using each segment's index to jump
+         * over whole segments and then straight to the record
+         *
+         * @param count The number of games to skip
+         * @return The number of games actually skipped, fewer if the archive ran out
+         * @throws IOException If a segment or index can't be read
+         */
+        public long skip(long count) throws IOException {
+
+            long skipped = 0;
+
+            // Finish the segment already open first
+            while (skipped < count && channel != null) {
+
+                if (read() != null) skipped++;
+                else close();
+
+            }
+
+            while (skipped < count && next < segments.size()) {
+
+                int n = segments.get(next);
+                Path idx = index(dir, n);
+                long entries = Files.exists(idx) ? Files.size(idx) / Long.BYTES : 0;
+
+                if (count - skipped >= entries) {
+                    skipped += entries;
+                    next++;
+                    continue;
+                }
+
+                if (!openNext()) break;
+
+                try (FileChannel i = FileChannel.open(idx, StandardOpenOption.READ)) {
+
+                    ByteBuffer pos = ByteBuffer.allocate(Long.BYTES);
+                    i.position((count - skipped) * Long.BYTES);
+                    while (pos.hasRemaining() && i.read(pos) >= 0) continue;
+
+                    seek(pos.getLong(0));
+                    skipped = count;
+
+                }
+
+            }
+
+            return skipped;
+
+        }
+
+        /**
+         * Reads the next record
+         *
+         * @return The record, or null once every segment has been read
+         * @throws IOException If a segment can't be read
+         */
+        public Record next() throws IOException {
+
+            while (true) {
+
+                if (channel == null && !openNext()) return null;
+
+                Record r = read();
+                if (r != null) return r;
+
+                close();
+
+            }
+
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) channel.close();
+            channel = null;
+        }
+
+        /**
+         * Gets where the reader is in the current segment
+         */
+        private long position() {
+            return base + buf.position();
+        }
+
+        /**
+         * Opens the next segment and checks its header
+         *
+         * @return false if there are no more segments
+         */
+        private boolean openNext() throws IOException {
+
+            while (next < segments.size()) {
+
+                segment = segments.get(next++);
+                channel = FileChannel.open(segment(dir, segment), StandardOpenOption.READ);
+                seek(0);
+
+                if (fill(SEGMENT_HEADER) && buf.getInt() == SEGMENT_MAGIC && buf.getInt() <= VERSION) {
+                    end = SEGMENT_HEADER;
+                    return true;
+                }
+
+                System.err.println("Skipping " + segment(dir, segment) + ", it isn't an archive segment");
+                channel.close();
+                channel = null;
+
+            }
+
+            return false;
+
+        }
+
+        private void seek(long position) throws IOException {
+            channel.position(position);
+            base = position;
+            buf.clear().flip();
+        }
+
+        /**
+         * Reads the next record in the current segment
+         *
+         * @return The record, or null at the end of the segment or a torn record
+         */
+        private Record read() throws IOException {
+
+            if (!fill(Integer.BYTES)) return null;
+
+            offset = position();
+            int start = buf.position();
+            int length = buf.getInt(start);
+            if (length <= 0 || length > MAX_RECORD || !fill(length + 2 * Integer.BYTES)) return null;
+
+            start = buf.position();
+            ByteBuffer body = buf.duplicate();
+            body.position(start + Integer.BYTES).limit(start + Integer.BYTES + length);
+
+            crc.reset();
+            crc.update(body.duplicate());
+            if (buf.getInt(start + Integer.BYTES + length) != (int) crc.getValue()) return null;
+
+            buf.position(start + length + 2 * Integer.BYTES);
+            end = position();
+
+            return decode(body);
+
+        }
+
+        /**
+         * Makes sure the buffer holds at least the given number of bytes,
+         * reading more of the segment if it doesn't
+         *
+         * @return false if the segment ends first
+         */
+        private boolean fill(int bytes) throws IOException {
+
+            if (buf.remaining() >= bytes) return true;
+
+            base += buf.position();
+            buf.compact();
+
+            while (buf.position() < bytes) if (channel.read(buf) < 0) break;
+
+            buf.flip();
+
+            return buf.remaining() >= bytes;
+
+        }
+
+    }
+
+    /**
+     * A game read back from the archive
+     */
+    public static class Record {
+
+        private final long id;
+        private final String channel;
+        private final String p1;
+        private final String p2;
+        private final int width;
+        private final int height;
+        private final int connect;
+        private final C4Engine.Difficulty difficulty;
+        private final boolean p1First;
+        private final boolean team;
+        private final byte result;
+        private final long startedAt;
+        private final long endedAt;
+        private final short[] moves;
+
+        private Record(long id, String channel, String p1, String p2, int width, int height, int connect, int bot,
+                       byte flags, byte result, long startedAt, long endedAt, short[] moves) {
+            this.id = id;
+            this.channel = channel;
+            this.p1 = p1;
+            this.p2 = p2;
+            this.width = width;
+            this.height = height;
+            this.connect = connect;
+            this.difficulty = bot < 0 || bot >= C4Engine.Difficulty.values().length ? null : C4Engine.Difficulty.values()[bot];
+            this.p1First = (flags & FLAG_P1_FIRST) != 0;
+            this.team = (flags & FLAG_TEAM) != 0;
+            this.result = result;
+            this.startedAt = startedAt;
+            this.endedAt = endedAt;
+            this.moves = moves;
+        }
+
+        /**
+         * Gets the game's ID, unique within the run of the bot it was played in
+         * @return The game's ID
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the channel the game was played in
+         * @return The channel's name
+         */
+        public String getChannel() {
+            return channel;
+        }
+
+        /**
+         * Gets a player by their number, where 1 is the challenger and 2 is who they challenged
+         *
+         * @param player Either {@link C4Board#P1} or {@link C4Board#P2}
+         * @return The player's name
+         */
+        public String getPlayer(int player) {
+            return player == C4Board.P1 ? p1 : p2;
+        }
+
+        /**
+         * Gets the name of the player who moved first
+         * @return Player 1 or Player 2's name
+         */
+        public String getFirst() {
+            return p1First ? p1 : p2;
+        }
+
+        /**
+         * Gets the name of the player who won
+         * @return The winner's name, or null if the game was a draw
+         */
+        public String getWinner() {
+            return result == P1_WIN ? p1 : result == P2_WIN ? p2 : null;
+        }
+
+        /**
+         * Gets how the game ended
+         * @return One of {@link #DRAW}, {@link #P1_WIN}, or {@link #P2_WIN}
+         */
+        public byte getResult() {
+            return result;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Gets how many chips in a row the game was played to
+         * @return The connect length the game was played with
+         */
+        public int getConnect() {
+            return connect;
+        }
+
+        /**
+         * Gets how hard the bot played
+         * @return The bot's difficulty, or null if the game wasn't against the bot
+         */
+        public C4Engine.Difficulty getDifficulty() {
+            return difficulty;
+        }
+
+        /**
+         * Whether or not chat played as a team
+         * @return true if Player 1 was chat
+         */
+        public boolean isTeam() {
+            return team;
+        }
+
+        /**
+         * Gets when the game started, in milliseconds since the epoch
+         * @return When the game started
+         */
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        /**
+         * Gets when the game ended, in milliseconds since the epoch
+         * @return When the game ended
+         */
+        public long getEndedAt() {
+            return endedAt;
+        }
+
+        /**
+         * Gets the number of moves in the game
+         * @return How many chips were played
+         */
+        public int getMoveCount() {
+            return moves.length;
+        }
+
+        /**
+         * Gets a single move
+         *
+         * @param i The move's index, starting from 0
+         * @return The column played, starting from 0
+         */
+        public int getMove(int i) {
+            return moves[i];
+        }
+
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.justinschaaf.twitchc4;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Streams the games in a {@link C4Archive} to standard output, either as
+ * PGN-like text or as one JSON object per line, reading the archive in large
+ * sequential chunks so millions of games can be exported without holding more
+ * than one in memory.
+ * Usage: java -cp TwitchC4-1.0.jar com.justinschaaf.twitchc4.C4ArchiveExporter [directory] [pgn/jsonl] [skip] [limit]
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4ArchiveExporter {
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy.MM.dd").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    /**
+     * How long a line of moves in PGN can get before it's wrapped
+     */
+    private static final int PGN_LINE = 80;
+
+    public static void main(String[] args) throws Exception {
+
+        Path dir = Paths.get(args.length > 0 ? args[0] : "data/archive");
+        boolean json = args.length > 1 && args[1].equalsIgnoreCase("jsonl");
+        long skip = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        long limit = args.length > 3 ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+
+        long start = System.nanoTime();
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+
+        long count = export(dir, out, json, skip, limit);
+        out.flush();
+
+        System.err.printf("Exported %d games in %dms%n", count, (System.nanoTime() - start) / 1_000_000);
+
+    }
+
+    /**
+     * Writes the games in an archive, oldest first
+     *
+     * @param dir The directory the archive is kept in
+     * @param out Where to write the games
+     * @param json Whether to write JSON lines rather than PGN-like text
+     * @param skip How many games to skip first
+     * @param limit The most games to write
+     * @return The number of games written
+     * @throws IOException If the archive can't be read or the output can't be written
+     */
+    public static long export(Path dir, Writer out, boolean json, long skip, long limit) throws IOException {
+
+        long count = 0;
+        StringBuilder sb = new StringBuilder(512);
+
+        try (C4Archive.Reader reader = new C4Archive.Reader(dir)) {
+
+            reader.skip(skip);
+
+            C4Archive.Record r;
+
+            while (count < limit && (r = reader.next()) != null) {
+
+                sb.setLength(0);
+
+                if (json) json(sb, r);
+                else pgn(sb, r);
+
+                out.append(sb);
+                count++;
+
+            }
+
+        }
+
+        return count;
+
+    }
+
+    /**
+     * Formats a game as PGN tags followed by its moves, one column number
+     * (starting from 1) per move, numbered in pairs from the first player
+     */
+    static void pgn(StringBuilder sb, C4Archive.Record r) {
+
+        String result = result(r);
+        Instant started = Instant.ofEpochMilli(r.getStartedAt());
+
+        tag(sb, "Event", "Connect " + r.getConnect());
+        tag(sb, "Site", "twitch.tv/" + r.getChannel());
+        tag(sb, "UTCDate", DATE.format(started));
+        tag(sb, "UTCTime", TIME.format(started));
+        tag(sb, "Id", String.valueOf(r.getId()));
+        tag(sb, "Player1", r.getPlayer(C4Board.P1));
+        tag(sb, "Player2", r.getPlayer(C4Board.P2));
+        tag(sb, "First", r.getFirst());
+        if (r.getDifficulty() != null) tag(sb, "Bot", r.getDifficulty().name().toLowerCase(Locale.ROOT));
+        if (r.isTeam()) tag(sb, "Team", "true");
+        tag(sb, "Board", r.getWidth() + "x" + r.getHeight());
+        tag(sb, "Duration", String.valueOf((r.getEndedAt() - r.getStartedAt()) / 1000));
+        tag(sb, "Result", result);
+        sb.append('\n');
+
+        int line = sb.length();
+
+        for (int i = 0; i < r.getMoveCount(); i++) {
+
+            String move = (i % 2 == 0 ? (i / 2 + 1) + ". " : "") + (r.getMove(i) + 1);
+
+            if (sb.length() - line + 1 + move.length() > PGN_LINE) {
+                sb.append('\n');
+                line = sb.length();
+            } else if (sb.length() > line) sb.append(' ');
+
+            sb.append(move);
+
+        }
+
+        if (sb.length() > line) sb.append(' ');
+        sb.append(result).append("\n\n");
+
+    }
+
+    /**
+     * Formats a game as a single line of JSON, with columns starting from 0
+     * like the {@link C4Api}
+     */
+    static void json(StringBuilder sb, C4Archive.Record r) {
+
+        sb.append("{\"id\":").append(r.getId());
+        sb.append(",\"channel\":");
+        C4Api.string(sb, r.getChannel());
+        sb.append(",\"p1\":");
+        C4Api.string(sb, r.getPlayer(C4Board.P1));
+        sb.append(",\"p2\":");
+        C4Api.string(sb, r.getPlayer(C4Board.P2));
+        sb.append(",\"first\":");
+        C4Api.string(sb, r.getFirst());
+
+        if (r.getDifficulty() != null) {
+            sb.append(",\"bot\":");
+            C4Api.string(sb, r.getDifficulty().name().toLowerCase(Locale.ROOT));
+        }
+
+        if (r.isTeam()) sb.append(",\"team\":true");
+
+        sb.append(",\"width\":").append(r.getWidth());
+        sb.append(",\"height\":").append(r.getHeight());
+        sb.append(",\"connect\":").append(r.getConnect());
+        sb.append(",\"startedAt\":").append(r.getStartedAt());
+        sb.append(",\"endedAt\":").append(r.getEndedAt());
+        sb.append(",\"winner\":");
+        if (r.getWinner() == null) sb.append("null");
+        else C4Api.string(sb, r.getWinner());
+
+        sb.append(",\"moves\":[");
+        for (int i = 0; i < r.getMoveCount(); i++) sb.append(i == 0 ? "" : ",").append(r.getMove(i));
+        sb.append("]}\n");
+
+    }
+
+    private static String result(C4Archive.Record r) {
+        if (r.getResult() == C4Archive.P1_WIN) return "1-0";
+        else if (r.getResult() == C4Archive.P2_WIN) return "0-1";
+        else return "1/2-1/2";
+    }
+
+    private static void tag(StringBuilder sb, String name, String value) {
+
+        sb.append('[').append(name).append(" \"");
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\');
+            sb.append(c);
+        }
+
+        sb.append("\"]\n");
+
+    }
+
+}
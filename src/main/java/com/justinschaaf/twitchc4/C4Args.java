@@ -0,0 +1,106 @@
+package com.justinschaaf.twitchc4;
+
+/**
+ * Reads the arguments of a command straight out of the chat message. Tokens
+ * are separated by whitespace, and nothing is copied out of the message
+ * unless {@link #next()} is called
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Args {
+
+    private final String message;
+    private int pos;
+
+    /**
+     * Creates a new argument reader
+     *
+     * @param message The chat message
+     * @param pos The index the arguments start at, i.e. just after the command name
+     */
+    public C4Args(String message, int pos) {
+        this.message = message;
+        this.pos = pos;
+    }
+
+    /**
+     * Checks whether or not there's another argument to read
+     * @return true if there's another argument
+     */
+    public boolean hasNext() {
+        skipWhitespace();
+        return pos < message.length();
+    }
+
+    /**
+     * Reads the next argument as a string
+     * @return The next argument, or null if there are none left
+     */
+    public String next() {
+
+        if (!hasNext()) return null;
+
+        int start = pos;
+        pos = tokenEnd();
+
+        return message.substring(start, pos);
+
+    }
+
+    /**
+     * Reads the next argument as an integer, without copying it out of the message
+     *
+     * @return The value of the next argument
+     * @throws NumberFormatException If there are no arguments left or the next one isn't a valid integer
+     */
+    public int nextInt() {
+
+        if (!hasNext()) throw new NumberFormatException("No argument");
+
+        int start = pos;
+        int end = tokenEnd();
+        pos = end;
+
+        boolean negative = message.charAt(start) == '-';
+        int i = negative || message.charAt(start) == '+' ? start + 1 : start;
+        if (i == end) throw new NumberFormatException("Not a number");
+
+        // Accumulate negatively so Integer.MIN_VALUE fits
+        int value = 0;
+
+        for (; i < end; i++) {
+
+            int digit = Character.digit(message.charAt(i), 10);
+            if (digit < 0 || value < (Integer.MIN_VALUE + digit) / 10) throw new NumberFormatException("Not a number");
+
+            value = value * 10 - digit;
+
+        }
+
+        if (!negative && value == Integer.MIN_VALUE) throw new NumberFormatException("Not a number");
+
+        return negative ? value : -value;
+
+    }
+
+    /**
+     * Moves past any whitespace at the current position
+     */
+    private void skipWhitespace() {
+        while (pos < message.length() && Character.isWhitespace(message.charAt(pos))) pos++;
+    }
+
+    /**
+     * Finds the end of the token starting at the current position
+     * @return The index just after the token
+     */
+    private int tokenEnd() {
+
+        int end = pos;
+        while (end < message.length() && !Character.isWhitespace(message.charAt(end))) end++;
+
+        return end;
+
+    }
+
+}
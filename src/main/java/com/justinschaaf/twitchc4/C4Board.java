@@ -0,0 +1,386 @@
+package com.justinschaaf.twitchc4;
+
+/**
+ * The state of a Connect 4 board, stored as one bitboard per player along
+ * with the height of each column. Boards which fit in a long use
+ * {@link SmallBoard}; anything bigger, up to 500x500, uses {@link LargeBoard}.
+ *
+ * Columns and rows are indexed from 0, with row 0 being the bottom of the board.
+ * Cells hold {@link #EMPTY}, {@link #P1}, or {@link #P2}; symbols are only
+ * applied when the board is rendered
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public abstract class C4Board {
+
+    public static final int EMPTY = 0;
+    public static final int P1 = 1;
+    public static final int P2 = 2;
+
+    protected final int width;
+    protected final int height;
+
+    /**
+     * The number of chips in each column, which is also the row the next chip will land in
+     */
+    protected final int[] heights;
+    protected int moves = 0;
+
+    private int lastCol = -1;
+    private int lastRow = -1;
+
+    /**
+     * A hash of the position, updated with every move. Boards of different
+     * sizes start from different seeds so their hashes don't collide
+     */
+    protected long hash;
+
+    /**
+     * Creates a new, empty board
+     *
+     * @param width The number of columns
+     * @param height The number of rows
+     */
+    protected C4Board(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.heights = new int[width];
+        this.hash = mix(((long) width << 32) | height);
+    }
+
+    /**
+     * Creates a new, empty board using the most compact representation for its size
+     *
+     * @param width The number of columns
+     * @param height The number of rows
+     * @return The new board
+     */
+    public static C4Board create(int width, int height) {
+        if (width * (height + 1) <= Long.SIZE) return new SmallBoard(width, height);
+        else return new LargeBoard(width, height);
+    }
+
+    /**
+     * Checks whether or not a chip can be dropped in the given column
+     *
+     * @param col The column to check
+     * @return true if the column exists and isn't full
+     */
+    public boolean canPlay(int col) {
+        return col >= 0 && col < width && heights[col] < height;
+    }
+
+    /**
+     * Drops a chip in the given column, as long as it has passed {@link #canPlay(int)}
+     *
+     * @param col The column to play in
+     * @param player The player dropping the chip, either {@link #P1} or {@link #P2}
+     * @return The row the chip landed in
+     */
+    public int play(int col, int player) {
+
+        int row = heights[col]++;
+
+        flip(col, row, player);
+        hash ^= key(col, row, player);
+        moves++;
+
+        lastCol = col;
+        lastRow = row;
+
+        return row;
+
+    }
+
+    /**
+     * Takes back the last chip played in the given column. Used while
+     * searching for moves; the last move is not restored
+     *
+     * @param col The column to take a chip from
+     * @param player The player who played the chip
+     */
+    public void undo(int col, int player) {
+
+        int row = --heights[col];
+
+        flip(col, row, player);
+        hash ^= key(col, row, player);
+        moves--;
+
+    }
+
+    /**
+     * Creates an independent copy of this board
+     * @return The copy
+     */
+    public abstract C4Board copy();
+
+    /**
+     * Copies the state shared by every board type into the given board
+     *
+     * @param to The board to copy into, which must be the same size
+     * @return The given board
+     */
+    protected C4Board copyInto(C4Board to) {
+
+        System.arraycopy(heights, 0, to.heights, 0, width);
+        to.moves = moves;
+        to.lastCol = lastCol;
+        to.lastRow = lastRow;
+        to.hash = hash;
+
+        return to;
+
+    }
+
+    /**
+     * Gets a hash of the current position. Equal positions on boards of the same size have equal hashes
+     * @return The position's hash
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Gets the random key a chip in the given cell contributes to the hash
+     *
+     * @param col The column of the cell
+     * @param row The row of the cell
+     * @param player The player who owns the chip
+     * @return The cell's key
+     */
+    private long key(int col, int row, int player) {
+        return mix(((long) (col * height + row) << 1) + player);
+    }
+
+    /**
+     * Scrambles the given value (SplitMix64's finalizer), so cell keys don't
+     * need to be stored in a table
+     *
+     * @param z The value to scramble
+     * @return The scrambled value
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Gets the contents of the given cell
+     *
+     * @param col The column of the cell
+     * @param row The row of the cell, where 0 is the bottom
+     * @return {@link #EMPTY}, {@link #P1}, or {@link #P2}
+     */
+    public int get(int col, int row) {
+        if (row >= heights[col]) return EMPTY;
+        else return has(P1, col, row) ? P1 : P2;
+    }
+
+    /**
+     * Checks whether the chip in the given cell is part of a line of at least
+     * the given length. Only the four lines through the cell are checked, so
+     * this only needs to be called for the chip which was just played
+     *
+     * @param col The column of the cell
+     * @param row The row of the cell
+     * @param length The number of chips in a row needed to win
+     * @return true if the cell's owner has won through this cell
+     */
+    public boolean isWin(int col, int row, int length) {
+
+        int player = get(col, row);
+        if (player == EMPTY) return false;
+
+        return count(col, row, 1, 0, player, length) + count(col, row, -1, 0, player, length) + 1 >= length // -
+                || count(col, row, 0, -1, player, length) + 1 >= length // |
+                || count(col, row, 1, 1, player, length) + count(col, row, -1, -1, player, length) + 1 >= length // /
+                || count(col, row, 1, -1, player, length) + count(col, row, -1, 1, player, length) + 1 >= length; // \
+
+    }
+
+    /**
+     * Counts the given player's chips in a row starting next to the given cell
+     *
+     * @param col The column of the starting cell
+     * @param row The row of the starting cell
+     * @param dCol The column step
+     * @param dRow The row step
+     * @param player The player whose chips to count
+     * @param length The number of chips after which counting can stop
+     * @return The number of consecutive chips, not including the starting cell
+     */
+    private int count(int col, int row, int dCol, int dRow, int player, int length) {
+
+        int n = 0;
+
+        for (int c = col + dCol, r = row + dRow;
+             n < length - 1 && c >= 0 && c < width && r >= 0 && r < heights[c] && get(c, r) == player;
+             c += dCol, r += dRow) n++;
+
+        return n;
+
+    }
+
+    /**
+     * Checks whether or not every cell on the board has been filled
+     * @return true if no more moves can be made
+     */
+    public boolean isFull() {
+        return moves == width * height;
+    }
+
+    /**
+     * Gets the column the last chip was played in
+     * @return The last column played, or -1 if no moves have been made
+     */
+    public int getLastColumn() {
+        return lastCol;
+    }
+
+    /**
+     * Gets the row the last chip landed in
+     * @return The last row played, or -1 if no moves have been made
+     */
+    public int getLastRow() {
+        return lastRow;
+    }
+
+    /**
+     * Gets the number of columns on this board
+     * @return The width of the board
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of rows on this board
+     * @return The height of the board
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of chips in the given column
+     *
+     * @param col The column to check
+     * @return The height of the column
+     */
+    public int getColumnHeight(int col) {
+        return heights[col];
+    }
+
+    /**
+     * Gets the number of chips which have been played
+     * @return The number of moves made on this board
+     */
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * Flips the bit for the given player in the given cell
+     *
+     * @param col The column of the cell
+     * @param row The row of the cell
+     * @param player The player whose bitboard should be updated
+     */
+    protected abstract void flip(int col, int row, int player);
+
+    /**
+     * Checks the bit for the given player in the given cell
+     *
+     * @param player The player whose bitboard should be checked
+     * @param col The column of the cell
+     * @param row The row of the cell
+     * @return true if the player has a chip in the cell
+     */
+    protected abstract boolean has(int player, int col, int row);
+
+    /**
+     * A board which fits in a single long per player. Each column takes
+     * height + 1 bits so the board can be shifted without columns bleeding
+     * into each other; the standard 7x6 board uses 49 bits
+     */
+    static class SmallBoard extends C4Board {
+
+        private final long[] bits = new long[2];
+
+        SmallBoard(int width, int height) {
+            super(width, height);
+        }
+
+        @Override
+        public C4Board copy() {
+
+            SmallBoard b = new SmallBoard(width, height);
+            b.bits[0] = bits[0];
+            b.bits[1] = bits[1];
+
+            return copyInto(b);
+
+        }
+
+        @Override
+        protected void flip(int col, int row, int player) {
+            bits[player - 1] ^= 1L << (col * (height + 1) + row);
+        }
+
+        @Override
+        protected boolean has(int player, int col, int row) {
+            return (bits[player - 1] & (1L << (col * (height + 1) + row))) != 0;
+        }
+
+        /**
+         * Gets the raw bitboard for the given player
+         *
+         * @param player Either {@link #P1} or {@link #P2}
+         * @return The player's bitboard
+         */
+        long getBits(int player) {
+            return bits[player - 1];
+        }
+
+    }
+
+    /**
+     * A board stored as a packed bitset per player, one bit per cell in column-major order
+     */
+    static class LargeBoard extends C4Board {
+
+        private final long[][] bits;
+
+        LargeBoard(int width, int height) {
+            super(width, height);
+            this.bits = new long[2][(width * height + Long.SIZE - 1) / Long.SIZE];
+        }
+
+        @Override
+        public C4Board copy() {
+
+            LargeBoard b = new LargeBoard(width, height);
+            System.arraycopy(bits[0], 0, b.bits[0], 0, bits[0].length);
+            System.arraycopy(bits[1], 0, b.bits[1], 0, bits[1].length);
+
+            return copyInto(b);
+
+        }
+
+        @Override
+        protected void flip(int col, int row, int player) {
+            int i = col * height + row;
+            bits[player - 1][i >>> 6] ^= 1L << i;
+        }
+
+        @Override
+        protected boolean has(int player, int col, int row) {
+            int i = col * height + row;
+            return (bits[player - 1][i >>> 6] & (1L << i)) != 0;
+        }
+
+    }
+
+}
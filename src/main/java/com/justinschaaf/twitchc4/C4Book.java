@@ -0,0 +1,260 @@
+package com.justinschaaf.twitchc4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A precomputed table of the best move in every early position, generated
+ * by {@link C4BookGenerator}. The file is memory-mapped rather than read, so
+ * opening it is instant no matter how big it is and none of it lives on the
+ * heap.
+ *
+ * The file starts with a {@link #HEADER} byte header (magic, version, width,
+ * height, connect length, and record count), followed by {@link #RECORD} byte
+ * records sorted by key: the position's key as a long, then the best column
+ * and its score as shorts. Positions and their mirror images share a record,
+ * so only boards which fit in a {@link C4Board.SmallBoard} are supported.
+ * Unless they're forced wins or losses, scores are heuristic, from the same
+ * time-limited search as a live hint
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Book {
+
+    /**
+     * "C4BK"
+     */
+    private static final int MAGIC = 0x4334424B;
+    private static final int VERSION = 1;
+
+    static final int HEADER = 24;
+    static final int RECORD = 12;
+
+    /**
+     * Scores above this (or below its negative) are forced wins (or losses)
+     */
+    public static final int WIN = 30000;
+
+    private final ByteBuffer buf;
+    private final int width;
+    private final int height;
+    private final int length;
+    private final int size;
+
+    private C4Book(ByteBuffer buf) throws IOException {
+
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC) throw new IOException("Not an opening book");
+        if (buf.getInt(4) != VERSION) throw new IOException("Unsupported opening book version " + buf.getInt(4));
+
+        this.buf = buf;
+        this.width = buf.getInt(8);
+        this.height = buf.getInt(12);
+        this.length = buf.getInt(16);
+        this.size = buf.getInt(20);
+
+        if ((long) HEADER + (long) size * RECORD > buf.capacity()) throw new IOException("Opening book is truncated");
+
+    }
+
+    /**
+     * Memory-maps the given opening book
+     *
+     * @param file The book to open
+     * @return The opened book
+     * @throws IOException If the file can't be read or isn't a valid book
+     */
+    public static C4Book open(Path file) throws IOException {
+
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return new C4Book(buf);
+
+        }
+
+    }
+
+    /**
+     * Writes an opening book
+     *
+     * @param file Where to write the book
+     * @param width The width of the board the book is for
+     * @param height The height of the board the book is for
+     * @param length The number of chips in a row needed to win
+     * @param keys The key of each position from {@link #key(C4Board, int)}, sorted in ascending order
+     * @param moves The best column for each position, from the position's canonical orientation
+     * @param scores The score of the best column for each position
+     * @throws IOException If the file can't be written
+     */
+    public static void write(Path file, int width, int height, int length, long[] keys, short[] moves, short[] scores) throws IOException {
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + keys.length * RECORD);
+
+        buf.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(length).putInt(keys.length);
+
+        for (int i = 0; i < keys.length; i++) buf.putLong(keys[i]).putShort(moves[i]).putShort(scores[i]);
+
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(buf.array());
+        }
+
+    }
+
+    /**
+     * Looks up the best move in the given position
+     *
+     * @param board The board
+     * @param player The player to move
+     * @param length The number of chips in a row needed to win
+     * @return The best move, or null if the position isn't in this book
+     */
+    public Entry lookup(C4Board board, int player, int length) {
+
+        if (board.getWidth() != width || board.getHeight() != height || length != this.length) return null;
+
+        long key = key(board, player);
+        boolean mirrored = key < 0;
+        key &= Long.MAX_VALUE;
+
+        int lo = 0;
+        int hi = size - 1;
+
+        while (lo <= hi) {
+
+            int mid = (lo + hi) >>> 1;
+            int at = HEADER + mid * RECORD;
+            long k = buf.getLong(at);
+
+            if (k < key) lo = mid + 1;
+            else if (k > key) hi = mid - 1;
+            else {
+                int col = buf.getShort(at + 8);
+                return new Entry(mirrored ? width - 1 - col : col, buf.getShort(at + 10));
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Gets the canonical key of the given position. The key only depends on
+     * which chips belong to the player to move, so it doesn't matter who went
+     * first, and a position and its mirror image have the same key
+     *
+     * @param board The board, which must be a {@link C4Board.SmallBoard}
+     * @param player The player to move
+     * @return The key, with the sign bit set if the board had to be mirrored to get it
+     */
+    public static long key(C4Board board, int player) {
+
+        C4Board.SmallBoard b = (C4Board.SmallBoard) board;
+        int w = b.getWidth();
+        int h = b.getHeight();
+
+        long own = b.getBits(player);
+        long mask = own | b.getBits(3 - player);
+
+        long key = key(own, mask, w, h);
+        long mirror = key(mirror(own, w, h), mirror(mask, w, h), w, h);
+
+        return mirror < key ? mirror | Long.MIN_VALUE : key;
+
+    }
+
+    /**
+     * Combines the player's chips and every occupied cell into one number.
+     * Adding a bit to the bottom of each column carries up past the occupied
+     * cells, marking each column's height
+     */
+    private static long key(long own, long mask, int w, int h) {
+
+        long bottom = 0;
+        for (int c = 0; c < w; c++) bottom |= 1L << (c * (h + 1));
+
+        return own + mask + bottom;
+
+    }
+
+    /**
+     * Reverses the order of the columns in a {@link C4Board.SmallBoard} bitboard
+     */
+    private static long mirror(long bits, int w, int h) {
+
+        long col = (1L << (h + 1)) - 1;
+        long out = 0;
+
+        for (int c = 0; c < w; c++) out |= ((bits >>> (c * (h + 1))) & col) << ((w - 1 - c) * (h + 1));
+
+        return out;
+
+    }
+
+    /**
+     * Gets the width of the board this book is for
+     * @return The number of columns
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the board this book is for
+     * @return The number of rows
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of positions in this book
+     * @return The number of records
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * The best move in a position from the book
+     */
+    public static class Entry {
+
+        private final int column;
+        private final int score;
+
+        private Entry(int column, int score) {
+            this.column = column;
+            this.score = score;
+        }
+
+        /**
+         * Gets the best column
+         * @return The column to play in, starting from 0
+         */
+        public int getColumn() {
+            return column;
+        }
+
+        /**
+         * Gets the score of the best column for the player to move. Scores
+         * above {@link #WIN} are forced wins in 32767 - score moves, and
+         * below -{@link #WIN} forced losses. Anything in between is the
+         * engine's heuristic evaluation from a time-limited search, not a
+         * solved value
+         * @return The score of the best column
+         */
+        public int getScore() {
+            return score;
+        }
+
+    }
+
+}
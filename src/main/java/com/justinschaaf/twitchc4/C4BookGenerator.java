@@ -0,0 +1,134 @@
+package com.justinschaaf.twitchc4;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds a {@link C4Book} for the standard board offline, by searching every
+ * distinct position up to a number of moves in with the {@link C4Engine}.
+ * Usage: java -cp TwitchC4-1.0.jar com.justinschaaf.twitchc4.C4BookGenerator [file] [plies] [millis]
+ *
+ * Each position gets the same time-limited search a hint would get live, so
+ * the book holds heuristic answers rather than solved ones: only forced wins
+ * and losses the search reaches are proven. The defaults of 8 moves and
+ * 250ms cover 38,203 positions in a few hours. The number of positions
+ * roughly triples with every move, so a 12 move book takes over a week at
+ * the same speed, and solving every position to the end with this engine
+ * would take far longer still
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4BookGenerator {
+
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 6;
+    private static final int LENGTH = 4;
+
+    public static void main(String[] args) throws Exception {
+
+        Path file = Paths.get(args.length > 0 ? args[0] : "book.bin");
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 250;
+
+        generate(file, plies, millis);
+
+    }
+
+    /**
+     * Searches every position with fewer than the given number of moves
+     * played and writes the results to a book
+     *
+     * @param file Where to write the book
+     * @param plies The number of moves the book covers
+     * @param millis How long to search each position for, in milliseconds
+     * @throws Exception If a search fails or the book can't be written
+     */
+    public static void generate(Path file, int plies, long millis) throws Exception {
+
+        C4Engine engine = new C4Engine(1 << 22, LENGTH);
+
+        List<Long> keys = new ArrayList<>();
+        List<Short> moves = new ArrayList<>();
+        List<Short> scores = new ArrayList<>();
+
+        List<C4Board> level = new ArrayList<>();
+        level.add(C4Board.create(WIDTH, HEIGHT));
+
+        for (int ply = 0; ply < plies && !level.isEmpty(); ply++) {
+
+            // Players alternate, and keys don't care who went first
+            int player = ply % 2 == 0 ? C4Board.P1 : C4Board.P2;
+
+            List<C4Board> next = new ArrayList<>();
+            Set<Long> seen = new HashSet<>();
+            long start = System.nanoTime();
+
+            for (C4Board b : level) {
+
+                C4Engine.Result r = engine.analyse(b, player, millis, Integer.MAX_VALUE).get();
+                long key = C4Book.key(b, player);
+
+                keys.add(key & Long.MAX_VALUE);
+                moves.add((short) (key < 0 ? WIDTH - 1 - r.getColumn() : r.getColumn()));
+                scores.add(toBookScore(r));
+
+                // Only carry on from positions the game would continue from
+                for (int col = 0; col < WIDTH; col++) {
+
+                    if (!b.canPlay(col)) continue;
+
+                    C4Board child = b.copy();
+                    int row = child.play(col, player);
+
+                    if (child.isWin(col, row, LENGTH) || child.isFull()) continue;
+                    if (seen.add(C4Book.key(child, 3 - player) & Long.MAX_VALUE)) next.add(child);
+
+                }
+
+            }
+
+            System.out.printf("Ply %d: %d positions in %.1fs%n", ply, level.size(), (System.nanoTime() - start) / 1e9);
+            level = next;
+
+        }
+
+        engine.shutdown();
+
+        // Sort every record by key
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(keys.get(a), keys.get(b)));
+
+        long[] k = new long[order.length];
+        short[] m = new short[order.length];
+        short[] s = new short[order.length];
+
+        for (int i = 0; i < order.length; i++) {
+            k[i] = keys.get(order[i]);
+            m[i] = moves.get(order[i]);
+            s[i] = scores.get(order[i]);
+        }
+
+        C4Book.write(file, WIDTH, HEIGHT, LENGTH, k, m, s);
+        System.out.println("Wrote " + k.length + " positions to " + file);
+
+    }
+
+    /**
+     * Squeezes an engine score into the range of a book score
+     *
+     * @param r The result of a search
+     * @return The score to store in the book
+     */
+    private static short toBookScore(C4Engine.Result r) {
+        if (r.isWin()) return (short) (Short.MAX_VALUE - r.getDistance());
+        else if (r.isLoss()) return (short) -(Short.MAX_VALUE - r.getDistance());
+        else return (short) Math.max(-C4Book.WIN, Math.min(C4Book.WIN, r.getScore()));
+    }
+
+}
@@ -1,7 +1,5 @@
 package com.justinschaaf.twitchc4;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -11,12 +9,16 @@ import java.util.concurrent.TimeUnit;
  */
 public class C4Challenge {
 
+    private long id;
+    private long created;
+
     private String channel;
     private String from;
     private String to;
 
     private boolean accepted = false;
-    private ScheduledFuture<?> expiration;
+    private boolean cancelled = false;
+    private C4Timer.Timeout expiration;
 
     /**
      * Represents a challenge to anyone to play Connect 4
@@ -37,16 +39,51 @@ public class C4Challenge {
      */
     public C4Challenge(String channel, String from, String to) {
 
+        this.id = TwitchC4.getJournal().nextId();
+        this.created = System.currentTimeMillis();
         this.channel = channel;
         this.from = from;
         this.to = to;
 
-        expiration = Executors
-                .newScheduledThreadPool(1)
+        TwitchC4.getJournal().challenge(this);
+        scheduleExpiration(TimeUnit.SECONDS.toMillis(TwitchC4.getConfig().gameTimer));
+
+    }
+
+    /**
+     * Restores a challenge from the {@link C4Journal}. It expires once the
+     * rest of its time runs out, or straight away if it ran out while the bot
+     * was down
+     *
+     * @param saved The challenge as it was when the bot stopped
+     */
+    C4Challenge(C4Journal.SavedChallenge saved) {
+
+        this.id = saved.id;
+        this.created = saved.created;
+        this.channel = saved.channel;
+        this.from = saved.from;
+        this.to = saved.to;
+
+        long elapsed = System.currentTimeMillis() - created;
+        scheduleExpiration(Math.max(0, TimeUnit.SECONDS.toMillis(TwitchC4.getConfig().gameTimer) - elapsed));
+
+    }
+
+    /**
+     * Schedules this challenge to expire
+     * @param millis How long until it expires, in milliseconds
+     */
+    private void scheduleExpiration(long millis) {
+
+        expiration = TwitchC4
+                .getTimer()
                 .schedule(
-                        this::expire,
-                        TwitchC4.getConfig().gameTimer,
-                        TimeUnit.SECONDS
+                        () -> TwitchC4.getCmds().submit(channel, () -> {
+                            if (!cancelled) expire();
+                        }),
+                        millis,
+                        TimeUnit.MILLISECONDS
                 );
 
     }
@@ -76,8 +113,26 @@ public class C4Challenge {
      * Cancels this challenge
      */
     public void cancel() {
-        if (!expiration.isDone()) expiration.cancel(true);
-        TwitchC4.getCmds().CHALLENGES.get(channel).remove(this);
+        cancelled = true;
+        expiration.cancel();
+        TwitchC4.getJournal().cancel(this);
+        TwitchC4.getCmds().getChannel(channel).removeChallenge(this);
+    }
+
+    /**
+     * Gets the id of this challenge, which is unique across restarts
+     * @return The id of this challenge
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets when this challenge was sent
+     * @return The time this challenge was sent in milliseconds since the epoch
+     */
+    public long getCreated() {
+        return created;
     }
 
     /**
@@ -0,0 +1,366 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the state of a single channel along with the mailbox which guards it.
+ * Every command and timer callback for a channel is submitted through
+ * {@link #execute(Runnable)}, which runs them one at a time in the order they
+ * arrived. Different channels drain their mailboxes in parallel on a shared
+ * pool, so no locks are needed anywhere.
+ *
+ * The challenges, games, and enabled flag must only be touched from within
+ * this channel's mailbox. Games and challenges are also indexed by the
+ * (lowercased) names of their players, so finding a user is O(1) no matter
+ * how many games are running.
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Channel implements Executor {
+
+    /**
+     * The maximum number of tasks to run before handing the thread to another channel
+     */
+    private static final int THROUGHPUT = 64;
+
+    private final String name;
+    private final Executor pool;
+
+    private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private final LinkedHashSet<C4Challenge> challenges = new LinkedHashSet<>();
+    private final LinkedHashSet<C4Game> games = new LinkedHashSet<>();
+    private final C4Queue queue = new C4Queue(this);
+    private C4Tournament tournament;
+    private boolean enabled = true;
+
+    /**
+     * The votes for the team game in this channel, if there is one. Unlike
+     * everything else this can be read from any thread, so votes can be
+     * counted without going through the mailbox
+     */
+    private volatile C4Vote vote;
+
+    /**
+     * The sizes of the challenges and games, which can be read from any
+     * thread so the metrics never have to go through the mailbox
+     */
+    private volatile int challengeCount = 0;
+    private volatile int gameCount = 0;
+
+    /**
+     * Bumped every time a challenge or game is added, removed, or moved in.
+     * Only written from within the mailbox, but can be read from any thread
+     */
+    private volatile long version = 0;
+
+    private final HashMap<String, C4Game> gamesByPlayer = new HashMap<>();
+    private final HashMap<String, C4Challenge> challengesFrom = new HashMap<>();
+    private final HashMap<String, LinkedHashSet<C4Challenge>> challengesTo = new HashMap<>();
+
+    /**
+     * Challenges to anyone, oldest first
+     */
+    private final LinkedHashSet<C4Challenge> openChallenges = new LinkedHashSet<>();
+
+    /**
+     * Creates a new channel
+     *
+     * @param name The name of the Twitch channel
+     * @param pool The shared pool this channel's mailbox is drained on
+     */
+    public C4Channel(String name, Executor pool) {
+        this.name = name;
+        this.pool = pool;
+    }
+
+    /**
+     * Adds a task to this channel's mailbox. It will run after every task
+     * submitted before it, and never at the same time as another task for
+     * this channel
+     *
+     * @param task The task to run
+     */
+    @Override
+    public void execute(Runnable task) {
+        mailbox.add(task);
+        schedule();
+    }
+
+    /**
+     * Makes sure a drain of the mailbox is pending if there's anything in it
+     */
+    private void schedule() {
+        if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) pool.execute(this::drain);
+    }
+
+    /**
+     * Runs up to {@link #THROUGHPUT} tasks from the mailbox, then yields the thread
+     */
+    private void drain() {
+
+        try {
+
+            Runnable task;
+
+            for (int i = 0; i < THROUGHPUT && (task = mailbox.poll()) != null; i++) {
+
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    System.err.println("Error in channel " + name + ": " + e);
+                    e.printStackTrace();
+                }
+
+            }
+
+        } finally {
+            scheduled.set(false);
+            schedule();
+        }
+
+    }
+
+    /**
+     * Gets the name of this channel
+     * @return The name of this channel
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the currently active challenges in this channel
+     * @return The active challenges, oldest first
+     */
+    public Collection<C4Challenge> getChallenges() {
+        return Collections.unmodifiableCollection(challenges);
+    }
+
+    /**
+     * Gets the currently active games in this channel
+     * @return The active games, oldest first
+     */
+    public Collection<C4Game> getGames() {
+        return Collections.unmodifiableCollection(games);
+    }
+
+    /**
+     * Gets the players in this channel waiting to be matched with an opponent
+     * @return The matchmaking queue
+     */
+    public C4Queue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Gets the tournament in this channel, whether it's taking sign-ups or being played
+     * @return The tournament, or null if there isn't one
+     */
+    public C4Tournament getTournament() {
+        return tournament;
+    }
+
+    /**
+     * Sets the tournament in this channel
+     * @param tournament The tournament, or null once it's over
+     */
+    public void setTournament(C4Tournament tournament) {
+        this.tournament = tournament;
+    }
+
+    /**
+     * Gets the number of active challenges in this channel. Safe to call from any thread
+     * @return The number of challenges
+     */
+    public int getChallengeCount() {
+        return challengeCount;
+    }
+
+    /**
+     * Gets the number of active games in this channel. Safe to call from any thread
+     * @return The number of games
+     */
+    public int getGameCount() {
+        return gameCount;
+    }
+
+    /**
+     * Adds a new challenge to this channel and its indexes
+     * @param challenge The challenge to add
+     */
+    public void addChallenge(C4Challenge challenge) {
+
+        challenges.add(challenge);
+        challengeCount = challenges.size();
+        challengesFrom.put(key(challenge.getFrom()), challenge);
+
+        if (challenge.getTo() == null) openChallenges.add(challenge);
+        else challengesTo.computeIfAbsent(key(challenge.getTo()), k -> new LinkedHashSet<>()).add(challenge);
+
+        changed();
+
+    }
+
+    /**
+     * Removes a challenge from this channel and its indexes
+     * @param challenge The challenge to remove
+     */
+    public void removeChallenge(C4Challenge challenge) {
+
+        if (!challenges.remove(challenge)) return;
+        challengeCount = challenges.size();
+
+        challengesFrom.remove(key(challenge.getFrom()), challenge);
+        openChallenges.remove(challenge);
+
+        // An open challenge may have been given a recipient just before being accepted
+        if (challenge.getTo() != null) {
+
+            LinkedHashSet<C4Challenge> to = challengesTo.get(key(challenge.getTo()));
+
+            if (to != null) {
+                to.remove(challenge);
+                if (to.isEmpty()) challengesTo.remove(key(challenge.getTo()));
+            }
+
+        }
+
+        changed();
+
+    }
+
+    /**
+     * Adds a new game to this channel and indexes both of its players. The
+     * bot isn't indexed, since it can play any number of games at once, and
+     * neither is chat playing as a team
+     * @param game The game to add
+     */
+    public void addGame(C4Game game) {
+
+        games.add(game);
+        gameCount = games.size();
+        if (game.getVote() != null) vote = game.getVote();
+
+        for (String p : game.getPlayers()) if (!game.isBot(p) && !game.isTeam(p)) gamesByPlayer.put(key(p), game);
+
+        changed();
+
+    }
+
+    /**
+     * Removes a game from this channel and its index
+     * @param game The game to remove
+     */
+    public void removeGame(C4Game game) {
+
+        if (!games.remove(game)) return;
+        gameCount = games.size();
+        if (game.getVote() != null && vote == game.getVote()) vote = null;
+
+        for (String p : game.getPlayers()) if (!game.isBot(p) && !game.isTeam(p)) gamesByPlayer.remove(key(p), game);
+
+        changed();
+
+    }
+
+    /**
+     * Marks this channel's state as changed, and pushes it to any
+     * {@link C4Api} clients waiting on it. Must be called from within this
+     * channel's mailbox
+     */
+    public void changed() {
+
+        version++;
+
+        C4Api api = TwitchC4.getApi();
+        if (api != null) api.changed(this);
+
+    }
+
+    /**
+     * Gets the version of this channel's state. Safe to call from any thread
+     * @return The number of times the state has changed
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Finds the game the given user is playing in
+     *
+     * @param user The user to find
+     * @return The {@link C4Game} the user is currently playing in, or null if none is found
+     */
+    public C4Game findGame(String user) {
+        return gamesByPlayer.get(key(user));
+    }
+
+    /**
+     * Finds a challenge the given user sent or received. A challenge they sent is preferred
+     *
+     * @param user The user to find
+     * @return The user's {@link C4Challenge}, or null if none is found
+     */
+    public C4Challenge findChallenge(String user) {
+
+        C4Challenge from = challengesFrom.get(key(user));
+        if (from != null) return from;
+
+        LinkedHashSet<C4Challenge> to = challengesTo.get(key(user));
+        return to == null ? null : to.iterator().next();
+
+    }
+
+    /**
+     * Finds the oldest challenge to anyone
+     * @return The oldest open {@link C4Challenge}, or null if there are none
+     */
+    public C4Challenge findOpenChallenge() {
+        return openChallenges.isEmpty() ? null : openChallenges.iterator().next();
+    }
+
+    /**
+     * Normalizes a username for use as an index key
+     *
+     * @param user The username
+     * @return The key for the user
+     */
+    private static String key(String user) {
+        return user.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the votes for the team game in this channel. Safe to call from any thread
+     * @return The vote, or null if chat isn't playing as a team
+     */
+    public C4Vote getVote() {
+        return vote;
+    }
+
+    /**
+     * Whether or not games are manually enabled by mods in this channel
+     * @return true if games are enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether or not games are manually enabled by mods in this channel
+     * @param enabled true to enable games
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.justinschaaf.twitchc4;
+
+/**
+ * Where chat messages end up once they leave the {@link C4Outbox}. Normally
+ * this is Twitch chat, but it can be swapped out to run the bot without
+ * connecting to Twitch
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+@FunctionalInterface
+public interface C4ChatSink {
+
+    /**
+     * Sends a message in the given channel
+     *
+     * @param channel The channel to send the message in
+     * @param message The message to send
+     */
+    void send(String channel, String message);
+
+}
@@ -0,0 +1,103 @@
+package com.justinschaaf.twitchc4;
+
+/**
+ * Every command this bot accepts, along with its aliases. Names are looked
+ * up straight from the chat message through a precomputed open-addressing
+ * table, so no substring is ever made for the command name
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public enum C4Command {
+
+    PLAY("play", "accept", "challenge"),
+    QUEUE("queue"),
+    TOURNAMENT("tournament"),
+    PUT("put"),
+    FORFEIT("forfeit", "decline"),
+    HINT("hint"),
+    STATS("stats"),
+    TOP("top", "leaderboard"),
+    HELP("help"),
+    TOGGLE("toggle"),
+    ABOUT("about", "author", "info");
+
+    private static final String[] NAMES;
+    private static final C4Command[] COMMANDS;
+    private static final int MASK;
+
+    static {
+
+        int count = 0;
+        for (C4Command c : values()) count += c.aliases.length;
+
+        // Keep the table at most a quarter full so probes stay short
+        int size = Integer.highestOneBit(count * 4 - 1) << 1;
+        NAMES = new String[size];
+        COMMANDS = new C4Command[size];
+        MASK = size - 1;
+
+        for (C4Command c : values())
+            for (String alias : c.aliases) {
+
+                int i = hash(alias, 0, alias.length()) & MASK;
+                while (NAMES[i] != null) i = (i + 1) & MASK;
+
+                NAMES[i] = alias;
+                COMMANDS[i] = c;
+
+            }
+
+    }
+
+    private final String[] aliases;
+
+    C4Command(String... aliases) {
+        this.aliases = aliases;
+    }
+
+    /**
+     * Finds the command whose name or alias is in the given region of a message
+     *
+     * @param message The message containing the command name
+     * @param start The index the name starts at
+     * @param end The index the name ends at, exclusive
+     * @return The matching command, or null if there is none
+     */
+    public static C4Command lookup(String message, int start, int end) {
+
+        int length = end - start;
+
+        for (int i = hash(message, start, end) & MASK; NAMES[i] != null; i = (i + 1) & MASK)
+            if (NAMES[i].length() == length && message.regionMatches(start, NAMES[i], 0, length))
+                return COMMANDS[i];
+
+        return null;
+
+    }
+
+    /**
+     * Hashes a region of a string the same way whether or not it's been cut out of the message
+     *
+     * @param s The string to hash
+     * @param start The index to start hashing at
+     * @param end The index to stop hashing at, exclusive
+     * @return The hash of the region
+     */
+    private static int hash(String s, int start, int end) {
+
+        int h = 0;
+        for (int i = start; i < end; i++) h = 31 * h + s.charAt(i);
+
+        return h ^ (h >>> 16);
+
+    }
+
+    /**
+     * Gets the primary name of this command
+     * @return The name of this command, e.g. "play"
+     */
+    public String getName() {
+        return aliases[0];
+    }
+
+}
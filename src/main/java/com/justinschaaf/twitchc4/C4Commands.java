@@ -3,9 +3,14 @@ package com.justinschaaf.twitchc4;
 import com.github.philippheuer.events4j.simple.domain.EventSubscriber;
 import com.github.twitch4j.chat.events.channel.ChannelMessageEvent;
 import com.github.twitch4j.common.enums.CommandPermission;
-import com.github.twitch4j.helix.domain.StreamList;
 
-import java.util.*;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Manages all the commands this bot accepts
@@ -15,157 +20,307 @@ import java.util.*;
 public class C4Commands {
 
     /**
-     * Stores the currently active challenges in each channel
+     * Stores the state and mailbox of each channel
      */
-    public final HashMap<String, LinkedList<C4Challenge>> CHALLENGES = new HashMap<>();
+    private final ConcurrentHashMap<String, C4Channel> CHANNELS = new ConcurrentHashMap<>();
 
     /**
-     * Stores the currently active games in each channel
+     * The number of users who can be rate limited at once, across every channel
      */
-    public final HashMap<String, LinkedList<C4Game>> GAMES = new HashMap<>();
+    private static final int LIMITER_SIZE = 1 << 16;
 
     /**
-     * Stores whether or not games are manually enabled or disabled by mods in each channel
+     * The shared pool every channel's mailbox is drained on
      */
-    private final HashMap<String, Boolean> GAMES_ENABLED = new HashMap<>();
+    private final Executor pool;
 
     /**
-     * The primary method for receiving and handling commands
+     * Drops commands from users who send too many
+     */
+    private final C4Limiter limiter;
+
+    /**
+     * Creates a new command handler which runs each channel's commands on a
+     * shared {@link ForkJoinPool} with one thread per core
+     */
+    public C4Commands() {
+        this(new ForkJoinPool(
+                Runtime.getRuntime().availableProcessors(),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null,
+                true
+        ));
+    }
+
+    /**
+     * Creates a new command handler
+     * @param pool The pool each channel's mailbox is drained on
+     */
+    public C4Commands(Executor pool) {
+        this.pool = pool;
+        this.limiter = new C4Limiter(
+                TwitchC4.getConfig().cmdUserBurst,
+                TwitchC4.getConfig().cmdUserCooldown,
+                LIMITER_SIZE
+        );
+    }
+
+    /**
+     * The primary method for receiving and handling commands. Only checks
+     * whether the message is a command; the command itself is run in the
+     * channel's mailbox
+     *
      * @param e The {@link ChannelMessageEvent} which may contain a command
      */
     @EventSubscriber
     public void handle(ChannelMessageEvent e) {
+        handle(e.getChannel().getName(), e.getUser().getName(), e.getPermissions(), e.getMessage());
+    }
+
+    /**
+     * Handles a chat message which may contain a command
+     *
+     * @param channel The channel the message was sent in
+     * @param user The user which sent the message
+     * @param perms The permissions the user has
+     * @param message The message
+     */
+    public void handle(String channel, String user, Set<CommandPermission> perms, String message) {
+
+        String prefix = TwitchC4.getConfig().cmdPrefix;
 
-        String[] tokens = e.getMessage().split(" ");
+        // Most messages aren't commands, so reject them before doing anything else
+        if (!message.startsWith(prefix)) return;
 
-        StreamList streams = TwitchC4
-                .getClient()
-                .getHelix()
-                .getStreams(
-                        null,
-                        null,
-                        null,
-                        1,
-                        null,
-                        null,
-                        null,
-                        List.of(e.getChannel().getName())
-                ).execute();
+        // Another instance handles this channel now, we just haven't left it yet
+        if (TwitchC4.getShard() != null && !TwitchC4.getShard().owns(channel)) return;
 
-        if (tokens.length > 0 && tokens[0].startsWith(TwitchC4.getConfig().cmdPrefix)) {
+        // If offline games not enabled and streamer is offline, abort
+        // If online games not enabled and streamer is online, abort
+        // The status is only needed if one of them is disabled
+        if (!TwitchC4.getConfig().gameWhileOffline || !TwitchC4.getConfig().gameWhileOnline) {
 
-            ensureDataExists(e.getChannel().getName());
+            boolean live = TwitchC4.getStatus().isLive(channel);
 
-            // If offline games not enabled and streamer is offline, abort
-            // If online games not enabled and streamer is online, abort
             if (
-                    (!TwitchC4.getConfig().gameWhileOffline && streams.getStreams().size() == 0) ||
-                    (!TwitchC4.getConfig().gameWhileOnline && streams.getStreams().size() > 0)
+                    (!TwitchC4.getConfig().gameWhileOffline && !live) ||
+                    (!TwitchC4.getConfig().gameWhileOnline && live)
             ) return;
 
-            tokens[0] = tokens[0].replaceFirst(TwitchC4.getConfig().cmdPrefix, "");
+        }
 
-            System.out.println(Arrays.toString(tokens));
+        long received = System.nanoTime();
 
-            switch (tokens[0]) {
+        int end = prefix.length();
+        while (end < message.length() && !Character.isWhitespace(message.charAt(end))) end++;
 
-                case "accept":
-                case "challenge":
-                case "play":
-                    if (GAMES_ENABLED.get(e.getChannel().getName()))
-                        play(e.getChannel().getName(), e.getUser().getName(), Arrays.copyOfRange(tokens, 1, tokens.length));
-                    break;
+        C4Command cmd = C4Command.lookup(message, prefix.length(), end);
+        C4Args args = new C4Args(message, end);
 
-                case "put":
-                    if (GAMES_ENABLED.get(e.getChannel().getName()))
-                        put(e.getChannel().getName(), e.getUser().getName(), Arrays.copyOfRange(tokens, 1, tokens.length));
-                    break;
+        // During a team game every c4!put from chat is a vote, which is counted right here instead of in the mailbox
+        if (cmd == C4Command.PUT) {
 
-                case "decline":
-                case "forfeit":
-                    if (GAMES_ENABLED.get(e.getChannel().getName()))
-                        forfeit(e.getChannel().getName(), e.getUser().getName());
-                    break;
+            C4Vote vote = getChannel(channel).getVote();
 
-                case "help":
-                    if (GAMES_ENABLED.get(e.getChannel().getName()))
-                        help(e.getChannel().getName());
-                    break;
+            if (vote != null && vote.isVoter(user)) {
+                vote(vote, user, args);
+                TwitchC4.getMetrics().vote();
+                return;
+            }
 
-                case "toggle": // Mod toggle
-                    if (TwitchC4.getConfig().cmdModToggle) toggle(e.getChannel().getName(), e.getUser().getName(), e.getPermissions());
-                    else unknown(e.getChannel().getName(), e.getUser().getName());
-                    break;
+        }
 
-                case "author":
-                case "info":
-                case "about": // Author attribution
+        // Mods are trusted not to spam; everyone else is limited before their command costs anything
+        if (
+                !perms.contains(CommandPermission.MODERATOR) &&
+                !perms.contains(CommandPermission.BROADCASTER) &&
+                !limiter.tryAcquire(channel, user)
+        ) return;
 
-                    if (GAMES_ENABLED.get(e.getChannel().getName())) {
-                        if (TwitchC4.getConfig().cmdAttribution) about(e.getChannel().getName());
-                        else unknown(e.getChannel().getName(), e.getUser().getName());
-                    }
+        submit(channel, () -> {
+            dispatch(getChannel(channel), user, perms, cmd, args);
+            TwitchC4.getMetrics().command(cmd, System.nanoTime() - received);
+        });
 
-                    break;
+    }
 
-                default:
-                    if (GAMES_ENABLED.get(e.getChannel().getName()))
-                        unknown(e.getChannel().getName(), e.getUser().getName());
+    /**
+     * Runs the given command. Must be called from within the channel's mailbox
+     *
+     * @param c The channel in which this command was sent
+     * @param user The user which executed this command
+     * @param perms The permissions the command executor has
+     * @param cmd The command to run, or null if it wasn't recognized
+     * @param args The arguments this command was executed with
+     */
+    private void dispatch(C4Channel c, String user, Set<CommandPermission> perms, C4Command cmd, C4Args args) {
 
-            }
+        String channel = c.getName();
+
+        // The channel may have been handed over while this command was waiting
+        if (TwitchC4.getShard() != null && !TwitchC4.getShard().owns(channel)) return;
+
+        if (cmd == null) {
+            if (c.isEnabled()) unknown(channel, user);
+            return;
+        }
+
+        switch (cmd) {
+
+            case PLAY:
+                if (c.isEnabled())
+                    play(channel, user, perms, args);
+                break;
+
+            case QUEUE:
+
+                if (c.isEnabled()) {
+                    if (TwitchC4.getConfig().queueEnabled) queue(channel, user);
+                    else unknown(channel, user);
+                }
+
+                break;
+
+            case TOURNAMENT:
+
+                if (c.isEnabled()) {
+                    if (TwitchC4.getConfig().tournamentEnabled) tournament(channel, user, perms, args);
+                    else unknown(channel, user);
+                }
+
+                break;
+
+            case PUT:
+                if (c.isEnabled())
+                    put(channel, user, args);
+                break;
+
+            case FORFEIT:
+                if (c.isEnabled())
+                    forfeit(channel, user);
+                break;
+
+            case HINT:
+
+                if (c.isEnabled()) {
+                    if (TwitchC4.getConfig().hintEnabled) hint(channel, user);
+                    else unknown(channel, user);
+                }
+
+                break;
+
+            case STATS:
+
+                if (c.isEnabled()) {
+                    if (TwitchC4.getConfig().statsEnabled) stats(channel, user, args);
+                    else unknown(channel, user);
+                }
+
+                break;
+
+            case TOP:
+
+                if (c.isEnabled()) {
+                    if (TwitchC4.getConfig().statsEnabled) top(channel, args);
+                    else unknown(channel, user);
+                }
+
+                break;
+
+            case HELP:
+                if (c.isEnabled())
+                    help(channel);
+                break;
+
+            case TOGGLE: // Mod toggle
+                if (TwitchC4.getConfig().cmdModToggle) toggle(channel, user, perms);
+                else unknown(channel, user);
+                break;
+
+            case ABOUT: // Author attribution
+
+                if (c.isEnabled()) {
+                    if (TwitchC4.getConfig().cmdAttribution) about(channel);
+                    else unknown(channel, user);
+                }
+
+                break;
 
         }
 
     }
 
     /**
-     * The c4!play command. Usage: c4!play -OR- c4!play [user]
+     * The c4!play command. Usage: c4!play -OR- c4!play [user] -OR- c4!play bot [difficulty] -OR- c4!play chat [bot] [difficulty]
      * If no argument is provided, creates a new request to anyone
      * If one user argument is provided, either accepts the challenge
      * from the given user or sends them a challenge
+     * If the user is the bot, starts a game against it right away
+     * If the user is chat, starts a team game against the streamer or the bot
      *
      * @param channel The channel in which this command was sent
      * @param user The user which executed this command
+     * @param perms The permissions the command executor has
      * @param args The arguments this command was executed with
      */
-    private void play(String channel, String user, String[] args) {
+    private void play(String channel, String user, Set<CommandPermission> perms, C4Args args) {
 
         C4Game fGame = findUserInGame(channel, user);
         C4Challenge fChallenge = findUserInChallenge(channel, user);
 
-        if (fGame != null) C4Messages.send(channel, TwitchC4.getConfig().locErrorAlreadyIngame, "%p%", user);
+        if (getChannel(channel).getVote() != null) C4Messages.send(
+                channel,
+                C4Outbox.Priority.ERROR,
+                TwitchC4.getConfig().locErrorAlreadyOngoing,
+                "%p%", user
+        );
+        else if (fGame != null) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorAlreadyIngame, "%p%", user);
         else if (fChallenge != null && fChallenge.getFrom().equalsIgnoreCase(user)) C4Messages.send(
                 channel,
+                C4Outbox.Priority.ERROR,
                 TwitchC4.getConfig().locErrorAlreadyChallenging,
                 "%p%", user
         );
-        else if (args.length > 0) {
+        else if (getChannel(channel).getQueue().contains(user)) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorAlreadyQueued, "%p%", user);
+        else if (isInTournament(channel, user)) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorInTournament, "%p%", user);
+        else if (args.hasNext()) {
+
+            String target = args.next();
+
+            if (isBot(target)) {
+                playBot(channel, user, args);
+                return;
+            }
 
-            args[0] = args[0].strip();
+            if (isTeam(target)) {
+                playTeam(channel, user, perms, args);
+                return;
+            }
 
-            C4Game tGame = findUserInGame(channel, args[0]);
-            C4Challenge tChallenge = findUserInChallenge(channel, args[0]);
+            C4Game tGame = findUserInGame(channel, target);
+            C4Challenge tChallenge = findUserInChallenge(channel, target);
 
-            if (tGame != null) C4Messages.send(channel, TwitchC4.getConfig().locErrorOtherIngame, "%f%", user, "%t%", args[0]);
+            if (tGame != null) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorOtherIngame, "%f%", user, "%t%", target);
             else if (tChallenge == null) {
 
                 // Create a new challenge
                 if (
                         !TwitchC4.getConfig().gameConcurrent &&
-                        (CHALLENGES.get(channel).size() > 0 || GAMES.get(channel).size() > 0)
+                        (getChannel(channel).getChallenges().size() > 0 || getChannel(channel).getGames().size() > 0)
                 ) C4Messages.send(
                         channel,
+                        C4Outbox.Priority.ERROR,
                         TwitchC4.getConfig().locErrorAlreadyOngoing,
                         "%p%", user
                 );
                 else {
 
-                    CHALLENGES.get(channel).add(new C4Challenge(channel, user, args[0]));
+                    getChannel(channel).addChallenge(new C4Challenge(channel, user, target));
                     C4Messages.send(
                             channel,
                             TwitchC4.getConfig().locChallengeSendTo,
                             "%f%", user,
-                            "%t%", args[0]
+                            "%t%", target
                     );
 
                 }
@@ -174,9 +329,9 @@ public class C4Commands {
 
                 // Accept the challenge
                 tChallenge.setTo(user);
-                GAMES.get(channel).add(tChallenge.accept());
+                getChannel(channel).addGame(tChallenge.accept());
 
-            } else C4Messages.send(channel, TwitchC4.getConfig().locErrorGeneric); // Challenge was not meant for you
+            } else C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorGeneric); // Challenge was not meant for you
 
         } else {
 
@@ -185,30 +340,31 @@ public class C4Commands {
             boolean acceptedRandom = false;
 
             // Check for random challenge to accept
-            for (C4Challenge c : CHALLENGES.get(channel))
-                if (c.getTo() == null) {
+            C4Challenge c = getChannel(channel).findOpenChallenge();
 
-                    c.setTo(user);
-                    GAMES.get(channel).add(c.accept());
-                    acceptedRandom = true;
-                    break;
+            if (c != null) {
 
-                }
+                c.setTo(user);
+                getChannel(channel).addGame(c.accept());
+                acceptedRandom = true;
+
+            }
 
             // Create a new challenge
             if (!acceptedRandom) {
 
                 if (
                         !TwitchC4.getConfig().gameConcurrent &&
-                        (CHALLENGES.get(channel).size() > 0 || GAMES.get(channel).size() > 0)
+                        (getChannel(channel).getChallenges().size() > 0 || getChannel(channel).getGames().size() > 0)
                 ) C4Messages.send(
                         channel,
+                        C4Outbox.Priority.ERROR,
                         TwitchC4.getConfig().locErrorAlreadyOngoing,
                         "%p%", user
                 );
                 else {
 
-                    CHALLENGES.get(channel).add(new C4Challenge(channel, user));
+                    getChannel(channel).addChallenge(new C4Challenge(channel, user));
                     C4Messages.send(channel, TwitchC4.getConfig().locChallengeSend, "%f%", user);
 
                 }
@@ -219,6 +375,214 @@ public class C4Commands {
 
     }
 
+    /**
+     * The c4!queue command. Usage: c4!queue
+     * Puts the user in the {@link C4Queue} to be matched with a player of a
+     * similar rating, as long as they aren't already playing, challenging
+     * someone, or waiting
+     *
+     * @param channel The channel in which this command was sent
+     * @param user The user which executed this command
+     */
+    private void queue(String channel, String user) {
+
+        C4Challenge fChallenge = findUserInChallenge(channel, user);
+        C4Queue queue = getChannel(channel).getQueue();
+
+        if (getChannel(channel).getVote() != null) C4Messages.send(
+                channel,
+                C4Outbox.Priority.ERROR,
+                TwitchC4.getConfig().locErrorAlreadyOngoing,
+                "%p%", user
+        );
+        else if (findUserInGame(channel, user) != null) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorAlreadyIngame, "%p%", user);
+        else if (fChallenge != null && fChallenge.getFrom().equalsIgnoreCase(user)) C4Messages.send(
+                channel,
+                C4Outbox.Priority.ERROR,
+                TwitchC4.getConfig().locErrorAlreadyChallenging,
+                "%p%", user
+        );
+        else if (queue.contains(user)) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorAlreadyQueued, "%p%", user);
+        else if (isInTournament(channel, user)) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorInTournament, "%p%", user);
+        else {
+
+            C4Stats.Entry e = TwitchC4.getStats().get(channel, user);
+            int rating = e == null ? C4Stats.INITIAL_RATING : e.getRating();
+
+            C4Messages.send(channel, TwitchC4.getConfig().locQueueJoin, "%p%", user, "%r%", String.valueOf(rating));
+            queue.join(user, rating);
+
+        }
+
+    }
+
+    /**
+     * The c4!tournament command. Usage: c4!tournament join -OR- c4!tournament leave
+     * -OR- c4!tournament start [single/swiss] -OR- c4!tournament begin -OR- c4!tournament cancel
+     * Anyone can sign up for a tournament, or take their sign-up back, while
+     * it's taking sign-ups. Mods can start taking sign-ups, close them early
+     * to start the first round, or cancel the tournament
+     *
+     * @param channel The channel in which this command was sent
+     * @param user The user which executed this command
+     * @param perms The permissions the command executor has
+     * @param args The arguments this command was executed with
+     */
+    private void tournament(String channel, String user, Set<CommandPermission> perms, C4Args args) {
+
+        C4Tournament t = getChannel(channel).getTournament();
+        boolean mod = perms.contains(CommandPermission.MODERATOR) || perms.contains(CommandPermission.BROADCASTER);
+
+        switch (args.hasNext() ? args.next().toLowerCase(Locale.ROOT) : "join") {
+
+            case "join": {
+
+                C4Challenge fChallenge = findUserInChallenge(channel, user);
+
+                if (t == null || !t.isOpen()) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorNoTournament, "%p%", user);
+                else if (t.contains(user)) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorInTournament, "%p%", user);
+                else if (findUserInGame(channel, user) != null) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorAlreadyIngame, "%p%", user);
+                else if (fChallenge != null && fChallenge.getFrom().equalsIgnoreCase(user)) C4Messages.send(
+                        channel,
+                        C4Outbox.Priority.ERROR,
+                        TwitchC4.getConfig().locErrorAlreadyChallenging,
+                        "%p%", user
+                );
+                else if (getChannel(channel).getQueue().contains(user)) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorAlreadyQueued, "%p%", user);
+                else if (t.isFull()) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorTournamentFull, "%p%", user);
+                else t.join(user);
+
+                break;
+
+            }
+
+            case "leave":
+
+                if (t != null && t.isOpen() && t.leave(user)) C4Messages.send(channel, TwitchC4.getConfig().locTournamentLeave, "%p%", user);
+                else C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorGeneric);
+
+                break;
+
+            case "start": {
+
+                // Don't bother with insufficient perms, it'd just spam chat
+                if (!mod) return;
+
+                C4Tournament.Format format = C4Tournament.Format.of(args.hasNext() ? args.next() : TwitchC4.getConfig().tournamentFormat);
+
+                if (t != null) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorTournamentOngoing, "%p%", user);
+                else if (!TwitchC4.getConfig().gameConcurrent || getChannel(channel).getVote() != null) C4Messages.send(
+                        channel,
+                        C4Outbox.Priority.ERROR,
+                        TwitchC4.getConfig().locErrorAlreadyOngoing,
+                        "%p%", user
+                );
+                else if (format == null) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorGeneric);
+                else getChannel(channel).setTournament(new C4Tournament(getChannel(channel), format));
+
+                break;
+
+            }
+
+            case "begin":
+                if (mod && t != null && t.isOpen()) t.begin();
+                break;
+
+            case "cancel":
+                if (mod && t != null) t.cancel();
+                break;
+
+            default:
+                C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorGeneric);
+
+        }
+
+    }
+
+    /**
+     * Starts a game between the given user and the bot, as long as the
+     * difficulty is valid and a new game can be started
+     *
+     * @param channel The channel in which this command was sent
+     * @param user The user which executed this command
+     * @param args The remaining arguments, which may contain the difficulty
+     */
+    private void playBot(String channel, String user, C4Args args) {
+
+        C4Engine.Difficulty difficulty = args.hasNext() ? C4Engine.Difficulty.of(args.next()) : C4Engine.Difficulty.MEDIUM;
+
+        if (difficulty == null) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorUnknownDifficulty, "%p%", user);
+        else if (
+                !TwitchC4.getConfig().gameConcurrent &&
+                (getChannel(channel).getChallenges().size() > 0 || getChannel(channel).getGames().size() > 0)
+        ) C4Messages.send(
+                channel,
+                C4Outbox.Priority.ERROR,
+                TwitchC4.getConfig().locErrorAlreadyOngoing,
+                "%p%", user
+        );
+        else getChannel(channel).addGame(new C4Game(channel, user, difficulty));
+
+    }
+
+    /**
+     * Starts a game with chat playing as a team. Only the broadcaster can
+     * start a game against themselves, while mods can also start one against
+     * the bot. Nothing else can be played in the channel until it's over
+     *
+     * @param channel The channel in which this command was sent
+     * @param user The user which executed this command
+     * @param perms The permissions the command executor has
+     * @param args The remaining arguments, which may name the bot and its difficulty
+     */
+    private void playTeam(String channel, String user, Set<CommandPermission> perms, C4Args args) {
+
+        String opponent = args.hasNext() ? args.next() : null;
+        boolean vsBot = opponent != null && isBot(opponent);
+
+        // Don't bother with insufficient perms, it'd just spam chat
+        if (vsBot ? !perms.contains(CommandPermission.MODERATOR) && !perms.contains(CommandPermission.BROADCASTER)
+                : !perms.contains(CommandPermission.BROADCASTER)) return;
+
+        C4Engine.Difficulty difficulty = !vsBot ? null : args.hasNext() ? C4Engine.Difficulty.of(args.next()) : C4Engine.Difficulty.MEDIUM;
+
+        if (vsBot && difficulty == null) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorUnknownDifficulty, "%p%", user);
+        else if (opponent != null && !vsBot) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorGeneric);
+        else if (getChannel(channel).getChallenges().size() > 0 || getChannel(channel).getGames().size() > 0) C4Messages.send(
+                channel,
+                C4Outbox.Priority.ERROR,
+                TwitchC4.getConfig().locErrorAlreadyOngoing,
+                "%p%", user
+        );
+        else {
+
+            C4Vote vote = new C4Vote(vsBot ? null : user, TwitchC4.getConfig().voteMaxVoters);
+            getChannel(channel).addGame(new C4Game(channel, vote, user, difficulty));
+
+        }
+
+    }
+
+    /**
+     * Counts a c4!put from chat as a vote during a team game. Runs on the
+     * thread the message arrived on rather than in the mailbox. Votes for
+     * columns which don't exist are ignored rather than answered, as there
+     * could be thousands of them
+     *
+     * @param vote The channel's vote
+     * @param user The user voting
+     * @param args The arguments of the c4!put command
+     */
+    private void vote(C4Vote vote, String user, C4Args args) {
+
+        try {
+            vote.cast(user, args.nextInt() - 1);
+        } catch (NumberFormatException ignored) {
+            // Not a column
+        }
+
+    }
+
     /**
      * The c4!put command. Usage: c4!put [1-7]
      * If the user is in a game and it's their turn, places a
@@ -229,24 +593,24 @@ public class C4Commands {
      * @param user The user which executed this command
      * @param args The arguments this command was executed with
      */
-    private void put(String channel, String user, String[] args) {
+    private void put(String channel, String user, C4Args args) {
 
         C4Game game = findUserInGame(channel, user);
 
-        if (game == null) C4Messages.send(channel, TwitchC4.getConfig().locErrorNotIngame, "%p%", user);
-        else if (!user.equalsIgnoreCase(game.getPlayerTurn())) C4Messages.send(channel, TwitchC4.getConfig().locErrorNotTurn, "%p%", user);
-        else if (args.length == 0) C4Messages.send(channel, TwitchC4.getConfig().locErrorNoColumn);
+        if (game == null) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorNotIngame, "%p%", user);
+        else if (!user.equalsIgnoreCase(game.getPlayerTurn())) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorNotTurn, "%p%", user);
+        else if (!args.hasNext()) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorNoColumn);
         else {
 
             try {
 
-                int col = Integer.parseInt(args[0].strip());
+                int col = args.nextInt();
 
                 if (game.isValidMove(col)) game.doTurn(col);
-                else C4Messages.send(channel, TwitchC4.getConfig().locErrorInvalidColumn, "%p%", user);
+                else C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorInvalidColumn, "%p%", user);
 
             } catch (NumberFormatException e) {
-                C4Messages.send(channel, TwitchC4.getConfig().locErrorInvalidColumn, "%p%", user);
+                C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorInvalidColumn, "%p%", user);
             }
 
         }
@@ -258,6 +622,7 @@ public class C4Commands {
      * If the user is in a game, forfeits the game
      * If the user has sent a challenge, cancels the challenge
      * If the user has received a challenge, declines the challenge
+     * If the user is in the queue, leaves it
      *
      * @param channel The channel in which this command was sent
      * @param user The user which executed this command
@@ -284,7 +649,82 @@ public class C4Commands {
 
             challenge.cancel();
 
-        } else C4Messages.send(channel, TwitchC4.getConfig().locErrorNotIngame, "%p%", user);
+        } else if (getChannel(channel).getQueue().leave(user)) C4Messages.send(channel, TwitchC4.getConfig().locQueueLeave, "%p%", user);
+        else C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorNotIngame, "%p%", user);
+
+    }
+
+    /**
+     * The c4!hint command. Usage: c4!hint
+     * If it's the user's turn in a game, suggests the best column to play in
+     * Else spits out an error
+     *
+     * @param channel The channel in which this command was sent
+     * @param user The user which executed this command
+     */
+    private void hint(String channel, String user) {
+
+        C4Game game = findUserInGame(channel, user);
+
+        if (game == null) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorNotIngame, "%p%", user);
+        else if (!user.equalsIgnoreCase(game.getPlayerTurn())) C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorNotTurn, "%p%", user);
+        else game.hint();
+
+    }
+
+    /**
+     * The c4!stats command. Usage: c4!stats -OR- c4!stats [user]
+     * Displays the wins, losses, draws, and rating in this channel of
+     * the given user, or the user who executed the command
+     *
+     * @param channel The channel in which this command was sent
+     * @param user The user which executed this command
+     * @param args The arguments this command was executed with
+     */
+    private void stats(String channel, String user, C4Args args) {
+
+        String target = args.hasNext() ? args.next() : user;
+        C4Stats.Entry e = TwitchC4.getStats().get(channel, target);
+
+        if (e == null) C4Messages.send(channel, C4Outbox.Priority.INFO, TwitchC4.getConfig().locStatsNone, "%p%", target);
+        else C4Messages.send(
+                channel,
+                C4Outbox.Priority.INFO,
+                TwitchC4.getConfig().locStats,
+                "%p%", e.getName(),
+                "%r%", String.valueOf(e.getRating()),
+                "%w%", String.valueOf(e.getWins()),
+                "%l%", String.valueOf(e.getLosses()),
+                "%d%", String.valueOf(e.getDraws())
+        );
+
+    }
+
+    /**
+     * The c4!top command. Usage: c4!top -OR- c4!top global
+     * Displays the highest rated players in this channel, or across every channel
+     *
+     * @param channel The channel in which this command was sent
+     * @param args The arguments this command was executed with
+     */
+    private void top(String channel, C4Args args) {
+
+        String scope = args.hasNext() && args.next().equalsIgnoreCase("global") ? C4Stats.GLOBAL : channel;
+        List<C4Stats.Entry> top = TwitchC4.getStats().top(scope, TwitchC4.getConfig().statsTopSize);
+
+        if (top.isEmpty()) {
+            C4Messages.send(channel, C4Outbox.Priority.INFO, TwitchC4.getConfig().locTopNone);
+            return;
+        }
+
+        StringBuilder list = new StringBuilder();
+
+        for (int i = 0; i < top.size(); i++) {
+            if (i > 0) list.append(", ");
+            list.append(i + 1).append(". ").append(top.get(i).getName()).append(" (").append(top.get(i).getRating()).append(')');
+        }
+
+        C4Messages.send(channel, C4Outbox.Priority.INFO, TwitchC4.getConfig().locTop, "%list%", list.toString());
 
     }
 
@@ -295,7 +735,7 @@ public class C4Commands {
      * @param channel The channel in which this command was sent
      */
     private void help(String channel) {
-        C4Messages.send(channel, TwitchC4.getConfig().locHelp);
+        C4Messages.send(channel, C4Outbox.Priority.INFO, TwitchC4.getConfig().locHelp);
     }
 
     /**
@@ -312,8 +752,8 @@ public class C4Commands {
 
         if (perms.contains(CommandPermission.MODERATOR) || perms.contains(CommandPermission.BROADCASTER)) {
 
-            boolean enabled = !GAMES_ENABLED.get(channel);
-            GAMES_ENABLED.put(channel, enabled);
+            boolean enabled = !getChannel(channel).isEnabled();
+            getChannel(channel).setEnabled(enabled);
 
             if (enabled) C4Messages.send(channel, TwitchC4.getConfig().locToggleEnable, "%p%", user);
             else C4Messages.send(channel, TwitchC4.getConfig().locToggleDisable, "%p%", user);
@@ -333,6 +773,7 @@ public class C4Commands {
     private void about(String channel) {
         C4Messages.send(
                 channel,
+                C4Outbox.Priority.INFO,
                 "TwitchC4 was created by Justin H. Schaaf (justinschaaf.com). Licensed under MIT, view the source on GitHub."
         );
     }
@@ -344,7 +785,7 @@ public class C4Commands {
      * @param user The user which executed this command
      */
     private void unknown(String channel, String user) {
-        C4Messages.send(channel, TwitchC4.getConfig().locErrorUnknownCommand, "%p%", user);
+        C4Messages.send(channel, C4Outbox.Priority.ERROR, TwitchC4.getConfig().locErrorUnknownCommand, "%p%", user);
     }
 
     /*
@@ -356,20 +797,44 @@ public class C4Commands {
      *
      * @param channel The channel to find the given user in
      * @param user The user to find
-     * @return The first {@link C4Challenge} which contains the user, or null if none is found
+     * @return The {@link C4Challenge} which contains the user, or null if none is found
      */
     private C4Challenge findUserInChallenge(String channel, String user) {
+        return getChannel(channel).findChallenge(user);
+    }
 
-        C4Challenge challenge = null;
-
-        for (C4Challenge c : CHALLENGES.get(channel))
-            if (c.getFrom().equalsIgnoreCase(user) || (c.getTo() != null && c.getTo().equalsIgnoreCase(user))) {
-                challenge = c;
-                break;
-            }
+    /**
+     * Determines whether or not the given user is still in a tournament in the given channel
+     *
+     * @param channel The channel to check
+     * @param user The user to check
+     * @return true if the user is signed up for or still playing in the channel's tournament
+     */
+    private boolean isInTournament(String channel, String user) {
+        C4Tournament t = getChannel(channel).getTournament();
+        return t != null && t.contains(user);
+    }
 
-        return challenge;
+    /**
+     * Determines whether or not the given name refers to the bot
+     *
+     * @param name The name to check
+     * @return true if the bot is enabled and the name is "bot" or the bot's configured name
+     */
+    private boolean isBot(String name) {
+        return TwitchC4.getConfig().botEnabled
+                && (name.equalsIgnoreCase("bot") || name.equalsIgnoreCase(TwitchC4.getConfig().botName));
+    }
 
+    /**
+     * Determines whether or not the given name refers to chat playing as a team
+     *
+     * @param name The name to check
+     * @return true if team games are enabled and the name is "chat" or the team's configured name
+     */
+    private boolean isTeam(String name) {
+        return TwitchC4.getConfig().voteEnabled
+                && (name.equalsIgnoreCase("chat") || name.equalsIgnoreCase(TwitchC4.getConfig().voteName));
     }
 
     /**
@@ -380,28 +845,53 @@ public class C4Commands {
      * @return The {@link C4Game} the user is currently playing in, or null if none is found
      */
     private C4Game findUserInGame(String channel, String user) {
+        return getChannel(channel).findGame(user);
+    }
 
-        C4Game game = null;
+    /**
+     * Gets the state of the given channel, creating it if it doesn't exist yet
+     *
+     * @param channel The name of the channel
+     * @return The {@link C4Channel} for the given channel
+     */
+    public C4Channel getChannel(String channel) {
+        return CHANNELS.computeIfAbsent(channel, n -> new C4Channel(n, pool));
+    }
 
-        for (C4Game g : GAMES.get(channel))
-            if (g.hasPlayer(user)) {
-                game = g;
-                break;
-            }
+    /**
+     * Gets the state of the given channel without creating it
+     *
+     * @param channel The name of the channel
+     * @return The {@link C4Channel} for the given channel, or null if it hasn't been used yet
+     */
+    public C4Channel findChannel(String channel) {
+        return CHANNELS.get(channel);
+    }
 
-        return game;
+    /**
+     * Gets the state of every channel which has been used so far
+     * @return Every known {@link C4Channel}
+     */
+    public Collection<C4Channel> getChannels() {
+        return CHANNELS.values();
+    }
 
+    /**
+     * Gets the limiter which drops commands from users who send too many
+     * @return The command rate limiter
+     */
+    public C4Limiter getLimiter() {
+        return limiter;
     }
 
     /**
-     * Ensures the {@link #CHALLENGES}, {@link #GAMES}, and
-     * {@link #GAMES_ENABLED} entries exist for this channel
-     * @param channel The channel to make sure entries exist for
+     * Runs the given task in the given channel's mailbox, after every task submitted before it
+     *
+     * @param channel The name of the channel
+     * @param task The task to run
      */
-    private void ensureDataExists(String channel) {
-        if (!CHALLENGES.containsKey(channel)) CHALLENGES.put(channel, new LinkedList<>());
-        if (!GAMES.containsKey(channel)) GAMES.put(channel, new LinkedList<>());
-        if (!GAMES_ENABLED.containsKey(channel)) GAMES_ENABLED.put(channel, true);
+    public void submit(String channel, Runnable task) {
+        getChannel(channel).execute(task);
     }
 
 }
@@ -4,9 +4,13 @@ import com.electronwill.nightconfig.core.conversion.Path;
 import com.electronwill.nightconfig.core.conversion.PreserveNotNull;
 import com.electronwill.nightconfig.core.conversion.SpecIntInRange;
 import com.electronwill.nightconfig.core.conversion.SpecNotNull;
+import com.electronwill.nightconfig.core.conversion.SpecStringInArray;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents this program's configuration
@@ -44,6 +48,25 @@ public class C4Config {
     @Path("commands.mod-toggle")
     boolean cmdModToggle = true;
 
+    @Path("commands.user-burst")
+    @SpecIntInRange(min = 1, max = 1000)
+    int cmdUserBurst = 5;
+
+    @Path("commands.user-cooldown")
+    @SpecIntInRange(min = 0, max = Integer.MAX_VALUE)
+    int cmdUserCooldown = 2000;
+
+    @Path("commands.error-window")
+    @SpecIntInRange(min = 0, max = Integer.MAX_VALUE)
+    int cmdErrorWindow = 10;
+
+    /*
+     * CHAT
+     */
+
+    @Path("chat.moderator")
+    boolean chatModerator = false;
+
     /*
      * GAME
      */
@@ -67,6 +90,10 @@ public class C4Config {
     @Path("game.while-offline")
     boolean gameWhileOffline = true;
 
+    @Path("game.status-ttl")
+    @SpecIntInRange(min = 5, max = Integer.MAX_VALUE)
+    int gameStatusTtl = 60;
+
     @Path("game.board-width")
     @SpecIntInRange(min = 1, max = 500)
     int gameBoardWidth = 7;
@@ -75,33 +102,286 @@ public class C4Config {
     @SpecIntInRange(min = 1, max = 500)
     int gameBoardHeight = 6;
 
+    @Path("game.connect-length")
+    @SpecIntInRange(min = 1, max = 500)
+    int gameConnectLength = 4;
+
+    @Path("game.board-diff")
+    boolean gameBoardDiff = false;
+
     @Path("game.concurrent")
     boolean gameConcurrent = true;
 
     @Path("game.random-start")
     boolean gameRandomStart = true;
 
+    /*
+     * QUEUE
+     */
+
+    @Path("queue.enabled")
+    boolean queueEnabled = true;
+
+    @Path("queue.window")
+    @SpecIntInRange(min = 0, max = 10000)
+    int queueWindow = 100;
+
+    @Path("queue.widen")
+    @SpecIntInRange(min = 0, max = 10000)
+    int queueWiden = 10;
+
+    @Path("queue.interval")
+    @SpecIntInRange(min = 1, max = 60)
+    int queueInterval = 1;
+
+    @Path("queue.timeout")
+    @SpecIntInRange(min = 5, max = 3600)
+    int queueTimeout = 120;
+
+    @Path("queue.bucket-size")
+    @SpecIntInRange(min = 1, max = 1000)
+    int queueBucketSize = 25;
+
+    /*
+     * TOURNAMENT
+     */
+
+    @Path("tournament.enabled")
+    boolean tournamentEnabled = true;
+
+    @Path("tournament.format")
+    @SpecStringInArray({"single", "swiss"})
+    String tournamentFormat = "single";
+
+    @Path("tournament.signup-time")
+    @SpecIntInRange(min = 10, max = 3600)
+    int tournamentSignupTime = 120;
+
+    @Path("tournament.max-players")
+    @SpecIntInRange(min = 2, max = 4096)
+    int tournamentMaxPlayers = 256;
+
+    @Path("tournament.swiss-rounds")
+    @SpecIntInRange(min = 0, max = 64)
+    int tournamentSwissRounds = 0;
+
+    /*
+     * BOT
+     */
+
+    @Path("bot.enabled")
+    boolean botEnabled = true;
+
+    @Path("bot.name")
+    String botName = "C4Bot";
+
+    @Path("bot.table-size")
+    @SpecIntInRange(min = 1024, max = 1 << 30)
+    int botTableSize = 1 << 20;
+
+    /*
+     * VOTE
+     */
+
+    @Path("vote.enabled")
+    boolean voteEnabled = true;
+
+    @Path("vote.name")
+    String voteName = "Chat";
+
+    @Path("vote.time")
+    @SpecIntInRange(min = 5, max = Integer.MAX_VALUE)
+    int voteTime = 30;
+
+    @Path("vote.tally-interval")
+    @SpecIntInRange(min = 1, max = Integer.MAX_VALUE)
+    int voteTallyInterval = 5;
+
+    @Path("vote.max-voters")
+    @SpecIntInRange(min = 16, max = 1 << 24)
+    int voteMaxVoters = 65536;
+
+    /*
+     * HINT
+     */
+
+    @Path("hint.enabled")
+    boolean hintEnabled = true;
+
+    @Path("hint.book")
+    String hintBook = "book.bin";
+
+    @Path("hint.time")
+    @SpecIntInRange(min = 50, max = 10000)
+    int hintTime = 500;
+
+    /*
+     * STATS
+     */
+
+    @Path("stats.enabled")
+    boolean statsEnabled = true;
+
+    @Path("stats.top-size")
+    @SpecIntInRange(min = 1, max = 10)
+    int statsTopSize = 5;
+
+    /*
+     * PERSISTENCE
+     */
+
+    @Path("persistence.enabled")
+    boolean persistEnabled = true;
+
+    @Path("persistence.directory")
+    String persistDirectory = "data";
+
+    @Path("persistence.snapshot-interval")
+    @SpecIntInRange(min = 5, max = Integer.MAX_VALUE)
+    int persistSnapshotInterval = 60;
+
+    /*
+     * ARCHIVE
+     */
+
+    @Path("archive.enabled")
+    boolean archiveEnabled = true;
+
+    @Path("archive.directory")
+    String archiveDirectory = "data/archive";
+
+    @Path("archive.segment-size")
+    @SpecIntInRange(min = 1, max = 1024)
+    int archiveSegmentSize = 64;
+
+    /*
+     * EXECUTION
+     */
+
+    @Path("execution.virtual-threads")
+    boolean execVirtualThreads = false;
+
+    @Path("execution.helix-concurrency")
+    @SpecIntInRange(min = 1, max = 64)
+    int execHelixConcurrency = 4;
+
+    /*
+     * SHARDING
+     */
+
+    @Path("sharding.enabled")
+    boolean shardEnabled = false;
+
+    @Path("sharding.instance")
+    String shardInstance = "bot-1";
+
+    @Path("sharding.directory")
+    String shardDirectory = "shards";
+
+    @Path("sharding.heartbeat")
+    @SpecIntInRange(min = 1, max = 300)
+    int shardHeartbeat = 5;
+
+    @Path("sharding.expiry")
+    @SpecIntInRange(min = 2, max = 3600)
+    int shardExpiry = 15;
+
+    @Path("sharding.replicas")
+    @SpecIntInRange(min = 1, max = 1024)
+    int shardReplicas = 64;
+
+    /*
+     * METRICS
+     */
+
+    @Path("metrics.enabled")
+    boolean metricsEnabled = true;
+
+    @Path("metrics.host")
+    String metricsHost = "127.0.0.1";
+
+    @Path("metrics.port")
+    @SpecIntInRange(min = 1, max = 65535)
+    int metricsPort = 9400;
+
+    @Path("metrics.jmx")
+    boolean metricsJmx = true;
+
+    /*
+     * API
+     */
+
+    @Path("api.enabled")
+    boolean apiEnabled = false;
+
+    @Path("api.host")
+    String apiHost = "127.0.0.1";
+
+    @Path("api.port")
+    @SpecIntInRange(min = 1, max = 65535)
+    int apiPort = 9401;
+
+    @Path("api.max-wait")
+    @SpecIntInRange(min = 0, max = 300)
+    int apiMaxWait = 30;
+
     /*
      * LOCALISATION
      */
 
     @Path("localisation.help")
     String locHelp = "Use c4!play [user] to challenge a user to a game, or don't specify a user to challenge anyone!\n" +
+            "Use c4!queue to be matched with a player of a similar rating.\n" +
+            "Use c4!tournament join to sign up for a tournament while it's starting.\n" +
+            "Use c4!play bot [easy/medium/hard] to play against the bot.\n" +
+            "Streamers can use c4!play chat to play against the whole chat, and mods can use c4!play chat bot [easy/medium/hard] to have chat play the bot.\n" +
             "Use c4!put [1-7] to make a move in a game.\n" +
+            "Use c4!hint to get a suggestion for your next move.\n" +
+            "Use c4!stats [user] to see a player's record, or c4!top [global] for the best players.\n" +
             "Use c4!forfeit to forfeit a game, to cancel a challenge, or to decline a challenge.";
 
     @Path("localisation.game-start")
     String locGameStart = "The game between %p1% and %p2% has begun!";
 
+    @Path("localisation.game-resume")
+    String locGameResume = "The game between %p1% and %p2% has resumed!";
+
     @Path("localisation.game-turn-start")
     String locGameTurnStart = "%p%'s turn has begun! Use c4!put [1-7] to make a move.";
 
+    @Path("localisation.game-move")
+    String locGameMove = "%p% dropped %s% into column %c%.";
+
     @Path("localisation.game-tie")
     String locGameTie = "No player has won the game, sorry!";
 
     @Path("localisation.game-win")
     String locGameWin = "%p% has won the game! GG!";
 
+    @Path("localisation.vote-start")
+    String locVoteStart = "It's %p%'s turn! Use c4!put [1-7] to vote for a column.";
+
+    @Path("localisation.vote-tally")
+    String locVoteTally = "Votes so far: %list%";
+
+    @Path("localisation.vote-result")
+    String locVoteResult = "%p% picked column %c%!";
+
+    @Path("localisation.hint")
+    String locHint = "%p%, try column %c%.";
+
+    @Path("localisation.stats")
+    String locStats = "%p% has a rating of %r%, with %w% wins, %l% losses, and %d% draws.";
+
+    @Path("localisation.stats-none")
+    String locStatsNone = "%p% hasn't finished a game yet!";
+
+    @Path("localisation.top")
+    String locTop = "Top players: %list%";
+
+    @Path("localisation.top-none")
+    String locTopNone = "Nobody has finished a game yet!";
+
     @Path("localisation.challenge-send")
     String locChallengeSend = "%f% has challenged any user to a game! Use c4!play or c4!play %f% to play!";
 
@@ -111,6 +391,42 @@ public class C4Config {
     @Path("localisation.challenge-expire")
     String locChallengeExpire = "The Connect 4 challenge from %f% has expired.";
 
+    @Path("localisation.queue-join")
+    String locQueueJoin = "%p% is looking for an opponent rated around %r%. Use c4!forfeit to stop looking.";
+
+    @Path("localisation.queue-leave")
+    String locQueueLeave = "%p% stopped looking for an opponent.";
+
+    @Path("localisation.queue-expire")
+    String locQueueExpire = "Nobody was found for %p% to play, sorry!";
+
+    @Path("localisation.tournament-open")
+    String locTournamentOpen = "A tournament is starting! Use c4!tournament join within %n% seconds to sign up.";
+
+    @Path("localisation.tournament-join")
+    String locTournamentJoin = "%p% signed up for the tournament! Players so far: %n%";
+
+    @Path("localisation.tournament-leave")
+    String locTournamentLeave = "%p% dropped out of the tournament.";
+
+    @Path("localisation.tournament-round")
+    String locTournamentRound = "Round %n% of the tournament has begun! Each game will start in turn.";
+
+    @Path("localisation.tournament-bye")
+    String locTournamentBye = "With nobody to play this round: %list%";
+
+    @Path("localisation.tournament-standings")
+    String locTournamentStandings = "Tournament standings: %list%";
+
+    @Path("localisation.tournament-win")
+    String locTournamentWin = "%p% has won the tournament! Congratulations!";
+
+    @Path("localisation.tournament-cancel")
+    String locTournamentCancel = "The tournament has been cancelled.";
+
+    @Path("localisation.tournament-too-few")
+    String locTournamentTooFew = "Not enough players signed up, so the tournament has been cancelled.";
+
     @Path("localisation.forfeit")
     String locForfeit = "%p% has forfeited the game.";
 
@@ -159,7 +475,71 @@ public class C4Config {
     @Path("localisation.error-already-challenging")
     String locErrorAlreadyChallenging = "You already have an outgoing challenge!";
 
+    @Path("localisation.error-already-queued")
+    String locErrorAlreadyQueued = "You're already looking for an opponent!";
+
+    @Path("localisation.error-in-tournament")
+    String locErrorInTournament = "You're in the tournament, so you can't start another game!";
+
+    @Path("localisation.error-no-tournament")
+    String locErrorNoTournament = "There's no tournament to sign up for right now.";
+
+    @Path("localisation.error-tournament-full")
+    String locErrorTournamentFull = "Sorry, the tournament is full!";
+
+    @Path("localisation.error-tournament-ongoing")
+    String locErrorTournamentOngoing = "There's already a tournament in this channel!";
+
     @Path("localisation.error-already-ongoing")
     String locErrorAlreadyOngoing = "Only one game can be played at a time!";
 
+    @Path("localisation.error-unknown-difficulty")
+    String locErrorUnknownDifficulty = "Please pick a difficulty of easy, medium, or hard.";
+
+    /**
+     * The compiled {@link C4Template} for each localisation string, keyed by
+     * the string instance itself so lookups never have to hash the message
+     */
+    private transient Map<String, C4Template> templates = new IdentityHashMap<>();
+
+    /**
+     * Compiles every localisation string into a {@link C4Template}, reporting
+     * any unknown placeholders. Should be called once after the config is loaded
+     */
+    void compileTemplates() {
+
+        templates = new IdentityHashMap<>();
+
+        for (Field f : C4Config.class.getDeclaredFields()) {
+
+            Path path = f.getAnnotation(Path.class);
+            if (path == null || !path.value().startsWith("localisation.") || f.getType() != String.class) continue;
+
+            try {
+
+                String message = (String) f.get(this);
+
+                if (message != null) templates.put(message, C4Template.compile(
+                        message,
+                        p -> System.err.println("Unknown placeholder " + p + " in " + path.value())
+                ));
+
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to read " + path.value(), e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Gets the compiled template for the given localisation string
+     *
+     * @param message One of this config's localisation strings
+     * @return The compiled template, or null if the message isn't a localisation string
+     */
+    C4Template getTemplate(String message) {
+        return templates.get(message);
+    }
+
 }
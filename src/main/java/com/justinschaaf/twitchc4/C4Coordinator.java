@@ -0,0 +1,70 @@
+package com.justinschaaf.twitchc4;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Where sharded bot instances find each other and hand channels over. Each
+ * instance heartbeats its membership, and builds a {@link C4Ring} from every
+ * member which has heartbeated recently. When a channel moves, the instance
+ * giving it up leaves its state here for the new owner to take
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public interface C4Coordinator {
+
+    /**
+     * Announces that an instance is alive. Called again every heartbeat
+     *
+     * @param instance The name of the instance
+     * @throws IOException If the coordinator can't be reached
+     */
+    void join(String instance) throws IOException;
+
+    /**
+     * Announces that an instance is stopping, so the others don't have to wait for it to expire
+     *
+     * @param instance The name of the instance
+     * @throws IOException If the coordinator can't be reached
+     */
+    void leave(String instance) throws IOException;
+
+    /**
+     * Gets every instance which has heartbeated recently
+     *
+     * @return The names of the live instances
+     * @throws IOException If the coordinator can't be reached
+     */
+    Set<String> getMembers() throws IOException;
+
+    /**
+     * Leaves the state of a channel for whichever instance owns it next
+     *
+     * @param channel The channel given up
+     * @param state The channel's games and challenges, from {@link C4Journal#handOver(C4Channel)}
+     * @throws IOException If the coordinator can't be reached
+     */
+    void handOver(String channel, byte[] state) throws IOException;
+
+    /**
+     * Gets the channels with state waiting to be taken
+     *
+     * @return The names of the channels
+     * @throws IOException If the coordinator can't be reached
+     */
+    Set<String> getHandovers() throws IOException;
+
+    /**
+     * Takes every state left for a channel, passing each to the given restore
+     * oldest first. Each state is only ever given to one caller, and is only
+     * removed once it's been restored; a state the restore rejects is kept
+     * aside rather than dropped
+     *
+     * @param channel The channel taken over
+     * @param restore Resumes a state, returning false if it couldn't be
+     * @throws IOException If the coordinator can't be reached
+     */
+    void takeOver(String channel, Predicate<byte[]> restore) throws IOException;
+
+}
@@ -0,0 +1,641 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks moves for the bot. Each search is an iterative-deepening negamax with
+ * alpha-beta pruning, sharing a {@link C4TranspositionTable} with every other
+ * search. The first move at the root is searched on its own to get a bound,
+ * then the rest are searched in parallel on this engine's
+ * {@link ForkJoinPool}, each on its own copy of the board.
+ *
+ * Searches never run on the calling thread; {@link #findMove(C4Board, int, Difficulty)}
+ * returns immediately and completes once the search runs out of time or depth
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Engine {
+
+    /**
+     * The score of a win on the next move. Wins further away score one less per move
+     */
+    private static final int WIN = 1_000_000_000;
+
+    /**
+     * Larger than any score a search can return
+     */
+    private static final int INF = WIN + 1;
+
+    /**
+     * The most moves a game can last, so scores beyond WIN - MAX_PLY are always wins
+     */
+    private static final int MAX_PLY = 500 * 500;
+
+    /**
+     * Mixed into the hash when it's {@link C4Board#P2}'s move
+     */
+    private static final long SIDE = 0x9E3779B97F4A7C15L;
+
+    /**
+     * How many nodes are searched between checks of the clock
+     */
+    private static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * How hard the bot tries. Each level limits both how long and how deep it searches
+     */
+    public enum Difficulty {
+
+        EASY(250, 2),
+        MEDIUM(1000, 6),
+        HARD(3000, Integer.MAX_VALUE);
+
+        private final long millis;
+        private final int depth;
+
+        Difficulty(long millis, int depth) {
+            this.millis = millis;
+            this.depth = depth;
+        }
+
+        /**
+         * Finds the difficulty with the given name, ignoring case
+         *
+         * @param name The name of the difficulty
+         * @return The difficulty, or null if there's none by that name
+         */
+        public static Difficulty of(String name) {
+
+            for (Difficulty d : values())
+                if (d.name().equalsIgnoreCase(name))
+                    return d;
+
+            return null;
+
+        }
+
+        /**
+         * Gets the name of this difficulty as shown in chat
+         * @return The lowercase name of this difficulty
+         */
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+    }
+
+    private final C4TranspositionTable table;
+    private final ForkJoinPool pool;
+    private final int length;
+
+    /**
+     * Creates a new engine with one search thread per core
+     *
+     * @param tableSize The number of positions to keep in the transposition table
+     * @param length The number of chips in a row needed to win
+     */
+    public C4Engine(int tableSize, int length) {
+        this(tableSize, length, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new engine with the given number of search threads
+     *
+     * @param tableSize The number of positions to keep in the transposition table
+     * @param length The number of chips in a row needed to win
+     * @param parallelism The number of moves at the root to search at once
+     */
+    C4Engine(int tableSize, int length, int parallelism) {
+        this.table = new C4TranspositionTable(tableSize);
+        this.pool = new ForkJoinPool(parallelism);
+        this.length = length;
+    }
+
+    /**
+     * Searches for the best move for the given player. The board is copied
+     * before this returns, so the game may carry on changing its own board
+     *
+     * @param board The current board, which must have at least one playable column
+     * @param player The player to move, either {@link C4Board#P1} or {@link C4Board#P2}
+     * @param difficulty How long and deep to search
+     * @return The column to play in, starting from 0
+     */
+    public CompletableFuture<Integer> findMove(C4Board board, int player, Difficulty difficulty) {
+        return analyse(board, player, difficulty.millis, difficulty.depth).thenApply(Result::getColumn);
+    }
+
+    /**
+     * Searches for the best move for the given player within the given
+     * limits. The board is copied before this returns
+     *
+     * @param board The current board, which must have at least one playable column
+     * @param player The player to move, either {@link C4Board#P1} or {@link C4Board#P2}
+     * @param millis How long to search for, in milliseconds. The first ply is always searched in full
+     * @param maxDepth The most moves to look ahead
+     * @return The best move found and its score
+     */
+    public CompletableFuture<Result> analyse(C4Board board, int player, long millis, int maxDepth) {
+        Search search = new Search(board.copy(), player, millis, maxDepth);
+        return CompletableFuture.supplyAsync(search::run, pool);
+    }
+
+    /**
+     * Stops every search thread
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Gets how much a window of the given number of chips is worth
+     *
+     * @param chips The number of one player's chips in a window with none of the other's
+     * @return The value of the window
+     */
+    private static int weight(int chips) {
+        return chips == 0 ? 0 : 1 << (2 * (Math.min(chips, 6) - 1));
+    }
+
+    /**
+     * Evaluates the whole board by summing up every window of {@link #length}
+     * cells: a window only one player has chips in counts for that player,
+     * mixed windows count for no one
+     *
+     * @param b The board to evaluate
+     * @param player The player to evaluate for
+     * @return The board's score for the player
+     */
+    private int evaluate(C4Board b, int player) {
+
+        int w = b.getWidth();
+        int h = b.getHeight();
+        long score = 0;
+
+        for (int col = 0; col < w; col++) {
+
+            for (int row = 0; row < h; row++) {
+
+                score += window(b, col, row, 1, 0, player);
+                score += window(b, col, row, 0, 1, player);
+                score += window(b, col, row, 1, 1, player);
+                score += window(b, col, row, 1, -1, player);
+
+            }
+
+        }
+
+        return (int) Math.max(-WIN / 4, Math.min(WIN / 4, score));
+
+    }
+
+    /**
+     * Scores a single window for {@link #evaluate(C4Board, int)}
+     *
+     * @return The window's score for the player, or 0 if it doesn't fit on the board
+     */
+    private int window(C4Board b, int col, int row, int dCol, int dRow, int player) {
+
+        int endCol = col + (length - 1) * dCol;
+        int endRow = row + (length - 1) * dRow;
+        if (endCol >= b.getWidth() || endRow < 0 || endRow >= b.getHeight()) return 0;
+
+        int own = 0;
+        int opp = 0;
+
+        for (int i = 0; i < length; i++) {
+            int cell = b.get(col + i * dCol, row + i * dRow);
+            if (cell == player) own++;
+            else if (cell != C4Board.EMPTY) opp++;
+        }
+
+        if (opp == 0) return weight(own);
+        else if (own == 0) return -weight(opp);
+        else return 0;
+
+    }
+
+    /**
+     * Works out how much {@link #evaluate(C4Board, int)} would change for the
+     * given player if they played in the given column, by only looking at the
+     * windows through the cell the chip would land in
+     *
+     * @param b The board, before the move is played
+     * @param col The column to play in
+     * @param player The player making the move
+     * @return The change in the player's score
+     */
+    private int delta(C4Board b, int col, int player) {
+
+        int row = b.getColumnHeight(col);
+
+        return delta(b, col, row, 1, 0, player)
+                + delta(b, col, row, 0, 1, player)
+                + delta(b, col, row, 1, 1, player)
+                + delta(b, col, row, 1, -1, player);
+
+    }
+
+    /**
+     * Works out the change in score for the windows along one line through the given cell
+     */
+    private int delta(C4Board b, int col, int row, int dCol, int dRow, int player) {
+
+        int w = b.getWidth();
+        int h = b.getHeight();
+        int gain = 0;
+
+        for (int k = 0; k < length; k++) {
+
+            // The window starts k cells before the given cell
+            int startCol = col - k * dCol;
+            int startRow = row - k * dRow;
+            int endCol = startCol + (length - 1) * dCol;
+            int endRow = startRow + (length - 1) * dRow;
+
+            if (startCol < 0 || endCol >= w || Math.min(startRow, endRow) < 0 || Math.max(startRow, endRow) >= h) continue;
+
+            int own = 0;
+            int opp = 0;
+
+            for (int i = 0; i < length; i++) {
+
+                if (i == k) continue;
+
+                int cell = b.get(startCol + i * dCol, startRow + i * dRow);
+                if (cell == player) own++;
+                else if (cell != C4Board.EMPTY) opp++;
+
+            }
+
+            if (opp == 0) gain += weight(own + 1) - weight(own);
+            else if (own == 0) gain += weight(opp); // Blocks the opponent's window
+
+        }
+
+        return gain;
+
+    }
+
+    /**
+     * Gets the transposition table key for the given position
+     *
+     * @param b The board
+     * @param player The player to move
+     * @return The position's key
+     */
+    private static long key(C4Board b, int player) {
+        return player == C4Board.P2 ? b.getHash() ^ SIDE : b.getHash();
+    }
+
+    /**
+     * Win scores depend on how far from the root they were found, so they're
+     * stored relative to the position instead
+     */
+    private static int toTable(int score, int ply) {
+        if (score > WIN - MAX_PLY) return score + ply;
+        else if (score < -WIN + MAX_PLY) return score - ply;
+        else return score;
+    }
+
+    /**
+     * Undoes {@link #toTable(int, int)}
+     */
+    private static int fromTable(int score, int ply) {
+        if (score > WIN - MAX_PLY) return score - ply;
+        else if (score < -WIN + MAX_PLY) return score + ply;
+        else return score;
+    }
+
+    /**
+     * Thrown (without a stack trace) to unwind a search which ran out of time
+     */
+    private static class Abort extends RuntimeException {
+
+        private Abort() {
+            super(null, null, false, false);
+        }
+
+    }
+
+    /**
+     * The outcome of a search
+     */
+    public static class Result {
+
+        private final int column;
+        private final int score;
+
+        private Result(int column, int score) {
+            this.column = column;
+            this.score = score;
+        }
+
+        /**
+         * Gets the best column found
+         * @return The column to play in, starting from 0
+         */
+        public int getColumn() {
+            return column;
+        }
+
+        /**
+         * Gets the score of the best move for the player who searched. Only
+         * comparable with other scores from the same engine
+         * @return The score of the best move
+         */
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * Whether or not the player who searched can force a win
+         * @return true if the best move leads to a forced win
+         */
+        public boolean isWin() {
+            return score > WIN - MAX_PLY;
+        }
+
+        /**
+         * Whether or not the opponent can force a win whatever is played
+         * @return true if every move leads to a forced loss
+         */
+        public boolean isLoss() {
+            return score < -WIN + MAX_PLY;
+        }
+
+        /**
+         * Gets how many moves (by both players) remain until a forced win or loss
+         * @return The number of moves left, or -1 if the outcome isn't certain
+         */
+        public int getDistance() {
+            if (isWin()) return WIN - score;
+            else if (isLoss()) return WIN + score;
+            else return -1;
+        }
+
+    }
+
+    /**
+     * A single search for the best move in one position
+     */
+    private class Search {
+
+        private final C4Board root;
+        private final int player;
+        private final int maxDepth;
+        private final long deadline;
+        private final int[] order;
+
+        private int rootEval;
+
+        /**
+         * When the current iteration must stop. The first iteration always
+         * finishes so there is always a move to play
+         */
+        private long stopAt = Long.MAX_VALUE;
+        private volatile boolean aborted = false;
+
+        private Search(C4Board root, int player, long millis, int maxDepth) {
+
+            this.root = root;
+            this.player = player;
+            this.maxDepth = maxDepth;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+
+            // Center columns first, they're usually the best
+            int w = root.getWidth();
+            this.order = new int[w];
+
+            for (int i = 0, lo = (w - 1) / 2, hi = lo + 1; i < w; ) {
+                if (lo >= 0) order[i++] = lo--;
+                if (hi < w) order[i++] = hi++;
+            }
+
+        }
+
+        /**
+         * Searches one ply deeper at a time until time or depth runs out
+         * @return The best move found
+         */
+        private Result run() {
+
+            int best = -1;
+            int score = 0;
+            for (int col : order) if (root.canPlay(col)) { best = col; break; }
+
+            rootEval = evaluate(root, player);
+
+            int remaining = root.getWidth() * root.getHeight() - root.getMoves();
+
+            for (int depth = 1; depth <= Math.min(maxDepth, remaining); depth++) {
+
+                if (depth > 1) stopAt = deadline;
+
+                try {
+
+                    long result = searchRoot(depth);
+                    best = (int) (result >>> 32);
+                    score = (int) result;
+
+                    // No point looking deeper once the outcome is certain
+                    if (Math.abs(score) > WIN - MAX_PLY) break;
+
+                } catch (RuntimeException e) {
+                    if (aborted) break;
+                    else throw e;
+                }
+
+            }
+
+            return new Result(best, score);
+
+        }
+
+        /**
+         * Searches every move at the root to the given depth
+         *
+         * @param depth The depth to search to
+         * @return The best column in the upper half, and its score in the lower half
+         */
+        private long searchRoot(int depth) {
+
+            List<Integer> moves = new ArrayList<>(order.length);
+
+            long entry = table.probe(key(root, player));
+            int ttMove = entry == 0 ? -1 : C4TranspositionTable.move(entry);
+            if (root.canPlay(ttMove)) moves.add(ttMove);
+
+            for (int col : order) if (col != ttMove && root.canPlay(col)) moves.add(col);
+
+            // Search the most promising move alone to get a bound for the rest
+            int best = moves.get(0);
+            int bestScore = new Worker(root.copy()).searchMove(best, depth, -INF, INF);
+
+            AtomicInteger alpha = new AtomicInteger(bestScore);
+            int[] bounds = new int[moves.size()];
+            List<ForkJoinTask<Integer>> tasks = new ArrayList<>(moves.size() - 1);
+
+            for (int i = 1; i < moves.size(); i++) {
+
+                int col = moves.get(i);
+                int task = i;
+
+                tasks.add(ForkJoinTask.adapt(() -> {
+
+                    int bound = alpha.get();
+                    bounds[task] = bound;
+
+                    int s = new Worker(root.copy()).searchMove(col, depth, bound, INF);
+                    if (s > bound) alpha.accumulateAndGet(s, Math::max);
+
+                    return s;
+
+                }));
+
+            }
+
+            ForkJoinTask.invokeAll(tasks);
+
+            // A move which failed low only proved it's no better than the bound it was given, which was
+            // already reached by another move, so only moves which beat their bound have an exact score
+            for (int i = 0; i < tasks.size(); i++) {
+
+                int s = tasks.get(i).join();
+
+                if (s > bounds[i + 1] && s > bestScore) {
+                    bestScore = s;
+                    best = moves.get(i + 1);
+                }
+
+            }
+
+            table.store(key(root, player), depth, toTable(bestScore, 0), C4TranspositionTable.EXACT, best);
+
+            return ((long) best << 32) | (bestScore & 0xFFFFFFFFL);
+
+        }
+
+        /**
+         * The state of one thread's part of a search
+         */
+        private class Worker {
+
+            private final C4Board b;
+            private int nodes = 0;
+
+            private Worker(C4Board b) {
+                this.b = b;
+            }
+
+            /**
+             * Scores a single move at the root
+             *
+             * @param col The column to play in
+             * @param depth The depth to search to
+             * @param alpha The score the root player is already guaranteed
+             * @param beta The score the opponent is already guaranteed
+             * @return The move's score for the root player
+             */
+            private int searchMove(int col, int depth, int alpha, int beta) {
+
+                int d = delta(b, col, player);
+                int row = b.play(col, player);
+
+                if (b.isWin(col, row, length)) return WIN - 1;
+
+                return -negamax(3 - player, depth - 1, -beta, -alpha, -(rootEval + d), 1);
+
+            }
+
+            /**
+             * Scores the position for the player to move
+             *
+             * @param turn The player to move
+             * @param depth How many more moves to look ahead
+             * @param alpha The score the player to move is already guaranteed
+             * @param beta The score the opponent is already guaranteed
+             * @param eval The static evaluation of the position for the player to move
+             * @param ply How many moves have been made since the root
+             * @return The score of the position for the player to move
+             */
+            private int negamax(int turn, int depth, int alpha, int beta, int eval, int ply) {
+
+                if (++nodes % CHECK_INTERVAL == 0 && System.nanoTime() > stopAt) aborted = true;
+                if (aborted) throw new Abort();
+
+                if (b.isFull()) return 0;
+                if (depth == 0) return eval;
+
+                int alphaOriginal = alpha;
+                long hash = key(b, turn);
+                long entry = table.probe(hash);
+                int ttMove = -1;
+
+                if (entry != 0) {
+
+                    ttMove = C4TranspositionTable.move(entry);
+
+                    if (C4TranspositionTable.depth(entry) >= depth) {
+
+                        int s = fromTable(C4TranspositionTable.score(entry), ply);
+                        int flag = C4TranspositionTable.flag(entry);
+
+                        if (flag == C4TranspositionTable.EXACT) return s;
+                        else if (flag == C4TranspositionTable.LOWER) alpha = Math.max(alpha, s);
+                        else beta = Math.min(beta, s);
+
+                        if (alpha >= beta) return s;
+
+                    }
+
+                }
+
+                int best = -INF;
+                int bestMove = -1;
+
+                for (int i = -1; i < order.length && alpha < beta; i++) {
+
+                    int col = i < 0 ? ttMove : order[i];
+                    if ((i >= 0 && col == ttMove) || !b.canPlay(col)) continue;
+
+                    int d = delta(b, col, turn);
+                    int row = b.play(col, turn);
+
+                    int s = b.isWin(col, row, length)
+                            ? WIN - ply - 1
+                            : -negamax(3 - turn, depth - 1, -beta, -alpha, -(eval + d), ply + 1);
+
+                    b.undo(col, turn);
+
+                    if (s > best) {
+                        best = s;
+                        bestMove = col;
+                    }
+
+                    alpha = Math.max(alpha, s);
+
+                }
+
+                int flag;
+                if (best <= alphaOriginal) flag = C4TranspositionTable.UPPER;
+                else if (best >= beta) flag = C4TranspositionTable.LOWER;
+                else flag = C4TranspositionTable.EXACT;
+
+                table.store(hash, depth, toTable(best, ply), flag, bestMove);
+
+                return best;
+
+            }
+
+        }
+
+    }
+
+}
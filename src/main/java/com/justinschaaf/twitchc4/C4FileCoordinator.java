@@ -0,0 +1,172 @@
+package com.justinschaaf.twitchc4;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Coordinates instances through a directory they all share, such as a network
+ * mount or simply the same disk. Each member is a file whose modification
+ * time is its last heartbeat, and each handover is a file which is claimed by
+ * renaming it, so only one instance ever takes it. A claimed handover is only
+ * deleted once it's been restored; one which can't be read is put back to be
+ * tried again, and one which is rejected is renamed to end in ".failed"
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4FileCoordinator implements C4Coordinator {
+
+    private static final String HANDOVER_SUFFIX = ".bin";
+    private static final String CLAIMED_SUFFIX = ".taken";
+    private static final String FAILED_SUFFIX = ".failed";
+
+    private final Path members;
+    private final Path handovers;
+    private final long expiry;
+
+    /**
+     * Creates a coordinator in the given directory, creating it if it doesn't exist
+     *
+     * @param dir The shared directory
+     * @param expiry How long after its last heartbeat an instance is considered gone, in milliseconds
+     * @throws IOException If the directory can't be created
+     */
+    public C4FileCoordinator(Path dir, long expiry) throws IOException {
+
+        this.members = dir.resolve("members");
+        this.handovers = dir.resolve("handovers");
+        this.expiry = expiry;
+
+        Files.createDirectories(members);
+        Files.createDirectories(handovers);
+
+    }
+
+    @Override
+    public void join(String instance) throws IOException {
+
+        Path file = members.resolve(instance);
+
+        if (!Files.exists(file)) Files.createFile(file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+    }
+
+    @Override
+    public void leave(String instance) throws IOException {
+        Files.deleteIfExists(members.resolve(instance));
+    }
+
+    @Override
+    public Set<String> getMembers() throws IOException {
+
+        Set<String> live = new HashSet<>();
+        long now = System.currentTimeMillis();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(members)) {
+
+            for (Path p : files) {
+
+                try {
+                    if (now - Files.getLastModifiedTime(p).toMillis() <= expiry) live.add(p.getFileName().toString());
+                } catch (NoSuchFileException e) {
+                    // Left while we were looking
+                }
+
+            }
+
+        }
+
+        return live;
+
+    }
+
+    @Override
+    public void handOver(String channel, byte[] state) throws IOException {
+
+        // Named so they sort oldest first, and never clash with another instance's handover of the same channel
+        String name = channel + '.' + String.format("%016x", System.currentTimeMillis()) + '.' + System.nanoTime();
+
+        // Written under another name first, so nobody can take it half written
+        Path tmp = handovers.resolve(name + ".tmp");
+        Files.write(tmp, state);
+
+        try {
+            Files.move(tmp, handovers.resolve(name + HANDOVER_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, handovers.resolve(name + HANDOVER_SUFFIX));
+        }
+
+    }
+
+    @Override
+    public Set<String> getHandovers() throws IOException {
+
+        Set<String> channels = new HashSet<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(handovers, "*" + HANDOVER_SUFFIX)) {
+
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                channels.add(name.substring(0, name.indexOf('.')));
+            }
+
+        }
+
+        return channels;
+
+    }
+
+    @Override
+    public void takeOver(String channel, Predicate<byte[]> restore) throws IOException {
+
+        TreeMap<String, Path> found = new TreeMap<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(handovers, channel + ".*" + HANDOVER_SUFFIX)) {
+            for (Path p : files) found.put(p.getFileName().toString(), p);
+        }
+
+        for (Path p : found.values()) {
+
+            Path claimed = p.resolveSibling(p.getFileName() + CLAIMED_SUFFIX);
+
+            // Only one instance can rename it, and that's the one which takes it
+            try {
+                Files.move(p, claimed, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+
+            byte[] state;
+
+            try {
+                state = Files.readAllBytes(claimed);
+            } catch (IOException e) {
+                System.err.println("Unable to read " + claimed + ", leaving it to try again: " + e);
+                Files.move(claimed, p, StandardCopyOption.ATOMIC_MOVE);
+                continue;
+            }
+
+            boolean restored = false;
+
+            try {
+                restored = restore.test(state);
+            } finally {
+                if (restored) Files.delete(claimed);
+                else Files.move(claimed, p.resolveSibling(p.getFileName() + FAILED_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+        }
+
+    }
+
+}
@@ -1,8 +1,6 @@
 package com.justinschaaf.twitchc4;
 
 import java.util.Arrays;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -12,15 +10,50 @@ import java.util.concurrent.TimeUnit;
  */
 public class C4Game {
 
+    private long id;
     private String channel;
 
     private String p1;
     private String p2;
 
-    private String[][] board;
+    private C4Board board;
+    private C4Render render;
+
+    /**
+     * How many moves chat has seen, either on the whole board or announced
+     * one at a time in diff mode, or -1 if the board hasn't been printed yet
+     */
+    private int announced = -1;
 
     private boolean isP1Turn = true;
-    private ScheduledFuture<?> turn;
+    private boolean p1First = true;
+    private long startedAt;
+    private long turnStartedAt;
+    private C4Timer.Timeout turn;
+    private int turnCount = 0;
+    private boolean over = false;
+
+    /**
+     * How hard the bot tries, or null if this game is between two users. The bot is always Player 2
+     */
+    private C4Engine.Difficulty bot;
+
+    /**
+     * Chat's votes for its next move, or null if this game isn't chat playing as a team. Chat is always Player 1
+     */
+    private C4Vote vote;
+    private C4Timer.Timeout tally;
+
+    /**
+     * The tournament this game is a match in, or null if it isn't part of one
+     */
+    private C4Tournament tournament;
+    private int match;
+
+    /**
+     * Every column played so far, starting from 0, in order
+     */
+    private short[] history = new short[16];
 
     /**
      * Creates a new Connect 4 game
@@ -31,6 +64,7 @@ public class C4Game {
      */
     public C4Game(String channel, String p1, String p2) {
 
+        this.id = TwitchC4.getJournal().nextId();
         this.channel = channel;
         this.p1 = p1;
         this.p2 = p2;
@@ -40,19 +74,174 @@ public class C4Game {
 
     }
 
+    /**
+     * Creates a new Connect 4 game against the bot
+     *
+     * @param channel The Twitch channel name in which this game is taking place
+     * @param player The name of the user playing against the bot
+     * @param difficulty How hard the bot tries
+     */
+    public C4Game(String channel, String player, C4Engine.Difficulty difficulty) {
+
+        this.id = TwitchC4.getJournal().nextId();
+        this.channel = channel;
+        this.p1 = player;
+        this.p2 = TwitchC4.getConfig().botName;
+        this.bot = difficulty;
+
+        initBoard();
+        startGame();
+
+    }
+
+    /**
+     * Creates a new Connect 4 game with chat playing as a team, where each
+     * of chat's moves is the column most viewers voted for
+     *
+     * @param channel The Twitch channel name in which this game is taking place
+     * @param vote Where chat's votes are counted
+     * @param opponent The name of the user chat is playing against, if not the bot
+     * @param difficulty How hard the bot tries, or null if chat is playing against a user
+     */
+    public C4Game(String channel, C4Vote vote, String opponent, C4Engine.Difficulty difficulty) {
+
+        this.id = TwitchC4.getJournal().nextId();
+        this.channel = channel;
+        this.p1 = TwitchC4.getConfig().voteName;
+        this.p2 = difficulty == null ? opponent : TwitchC4.getConfig().botName;
+        this.bot = difficulty;
+        this.vote = vote;
+
+        initBoard();
+        startGame();
+
+    }
+
+    /**
+     * Creates a new Connect 4 game as a match in a tournament. The game starts
+     * straight away, but its first prompt is held back for the given delay so
+     * a round of many games doesn't spend the whole chat budget at once. The
+     * first turn is lengthened by the delay to make up for it
+     *
+     * @param channel The Twitch channel name in which this game is taking place
+     * @param p1 The name of Player 1
+     * @param p2 The name of Player 2
+     * @param tournament The tournament to report the result to
+     * @param match The match's index in the tournament's current round
+     * @param delay How long to hold back the first prompt, in milliseconds
+     */
+    C4Game(String channel, String p1, String p2, C4Tournament tournament, int match, long delay) {
+
+        this.id = TwitchC4.getJournal().nextId();
+        this.channel = channel;
+        this.p1 = p1;
+        this.p2 = p2;
+        this.tournament = tournament;
+        this.match = match;
+
+        initBoard();
+        startGame(delay);
+
+    }
+
+    /**
+     * Restores a game from the {@link C4Journal} by replaying its moves, then
+     * resumes the current turn with whatever time it had left. If the game
+     * had already been won or drawn when the bot stopped, it's ended instead
+     *
+     * @param saved The game as it was when the bot stopped
+     */
+    C4Game(C4Journal.SavedGame saved) {
+
+        this.id = saved.id;
+        this.channel = saved.channel;
+        this.p1 = saved.p1;
+        this.p2 = saved.p2;
+        this.bot = saved.difficulty;
+        if (saved.team) this.vote = new C4Vote(bot == null ? p2 : null, TwitchC4.getConfig().voteMaxVoters);
+        this.p1First = saved.p1First;
+        this.isP1Turn = saved.p1First;
+        this.startedAt = saved.startedAt;
+        this.turnStartedAt = saved.turnStartedAt;
+
+        initBoard();
+
+        for (int i = 0; i < saved.count; i++) {
+            board.play(saved.moves[i], isP1Turn ? C4Board.P1 : C4Board.P2);
+            record(saved.moves[i]);
+            isP1Turn = !isP1Turn;
+        }
+
+        C4Messages.send(channel, TwitchC4.getConfig().locGameResume, "%p1%", p1, "%p2%", p2);
+
+        int col = board.getLastColumn();
+        int row = board.getLastRow();
+
+        if (col >= 0 && board.isWin(col, row, TwitchC4.getConfig().gameConnectLength)) endGame(getPlayer(board.get(col, row)));
+        else if (board.isFull()) endGame(null);
+        else {
+            long elapsed = System.currentTimeMillis() - turnStartedAt;
+            startTurn(Math.max(0, TimeUnit.SECONDS.toMillis(TwitchC4.getConfig().gameTimer) - elapsed));
+        }
+
+    }
+
     /**
      * Starts the game of Connect 4
      */
     private void startGame() {
+        startGame(0);
+    }
 
-        C4Messages.send(channel, TwitchC4.getConfig().locGameStart, "%p1%", p1, "%p2%", p2);
+    /**
+     * Starts the game of Connect 4, holding back the first prompt for the given delay
+     * @param delay How long to hold back the first prompt, in milliseconds
+     */
+    private void startGame(long delay) {
+
+        if (delay <= 0) C4Messages.send(channel, TwitchC4.getConfig().locGameStart, "%p1%", p1, "%p2%", p2);
 
         // Randomize starting player
         if (TwitchC4.getConfig().gameRandomStart)
             if (Math.random() >= .5)
                 isP1Turn = !isP1Turn;
 
-        startTurn();
+        p1First = isP1Turn;
+        startedAt = System.currentTimeMillis();
+
+        if (delay <= 0) startTurn();
+        else startDelayed(delay);
+
+        TwitchC4.getJournal().start(this);
+
+    }
+
+    /**
+     * Starts the first turn without a prompt, then sends the prompt once the
+     * delay is up, unless the first move has already been made by then
+     * @param delay How long to hold back the prompt, in milliseconds
+     */
+    private void startDelayed(long delay) {
+
+        turnStartedAt = System.currentTimeMillis();
+        scheduleTimeout(TimeUnit.SECONDS.toMillis(TwitchC4.getConfig().gameTimer) + delay);
+
+        int expected = turnCount;
+        TwitchC4
+                .getTimer()
+                .schedule(
+                        () -> TwitchC4.getCmds().submit(channel, () -> {
+
+                            if (over || turnCount != expected) return;
+
+                            C4Messages.send(channel, TwitchC4.getConfig().locGameStart, "%p1%", p1, "%p2%", p2);
+                            showBoard();
+                            C4Messages.send(channel, TwitchC4.getConfig().locGameTurnStart, "%p%", getPlayerTurn());
+
+                        }),
+                        delay,
+                        TimeUnit.MILLISECONDS
+                );
 
     }
 
@@ -60,18 +249,145 @@ public class C4Game {
      * Starts the next turn. The player whose turn it is is determined by {@link #isP1Turn}
      */
     public void startTurn() {
+        turnStartedAt = System.currentTimeMillis();
+        startTurn(TimeUnit.SECONDS.toMillis(TwitchC4.getConfig().gameTimer));
+    }
 
-        printBoard();
+    /**
+     * Starts the next turn with the given amount of time
+     * @param millis How long the player has to move, in milliseconds
+     */
+    private void startTurn(long millis) {
+
+        if (isBotTurn()) {
+            startBotTurn();
+            return;
+        }
+
+        if (isTeamTurn()) {
+            startTeamTurn(millis);
+            return;
+        }
+
+        showBoard();
         C4Messages.send(channel, TwitchC4.getConfig().locGameTurnStart, "%p%", getPlayerTurn());
 
-        // For future reference: https://stackoverflow.com/questions/54623222/how-to-schedule-tasks-with-a-delay
-        turn = Executors
-                .newScheduledThreadPool(1)
+        scheduleTimeout(millis);
+
+    }
+
+    /**
+     * Forfeits the game for the current player if they haven't moved in time
+     * @param millis How long the player has to move, in milliseconds
+     */
+    private void scheduleTimeout(long millis) {
+
+        // The timeout runs in the channel's mailbox, by which point the turn may already be over
+        int expected = ++turnCount;
+        turn = TwitchC4
+                .getTimer()
                 .schedule(
-                        () -> forfeit(isP1Turn ? p1 : p2),
-                        TwitchC4.getConfig().gameTimer,
+                        () -> TwitchC4.getCmds().submit(channel, () -> {
+                            if (!over && turnCount == expected) forfeit(getPlayerTurn());
+                        }),
+                        millis,
+                        TimeUnit.MILLISECONDS
+                );
+
+    }
+
+    /**
+     * Starts the bot's turn. The engine searches on its own threads, then the
+     * move is played back in the channel's mailbox. The board is printed with
+     * the next user's turn instead, so the bot's turn sends nothing
+     */
+    private void startBotTurn() {
+
+        int expected = ++turnCount;
+        turn = null;
+
+        TwitchC4.getEngine()
+                .findMove(board, C4Board.P2, bot)
+                .whenComplete((col, e) -> TwitchC4.getCmds().submit(channel, () -> {
+
+                    if (over || turnCount != expected) return;
+
+                    if (e != null) {
+                        System.err.println("The bot failed to find a move in " + channel + ": " + e);
+                        forfeit(p2);
+                    } else doTurn(col + 1);
+
+                }));
+
+    }
+
+    /**
+     * Starts chat's turn, which lasts for the configured voting time at most.
+     * When it's up the column with the most votes is played, or chat forfeits
+     * if nobody voted. Meanwhile the tally is sent every so often, rather than
+     * after every vote
+     *
+     * @param millis How long the turn can last, in milliseconds
+     */
+    private void startTeamTurn(long millis) {
+
+        showBoard();
+        vote.open(board.getWidth());
+        C4Messages.send(channel, TwitchC4.getConfig().locVoteStart, "%p%", p1);
+
+        int expected = ++turnCount;
+        turn = TwitchC4
+                .getTimer()
+                .schedule(
+                        () -> TwitchC4.getCmds().submit(channel, () -> {
+                            if (!over && turnCount == expected) endVote();
+                        }),
+                        Math.min(millis, TimeUnit.SECONDS.toMillis(TwitchC4.getConfig().voteTime)),
+                        TimeUnit.MILLISECONDS
+                );
+
+        scheduleTally(expected);
+
+    }
+
+    /**
+     * Sends the tally of chat's votes after the configured interval, if it's
+     * changed, then does it again until the turn ends
+     * @param expected The turn to send the tally in
+     */
+    private void scheduleTally(int expected) {
+        tally = TwitchC4
+                .getTimer()
+                .schedule(
+                        () -> TwitchC4.getCmds().submit(channel, () -> {
+
+                            if (over || turnCount != expected) return;
+
+                            String list = vote.tally(board.getWidth());
+                            if (list != null) C4Messages.send(channel, C4Outbox.Priority.INFO, TwitchC4.getConfig().locVoteTally, "%list%", list);
+
+                            scheduleTally(expected);
+
+                        }),
+                        TwitchC4.getConfig().voteTallyInterval,
                         TimeUnit.SECONDS
                 );
+    }
+
+    /**
+     * Ends chat's turn by playing the column with the most votes
+     */
+    private void endVote() {
+
+        if (tally != null) tally.cancel();
+
+        int col = vote.close(board);
+
+        if (col < 0) forfeit(p1);
+        else {
+            C4Messages.send(channel, TwitchC4.getConfig().locVoteResult, "%p%", p1, "%c%", String.valueOf(col + 1));
+            doTurn(col + 1);
+        }
 
     }
 
@@ -81,16 +397,53 @@ public class C4Game {
      */
     public void doTurn(int c) {
 
-        for (int i = board.length - 1; i >= 0; i--)
-            if (board[i][c - 1].equals(TwitchC4.getConfig().symbolEmpty)) {
+        board.play(c - 1, isP1Turn ? C4Board.P1 : C4Board.P2);
+        record(c - 1);
+        TwitchC4.getJournal().move(this, board.getMoves() - 1, c - 1);
 
-                board[i][c - 1] = getPlayerChip();
-                break;
+        endTurn();
 
-            }
+    }
 
-        endTurn();
+    /**
+     * Suggests the best column to the current player. Early positions on the
+     * standard board are looked up in the {@link C4Book}; anything else is
+     * searched by the {@link C4Engine} for a limited time, and the hint is
+     * only sent if the turn hasn't ended by then
+     */
+    public void hint() {
+
+        int player = isP1Turn ? C4Board.P1 : C4Board.P2;
+        C4Book book = TwitchC4.getBook();
+        C4Book.Entry entry = book == null ? null : book.lookup(board, player, TwitchC4.getConfig().gameConnectLength);
 
+        if (entry != null) {
+            sendHint(entry.getColumn());
+            return;
+        }
+
+        int expected = turnCount;
+
+        TwitchC4.getEngine()
+                .analyse(board, player, TwitchC4.getConfig().hintTime, Integer.MAX_VALUE)
+                .whenComplete((r, e) -> TwitchC4.getCmds().submit(channel, () -> {
+                    if (e == null && !over && turnCount == expected) sendHint(r.getColumn());
+                }));
+
+    }
+
+    /**
+     * Sends a hint to the current player
+     * @param col The column to suggest, starting from 0
+     */
+    private void sendHint(int col) {
+        C4Messages.send(
+                channel,
+                C4Outbox.Priority.INFO,
+                TwitchC4.getConfig().locHint,
+                "%p%", getPlayerTurn(),
+                "%c%", String.valueOf(col + 1)
+        );
     }
 
     /**
@@ -99,27 +452,18 @@ public class C4Game {
      */
     public void endTurn() {
 
-        String winner = getWinner();
+        int col = board.getLastColumn();
+        int row = board.getLastRow();
 
-        // Do we have a winner?
-        if (winner != null) endGame(getPlayerFromChip(winner));
+        // Do we have a winner? Only the last chip can have made one
+        if (board.isWin(col, row, TwitchC4.getConfig().gameConnectLength)) endGame(getPlayer(board.get(col, row)));
+        else if (board.isFull()) endGame(null); // The game ends in a draw
         else {
 
-            boolean topFull = !board[0][0].equals(TwitchC4.getConfig().symbolEmpty);
-
-            if (topFull)
-                for (int i = 1; topFull && i < board[0].length; i++)
-                    if (!board[0][i].equals(board[0][i - 1]))
-                        topFull = false;
-
-            if (topFull) endGame(null); // The game ends in a draw
-            else {
-
-                isP1Turn = !isP1Turn;
-                turn.cancel(true);
-                startTurn();
-
-            }
+            isP1Turn = !isP1Turn;
+            if (turn != null) turn.cancel();
+            startTurn();
+            TwitchC4.getCmds().getChannel(channel).changed();
 
         }
 
@@ -139,22 +483,79 @@ public class C4Game {
     }
 
     /**
-     * Ends the game in a victory for the given player
-     * @param winner The player who won the game
+     * Ends the game in a victory for the given player, records the result in
+     * the {@link C4Stats}, and adds the game to the {@link C4Archive}. Games
+     * against the bot or chat are archived, but their results aren't recorded
+     * @param winner The player who won the game, or null if it was a draw
      */
     public void endGame(String winner) {
+        TwitchC4.getArchive().record(this, winner);
+        endGame(winner, bot == null && vote == null);
+    }
+
+    /**
+     * Ends the game without a result, e.g. because the bot is shutting down.
+     * A tournament this game is part of doesn't advance
+     */
+    public void cancel() {
+        tournament = null;
+        endGame(null, false);
+    }
 
-        if (!turn.isDone()) turn.cancel(true);
+    /**
+     * Stops the game without ending it, so it can carry on in another bot
+     * instance. Nothing is announced and no result is recorded
+     */
+    public void suspend() {
+
+        over = true;
+        if (turn != null) turn.cancel();
+        if (tally != null) tally.cancel();
+        if (vote != null) vote.close(board);
+        TwitchC4.getJournal().end(this);
+
+        TwitchC4.getCmds().getChannel(channel).removeGame(this);
+
+    }
+
+    /**
+     * Ends the game
+     *
+     * @param winner The player who won the game, or null if it was a draw
+     * @param rated Whether or not to record the result in the {@link C4Stats}
+     */
+    private void endGame(String winner, boolean rated) {
+
+        over = true;
+        if (turn != null) turn.cancel();
+        if (tally != null) tally.cancel();
+        if (vote != null) vote.close(board);
+        TwitchC4.getJournal().end(this);
+
+        if (rated) TwitchC4.getStats().record(channel, p1, p2, winner);
 
         printBoard();
 
         if (winner == null) C4Messages.send(channel, TwitchC4.getConfig().locGameTie, "%p1%", p1, "%p2%", p2);
         else C4Messages.send(channel, TwitchC4.getConfig().locGameWin, "%p%", winner);
 
-        TwitchC4.getCmds().GAMES.get(channel).remove(this);
+        TwitchC4.getCmds().getChannel(channel).removeGame(this);
+
+        // Only once the players are free, as this may start their next match
+        if (tournament != null) tournament.result(match, winner);
 
     }
 
+    /**
+     * Adds a move to this game's history
+     * @param col The column played in, starting from 0
+     */
+    private void record(int col) {
+        int n = board.getMoves() - 1;
+        if (n == history.length) history = Arrays.copyOf(history, n * 2);
+        history[n] = (short) col;
+    }
+
     /**
      * Checks whether or not a move in the given column is valid
      *
@@ -162,98 +563,139 @@ public class C4Game {
      * @return true if c is a valid column starting indexing from 1 and if the column has an open spot
      */
     public boolean isValidMove(int c) {
-        return c <= board[0].length && board[0][c - 1].equals(TwitchC4.getConfig().symbolEmpty);
+        return board.canPlay(c - 1);
     }
 
     /**
-     * Prints the game board to this game's associated Twitch chat
+     * Prints the game board to this game's associated Twitch chat, packed into
+     * as few messages as it fits in. Only the rows which changed since it was
+     * last printed are rendered again
      */
     public void printBoard() {
 
-        for (String[] row : board) {
+        for (String msg : render.getMessages()) C4Messages.send(channel, msg);
+
+        announced = board.getMoves();
+
+    }
+
+    /**
+     * Shows the board at the start of a turn. In diff mode, once the whole
+     * board has been printed, only the moves made since are announced
+     */
+    private void showBoard() {
+
+        if (!TwitchC4.getConfig().gameBoardDiff || announced < 0) {
+            printBoard();
+            return;
+        }
 
-            StringBuilder msg = new StringBuilder();
+        // Against the bot, the user's move and the bot's reply are both new
+        for (int i = announced; i < board.getMoves(); i++) {
 
-            for (String e : row) msg.append(e);
+            int cell = (i % 2 == 0) == p1First ? C4Board.P1 : C4Board.P2;
 
-            C4Messages.send(channel, msg.toString());
+            C4Messages.send(
+                    channel,
+                    TwitchC4.getConfig().locGameMove,
+                    "%p%", getPlayer(cell),
+                    "%s%", render.getSymbol(cell),
+                    "%c%", String.valueOf(history[i] + 1)
+            );
 
         }
 
+        announced = board.getMoves();
+
     }
 
     /**
-     * Populates the game board with the empty cell string
+     * Creates an empty game board of the configured size
      */
     private void initBoard() {
-        board = new String[TwitchC4.getConfig().gameBoardHeight][TwitchC4.getConfig().gameBoardWidth];
-        for (String[] strings : board) Arrays.fill(strings, TwitchC4.getConfig().symbolEmpty);
+
+        board = C4Board.create(TwitchC4.getConfig().gameBoardWidth, TwitchC4.getConfig().gameBoardHeight);
+        render = new C4Render(
+                board,
+                TwitchC4.getConfig().symbolEmpty,
+                TwitchC4.getConfig().symbolP1,
+                TwitchC4.getConfig().symbolP2
+        );
+
     }
 
     /**
-     * Gets the winner of the board, or null if neither player has won yet
-     * @return The symbol corresponding to the winning player
+     * Gets the winner of the board, or {@link C4Board#EMPTY} if neither player has won yet.
+     * This scans the entire board, so games use {@link C4Board#isWin(int, int, int)}
+     * on the last move instead; this is kept as a reference to check it against
+     *
+     * @return The {@link C4Board} cell value corresponding to the winning player
      */
-    public String getWinner() {
+    public int getWinner() {
+
+        int winner = C4Board.EMPTY;
+        int width = board.getWidth();
+        int height = board.getHeight();
+        int length = TwitchC4.getConfig().gameConnectLength;
 
-        String winner = null;
+        for (int col = 0; winner == C4Board.EMPTY && col < width; col++) {
 
-        for (int i = 0; winner == null && i < board.length; i++) {
+            for (int row = 0; winner == C4Board.EMPTY && row < height; row++) {
 
-            for (int j = 0; winner == null && j < board[i].length; j++) {
+                int cell = board.get(col, row);
 
-                // If it's the empty char, continue
-                if (board[i][j].equals(TwitchC4.getConfig().symbolEmpty)) continue;
+                // If it's empty, continue
+                if (cell == C4Board.EMPTY) continue;
 
                 // Horizontal Adjacent, e.g. -
-                if (j + 4 <= board[i].length) {
+                if (col + length <= width) {
 
                     boolean allEquals = true;
 
-                    for (int n = j + 1; allEquals && n < j + 4; n++)
-                        if (!board[i][n].equals(board[i][n - 1]))
+                    for (int n = 1; allEquals && n < length; n++)
+                        if (board.get(col + n, row) != cell)
                             allEquals = false;
 
-                    if (allEquals) winner = board[i][j];
+                    if (allEquals) winner = cell;
 
                 }
 
                 // Vertical Adjacent, e.g. |
-                if (winner == null && i + 4 <= board.length) {
+                if (winner == C4Board.EMPTY && row + length <= height) {
 
                     boolean allEquals = true;
 
-                    for (int n = i + 1; allEquals && n < i + 4; n++)
-                        if (!board[n][j].equals(board[n - 1][j]))
+                    for (int n = 1; allEquals && n < length; n++)
+                        if (board.get(col, row + n) != cell)
                             allEquals = false;
 
-                    if (allEquals) winner = board[i][j];
+                    if (allEquals) winner = cell;
 
                 }
 
                 // Upwards Diagonal, e.g. /
-                if (winner == null && i - 4 >= 0 && j + 4 <= board[i].length) {
+                if (winner == C4Board.EMPTY && col + length <= width && row + length <= height) {
 
                     boolean allEquals = true;
 
-                    for (int n = 1; allEquals && n < 4; n++)
-                        if (!board[i - n][j + n].equals(board[i - n + 1][j + n - 1]))
+                    for (int n = 1; allEquals && n < length; n++)
+                        if (board.get(col + n, row + n) != cell)
                             allEquals = false;
 
-                    if (allEquals) winner = board[i][j];
+                    if (allEquals) winner = cell;
 
                 }
 
                 // Downwards Diagonal, e.g. \
-                if (winner == null && i + 4 <= board.length && j + 4 <= board[i].length) {
+                if (winner == C4Board.EMPTY && col + length <= width && row - length + 1 >= 0) {
 
                     boolean allEquals = true;
 
-                    for (int n = 1; allEquals && n < 4; n++)
-                        if (!board[i + n][j + n].equals(board[i + n - 1][j + n - 1]))
+                    for (int n = 1; allEquals && n < length; n++)
+                        if (board.get(col + n, row - n) != cell)
                             allEquals = false;
 
-                    if (allEquals) winner = board[i][j];
+                    if (allEquals) winner = cell;
 
                 }
 
@@ -266,25 +708,16 @@ public class C4Game {
     }
 
     /**
-     * Gets the player's name from the chip they play with
+     * Gets the player's name from their cell value on the board
      *
-     * @param chip The chip to retrieve the name from
-     * @return The player associated with this chip
+     * @param player Either {@link C4Board#P1} or {@link C4Board#P2}
+     * @return The player associated with this cell value
      */
-    public String getPlayerFromChip(String chip) {
-        if (chip.equals(TwitchC4.getConfig().symbolP1)) return p1;
+    public String getPlayer(int player) {
+        if (player == C4Board.P1) return p1;
         else return p2;
     }
 
-    /**
-     * Gets the chip for the current player
-     * @return The chip that will be played this turn
-     */
-    public String getPlayerChip() {
-        if (isP1Turn) return TwitchC4.getConfig().symbolP1;
-        else return TwitchC4.getConfig().symbolP2;
-    }
-
     /**
      * Gets the name of the current player
      * @return The name of the player whose turn it is
@@ -294,6 +727,130 @@ public class C4Game {
         else return p2;
     }
 
+    /**
+     * Whether or not it's currently the bot's turn
+     * @return true if this game is against the bot and it's Player 2's turn
+     */
+    public boolean isBotTurn() {
+        return bot != null && !isP1Turn;
+    }
+
+    /**
+     * Determines whether or not the given player is the bot
+     *
+     * @param player The name of the player to check
+     * @return true if this game is against the bot and the player is Player 2
+     */
+    public boolean isBot(String player) {
+        return bot != null && p2.equals(player);
+    }
+
+    /**
+     * Whether or not it's currently chat's turn to vote
+     * @return true if chat is playing as a team and it's Player 1's turn
+     */
+    public boolean isTeamTurn() {
+        return vote != null && isP1Turn;
+    }
+
+    /**
+     * Determines whether or not the given player is chat playing as a team
+     *
+     * @param player The name of the player to check
+     * @return true if chat is playing as a team and the player is Player 1
+     */
+    public boolean isTeam(String player) {
+        return vote != null && p1.equals(player);
+    }
+
+    /**
+     * Gets where chat's votes are counted
+     * @return The vote, or null if chat isn't playing as a team
+     */
+    public C4Vote getVote() {
+        return vote;
+    }
+
+    /**
+     * Gets the id of this game, which is unique across restarts
+     * @return The id of this game
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the channel this game is being played in
+     * @return The Twitch channel name in which this game is taking place
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * Gets how hard the bot is trying in this game
+     * @return The bot's difficulty, or null if this game is between two users
+     */
+    public C4Engine.Difficulty getDifficulty() {
+        return bot;
+    }
+
+    /**
+     * Whether or not Player 1 had the first turn
+     * @return true if Player 1 moved first
+     */
+    public boolean isP1First() {
+        return p1First;
+    }
+
+    /**
+     * Gets when the game started, once the first player had been picked
+     * @return The start of the game in milliseconds since the epoch
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Gets when the current turn started
+     * @return The start of the current turn in milliseconds since the epoch
+     */
+    public long getTurnStartedAt() {
+        return turnStartedAt;
+    }
+
+    /**
+     * Gets every column played so far
+     * @return The columns played, starting from 0, in the order they were played
+     */
+    public short[] getHistory() {
+        return Arrays.copyOf(history, board.getMoves());
+    }
+
+    /**
+     * Gets the board this game is played on
+     * @return The game board
+     */
+    public C4Board getBoard() {
+        return board;
+    }
+
+    /**
+     * Gets the tournament this game is a match in
+     * @return The tournament, or null if this game isn't part of one
+     */
+    public C4Tournament getTournament() {
+        return tournament;
+    }
+
+    /**
+     * Whether or not this game has ended
+     * @return true if {@link #endGame(String)} has been called
+     */
+    public boolean isOver() {
+        return over;
+    }
+
     /**
      * Determines whether or not the given user is in this game
      *
@@ -0,0 +1,1040 @@
+package com.justinschaaf.twitchc4;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Makes games and challenges survive the bot restarting or crashing. Every
+ * change is appended to a write-ahead log by a single writer thread, which
+ * writes whatever has queued up since its last write and syncs it to disk
+ * once (group commit), so a busy bot doesn't pay for an fsync per move.
+ *
+ * Every so often the live state of each channel is captured from within its
+ * mailbox and written to a snapshot, after which the log segments before it
+ * are deleted, so recovery never has to replay more than one snapshot
+ * interval of log. Replaying is idempotent, since a change can end up both in
+ * a snapshot and in the log segment after it
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Journal {
+
+    /**
+     * "C4SN"
+     */
+    private static final int SNAPSHOT_MAGIC = 0x4334534E;
+    private static final int VERSION = 1;
+
+    /**
+     * "C4HO"
+     */
+    private static final int HANDOVER_MAGIC = 0x4334484F;
+
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * The largest record the log will accept when reading, anything bigger is treated as corruption
+     */
+    private static final int MAX_RECORD = 1 << 20;
+
+    /**
+     * How long to wait for each channel to capture its state for a snapshot, in seconds
+     */
+    private static final long CAPTURE_TIMEOUT = 10;
+
+    /**
+     * How long to wait before writing a failed batch again, in milliseconds
+     */
+    private static final long RETRY_DELAY = 1000;
+
+    private static final byte CHALLENGE = 1;
+    private static final byte CANCEL = 2;
+    private static final byte START = 3;
+    private static final byte MOVE = 4;
+    private static final byte END = 5;
+
+    private final Path dir;
+    private final AtomicLong ids = new AtomicLong(1);
+
+    private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private Thread snapshotter;
+    private volatile boolean running = false;
+
+    /**
+     * The current log segment. Guarded by this journal's monitor
+     */
+    private FileChannel log;
+    private long segment = 0;
+
+    /**
+     * Where the last batch synced to the current segment ends. Guarded by this journal's monitor
+     */
+    private long synced = 0;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private volatile long lastSnapshot = 0;
+
+    /**
+     * Creates a journal which doesn't store anything. Only hands out ids
+     */
+    public C4Journal() {
+        this.dir = null;
+    }
+
+    /**
+     * Creates a journal which stores everything in the given directory. Nothing
+     * is written until {@link #recover()} has been called
+     *
+     * @param dir The directory to keep the log and snapshots in
+     */
+    public C4Journal(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Whether or not this journal stores anything
+     * @return true if this journal writes to disk
+     */
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    /**
+     * Gets a new id for a game or challenge, unique across restarts
+     * @return The new id
+     */
+    public long nextId() {
+        return ids.getAndIncrement();
+    }
+
+    /*
+     * RECOVERY
+     */
+
+    /**
+     * Rebuilds the state from the last snapshot and the log after it, then
+     * starts a fresh log segment to append to. If the snapshot or log can't
+     * be read, they're moved aside into a "corrupt-" directory for someone to
+     * look at, and the journal starts over without them rather than running
+     * with nothing being saved
+     *
+     * @return Every game and challenge which was live when the bot stopped
+     * @throws IOException If the directory can't be written
+     */
+    public State recover() throws IOException {
+
+        State state = new State();
+        if (!isEnabled()) return state;
+
+        Files.createDirectories(dir);
+
+        long last;
+
+        try {
+            last = load(state);
+        } catch (IOException e) {
+            Path aside = quarantine();
+            System.err.println("Unable to restore saved games, moved them to " + aside + " and starting without them: " + e);
+            state = new State();
+            last = 0;
+        }
+
+        for (SavedChallenge c : state.challenges.values()) ids.accumulateAndGet(c.id + 1, Math::max);
+        for (SavedGame g : state.games.values()) ids.accumulateAndGet(g.id + 1, Math::max);
+
+        synchronized (this) {
+            openSegment(last + 1);
+        }
+
+        running = true;
+        writer = new Thread(this::write, "C4-Journal");
+        writer.setDaemon(true);
+        writer.start();
+
+        return state;
+
+    }
+
+    /**
+     * Reads the last snapshot and replays the log after it into the given state
+     *
+     * @return The last log segment there is
+     */
+    private long load(State state) throws IOException {
+
+        long from = 0;
+        Path snapshot = dir.resolve(SNAPSHOT);
+
+        if (Files.exists(snapshot)) from = readSnapshot(snapshot, state);
+
+        long last = from;
+
+        for (Map.Entry<Long, Path> e : segments().entrySet()) {
+
+            last = Math.max(last, e.getKey());
+            if (e.getKey() >= from) replay(e.getValue(), state);
+
+        }
+
+        return last;
+
+    }
+
+    /**
+     * Moves the snapshot and every log segment into a new directory, so a
+     * fresh log can be started without losing them
+     *
+     * @return The directory they were moved to
+     */
+    private Path quarantine() throws IOException {
+
+        Path aside = dir.resolve("corrupt-" + System.currentTimeMillis());
+        Files.createDirectories(aside);
+
+        Path snapshot = dir.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) Files.move(snapshot, aside.resolve(SNAPSHOT));
+
+        for (Path p : segments().values()) Files.move(p, aside.resolve(p.getFileName()));
+
+        return aside;
+
+    }
+
+    /**
+     * Starts writing a snapshot at a fixed interval
+     *
+     * @param interval The time between snapshots
+     * @param unit The unit of interval
+     */
+    public void startSnapshots(long interval, TimeUnit unit) {
+
+        if (!isEnabled()) return;
+
+        snapshotter = new Thread(() -> {
+
+            while (running) {
+
+                try {
+                    unit.sleep(interval);
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                try {
+                    snapshot();
+                } catch (Exception e) {
+                    System.err.println("Failed to write a snapshot: " + e);
+                }
+
+            }
+
+        }, "C4-Snapshot");
+
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+
+    }
+
+    /**
+     * Reads a snapshot into the given state
+     *
+     * @return The first log segment which needs replaying on top of the snapshot
+     */
+    private long readSnapshot(Path file, State state) throws IOException {
+
+        byte[] bytes = Files.readAllBytes(file);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        if (bytes.length < 32 || in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a snapshot: " + file);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Integer.BYTES);
+
+        if (in.readInt() != VERSION) throw new IOException("Unsupported snapshot version: " + file);
+        if (ByteBuffer.wrap(bytes, bytes.length - Integer.BYTES, Integer.BYTES).getInt() != (int) crc.getValue())
+            throw new IOException("Snapshot is corrupt: " + file);
+
+        long from = in.readLong();
+        ids.accumulateAndGet(in.readLong(), Math::max);
+
+        int channels = in.readInt();
+
+        for (int i = 0; i < channels; i++) {
+
+            String channel = in.readUTF();
+
+            int challenges = in.readInt();
+            for (int j = 0; j < challenges; j++) {
+                SavedChallenge c = readChallenge(in, channel);
+                state.challenges.put(c.id, c);
+            }
+
+            int games = in.readInt();
+            for (int j = 0; j < games; j++) {
+                SavedGame g = readGame(in, channel);
+                state.games.put(g.id, g);
+            }
+
+        }
+
+        return from;
+
+    }
+
+    /**
+     * Applies every intact record in a log segment to the given state. A
+     * record which was only partly written when the bot crashed ends the
+     * segment. Every id handed out is counted, even those of games and
+     * challenges which have since ended, so none is given out twice
+     */
+    private void replay(Path file, State state) throws IOException {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+
+            while (true) {
+
+                byte[] body = readRecord(in);
+                if (body == null) break;
+
+                DataInputStream r = new DataInputStream(new ByteArrayInputStream(body));
+                byte type = r.readByte();
+                long time = r.readLong();
+
+                switch (type) {
+
+                    case CHALLENGE: {
+                        long id = r.readLong();
+                        String channel = r.readUTF();
+                        String from = r.readUTF();
+                        String to = r.readBoolean() ? r.readUTF() : null;
+                        state.challenges.putIfAbsent(id, new SavedChallenge(id, channel, from, to, time));
+                        ids.accumulateAndGet(id + 1, Math::max);
+                        break;
+                    }
+
+                    case CANCEL:
+                        state.challenges.remove(r.readLong());
+                        break;
+
+                    case START: {
+                        long id = r.readLong();
+                        String channel = r.readUTF();
+                        String p1 = r.readUTF();
+                        String p2 = r.readUTF();
+                        int bot = r.readByte();
+                        boolean p1First = r.readBoolean();
+                        boolean team = r.readBoolean();
+                        long startedAt = r.readLong();
+
+                        state.games.putIfAbsent(id, new SavedGame(id, channel, p1, p2, bot, team, p1First, startedAt, time, new short[0]));
+                        ids.accumulateAndGet(id + 1, Math::max);
+                        break;
+                    }
+
+                    case MOVE: {
+
+                        SavedGame g = state.games.get(r.readLong());
+                        int index = r.readInt();
+                        short col = r.readShort();
+
+                        // The snapshot may already have this move
+                        if (g != null && index == g.count) {
+                            if (g.count == g.moves.length) g.moves = Arrays.copyOf(g.moves, Math.max(16, g.count * 2));
+                            g.moves[g.count++] = col;
+                            g.turnStartedAt = time;
+                        }
+
+                        break;
+
+                    }
+
+                    case END:
+                        state.games.remove(r.readLong());
+                        break;
+
+                    default:
+                        throw new IOException("Unknown record type " + type + " in " + file);
+
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Reads the body of the next record, checking its length and checksum
+     *
+     * @return The record's body, or null at the end of the log or a torn record
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+
+        try {
+
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_RECORD) return null;
+
+            byte[] body = new byte[length];
+            in.readFully(body);
+
+            CRC32 crc = new CRC32();
+            crc.update(body);
+
+            return in.readInt() == (int) crc.getValue() ? body : null;
+
+        } catch (EOFException e) {
+            return null;
+        }
+
+    }
+
+    /**
+     * Finds every log segment in the directory
+     * @return Each segment's path, keyed and sorted by its number
+     */
+    private TreeMap<Long, Path> segments() throws IOException {
+
+        TreeMap<Long, Path> segments = new TreeMap<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+
+            for (Path p : files) {
+
+                String name = p.getFileName().toString();
+
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), p);
+                } catch (NumberFormatException e) {
+                    System.err.println("Ignoring unexpected file " + p);
+                }
+
+            }
+
+        }
+
+        return segments;
+
+    }
+
+    /**
+     * Closes the current segment, if any, and starts appending to a new one.
+     * Must hold this journal's monitor
+     *
+     * @param number The number of the new segment
+     */
+    private void openSegment(long number) throws IOException {
+
+        if (log != null) {
+            log.force(false);
+            log.close();
+        }
+
+        segment = number;
+        log = FileChannel.open(
+                dir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX)),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND
+        );
+        synced = log.size();
+
+    }
+
+    /**
+     * Cuts off whatever part of a failed batch reached the current segment, so
+     * the next batch isn't appended after a torn record which would end the
+     * segment when it's replayed. If the segment can't be cut, a new one is
+     * started instead. Must hold this journal's monitor
+     */
+    private void repair() {
+
+        try {
+            log.truncate(synced);
+        } catch (IOException e) {
+
+            try {
+                openSegment(segment + 1);
+            } catch (IOException e2) {
+                System.err.println("Failed to repair the journal: " + e2);
+            }
+
+        }
+
+    }
+
+    /*
+     * APPENDING
+     */
+
+    /**
+     * Logs that a challenge was sent. Must be called from within the challenge's channel's mailbox
+     * @param c The new challenge
+     */
+    public void challenge(C4Challenge c) {
+
+        append(CHALLENGE, c.getCreated(), out -> {
+            out.writeLong(c.getId());
+            out.writeUTF(c.getChannel());
+            out.writeUTF(c.getFrom());
+            out.writeBoolean(c.getTo() != null);
+            if (c.getTo() != null) out.writeUTF(c.getTo());
+        });
+
+    }
+
+    /**
+     * Logs that a challenge was accepted, cancelled, declined, or expired
+     * @param c The challenge which is no longer live
+     */
+    public void cancel(C4Challenge c) {
+        append(CANCEL, System.currentTimeMillis(), out -> out.writeLong(c.getId()));
+    }
+
+    /**
+     * Logs that a game began, once the first player has been picked
+     * @param g The new game
+     */
+    public void start(C4Game g) {
+
+        append(START, g.getTurnStartedAt(), out -> {
+            String[] p = g.getPlayers();
+            out.writeLong(g.getId());
+            out.writeUTF(g.getChannel());
+            out.writeUTF(p[0]);
+            out.writeUTF(p[1]);
+            out.writeByte(g.getDifficulty() == null ? -1 : g.getDifficulty().ordinal());
+            out.writeBoolean(g.isP1First());
+            out.writeBoolean(g.getVote() != null);
+            out.writeLong(g.getStartedAt());
+        });
+
+    }
+
+    /**
+     * Logs a move
+     *
+     * @param g The game the move was made in
+     * @param index How many moves were made before this one
+     * @param col The column played in, starting from 0
+     */
+    public void move(C4Game g, int index, int col) {
+
+        append(MOVE, System.currentTimeMillis(), out -> {
+            out.writeLong(g.getId());
+            out.writeInt(index);
+            out.writeShort(col);
+        });
+
+    }
+
+    /**
+     * Logs that a game was won, drawn, or forfeited
+     * @param g The game which ended
+     */
+    public void end(C4Game g) {
+        append(END, System.currentTimeMillis(), out -> out.writeLong(g.getId()));
+    }
+
+    /**
+     * Frames a record as its length, body, and checksum, and queues it for the writer
+     */
+    private void append(byte type, long time, Fields fields) {
+
+        if (!running) return;
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(0);
+            out.writeByte(type);
+            out.writeLong(time);
+            fields.write(out);
+
+            CRC32 crc = new CRC32();
+            byte[] record = bytes.toByteArray();
+            crc.update(record, Integer.BYTES, record.length - Integer.BYTES);
+
+            record = Arrays.copyOf(record, record.length + Integer.BYTES);
+            ByteBuffer.wrap(record).putInt(0, record.length - 2 * Integer.BYTES).putInt(record.length - Integer.BYTES, (int) crc.getValue());
+
+            queue.add(record);
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    /**
+     * The writer thread's main loop. Writes every record which queued up while
+     * the last batch was being synced, then syncs them all at once. A batch
+     * which fails is cut off the log and written again, along with anything
+     * queued since, since replaying skips every move in a game after a missing one
+     */
+    private void write() {
+
+        List<byte[]> batch = new ArrayList<>();
+
+        while (running || !queue.isEmpty()) {
+
+            try {
+
+                if (batch.isEmpty()) {
+                    byte[] first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                }
+
+                queue.drainTo(batch);
+
+                ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+                for (int i = 0; i < buffers.length; i++) buffers[i] = ByteBuffer.wrap(batch.get(i));
+
+                synchronized (this) {
+
+                    long remaining = 0;
+                    for (ByteBuffer b : buffers) remaining += b.remaining();
+
+                    try {
+                        while (remaining > 0) remaining -= log.write(buffers);
+                        log.force(false);
+                        synced = log.size();
+                    } catch (IOException e) {
+                        repair();
+                        throw e;
+                    }
+
+                }
+
+                appended.addAndGet(batch.size());
+                commits.incrementAndGet();
+                batch.clear();
+
+            } catch (InterruptedException e) {
+                if (!running) break;
+            } catch (IOException e) {
+
+                System.err.println("Failed to write " + batch.size() + " journal records, trying again: " + e);
+
+                if (!running) break;
+
+                try {
+                    Thread.sleep(RETRY_DELAY);
+                } catch (InterruptedException e2) {
+                    if (!running) break;
+                }
+
+            }
+
+        }
+
+    }
+
+    /*
+     * SNAPSHOTS
+     */
+
+    /**
+     * Captures the state of every channel and writes it to a new snapshot,
+     * then deletes the log segments it replaces. Each channel is captured from
+     * within its own mailbox, so this may be called from any thread except a mailbox
+     *
+     * @throws IOException If the snapshot can't be written
+     */
+    public void snapshot() throws IOException {
+
+        if (!isEnabled() || !running) return;
+
+        // Everything from here on goes in a new segment, which is replayed on top of this snapshot
+        long from;
+
+        synchronized (this) {
+            openSegment(segment + 1);
+            from = segment;
+        }
+
+        List<CompletableFuture<byte[]>> captures = new ArrayList<>();
+
+        for (C4Channel c : TwitchC4.getCmds().getChannels())
+            captures.add(CompletableFuture.supplyAsync(() -> capture(c), c));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(from);
+        out.writeLong(ids.get());
+        out.writeInt(captures.size());
+
+        try {
+            for (CompletableFuture<byte[]> c : captures) out.write(c.get(CAPTURE_TIMEOUT, TimeUnit.SECONDS));
+        } catch (Exception e) {
+            throw new IOException("Unable to capture every channel", e);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        // Write the snapshot next to the old one, then swap it in
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Map.Entry<Long, Path> e : segments().headMap(from).entrySet()) Files.deleteIfExists(e.getValue());
+
+        lastSnapshot = System.currentTimeMillis();
+
+    }
+
+    /**
+     * Serializes the live games and challenges in a channel. Runs in the channel's mailbox
+     */
+    private static byte[] capture(C4Channel channel) {
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeUTF(channel.getName());
+
+            out.writeInt(channel.getChallenges().size());
+
+            for (C4Challenge c : channel.getChallenges()) {
+                out.writeLong(c.getId());
+                out.writeUTF(c.getFrom());
+                out.writeBoolean(c.getTo() != null);
+                if (c.getTo() != null) out.writeUTF(c.getTo());
+                out.writeLong(c.getCreated());
+            }
+
+            out.writeInt(channel.getGames().size());
+
+            for (C4Game g : channel.getGames()) {
+
+                String[] p = g.getPlayers();
+                short[] moves = g.getHistory();
+
+                out.writeLong(g.getId());
+                out.writeUTF(p[0]);
+                out.writeUTF(p[1]);
+                out.writeByte(g.getDifficulty() == null ? -1 : g.getDifficulty().ordinal());
+                out.writeBoolean(g.getVote() != null);
+                out.writeBoolean(g.isP1First());
+                out.writeLong(g.getTurnStartedAt());
+                out.writeLong(g.getStartedAt());
+                out.writeInt(moves.length);
+                for (short m : moves) out.writeShort(m);
+
+            }
+
+            return bytes.toByteArray();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    /*
+     * HANDOVER
+     */
+
+    /**
+     * Serializes the live games and challenges in a channel, in the same
+     * format as a snapshot, so another bot instance can carry them on. Must be
+     * called from within the channel's mailbox
+     *
+     * @param channel The channel being handed over
+     * @return The channel's state
+     */
+    public static byte[] handOver(C4Channel channel) {
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(HANDOVER_MAGIC);
+            out.writeInt(VERSION);
+            out.write(capture(channel));
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+
+            return bytes.toByteArray();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    /**
+     * Reads a channel's state handed over by another bot instance. Every game
+     * and challenge is given a new id from this journal, since the ids handed
+     * out by the other instance's journal may already be in use here
+     *
+     * @param bytes The state from {@link #handOver(C4Channel)}
+     * @return The games and challenges in the channel
+     * @throws IOException If the state is corrupt or from another version
+     */
+    public State takeOver(byte[] bytes) throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        if (bytes.length < 16 || in.readInt() != HANDOVER_MAGIC) throw new IOException("Not a handover");
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Integer.BYTES);
+
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported handover version " + version);
+        if (ByteBuffer.wrap(bytes, bytes.length - Integer.BYTES, Integer.BYTES).getInt() != (int) crc.getValue())
+            throw new IOException("Handover is corrupt");
+
+        State state = new State();
+        String channel = in.readUTF();
+
+        int challenges = in.readInt();
+        for (int i = 0; i < challenges; i++) {
+            SavedChallenge c = readChallenge(in, channel);
+            long id = nextId();
+            state.challenges.put(id, new SavedChallenge(id, channel, c.from, c.to, c.created));
+        }
+
+        int games = in.readInt();
+        for (int i = 0; i < games; i++) {
+            SavedGame g = readGame(in, channel);
+            long id = nextId();
+            state.games.put(id, new SavedGame(id, channel, g.p1, g.p2, g.difficulty == null ? -1 : g.difficulty.ordinal(), g.team, g.p1First, g.startedAt, g.turnStartedAt, g.moves));
+        }
+
+        return state;
+
+    }
+
+    /**
+     * Logs a game which was handed over from another bot instance, along with
+     * every move made in it so far
+     *
+     * @param g The game, once it's been restored
+     */
+    public void adopt(C4Game g) {
+
+        start(g);
+
+        short[] moves = g.getHistory();
+        for (int i = 0; i < moves.length; i++) move(g, i, moves[i]);
+
+    }
+
+    private static SavedChallenge readChallenge(DataInputStream in, String channel) throws IOException {
+
+        long id = in.readLong();
+        String from = in.readUTF();
+        String to = in.readBoolean() ? in.readUTF() : null;
+
+        return new SavedChallenge(id, channel, from, to, in.readLong());
+
+    }
+
+    private static SavedGame readGame(DataInputStream in, String channel) throws IOException {
+
+        long id = in.readLong();
+        String p1 = in.readUTF();
+        String p2 = in.readUTF();
+        int bot = in.readByte();
+        boolean team = in.readBoolean();
+        boolean p1First = in.readBoolean();
+        long turnStartedAt = in.readLong();
+        long startedAt = in.readLong();
+
+        short[] moves = new short[in.readInt()];
+        for (int i = 0; i < moves.length; i++) moves[i] = in.readShort();
+
+        return new SavedGame(id, channel, p1, p2, bot, team, p1First, startedAt, turnStartedAt, moves);
+
+    }
+
+    /**
+     * Stops the snapshot thread, writes everything still queued, and closes the log
+     */
+    public void close() {
+
+        if (!running) return;
+
+        running = false;
+        if (snapshotter != null) snapshotter.interrupt();
+
+        try {
+
+            writer.join(TimeUnit.SECONDS.toMillis(CAPTURE_TIMEOUT));
+
+            synchronized (this) {
+                log.force(false);
+                log.close();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Failed to close the journal: " + e);
+        }
+
+    }
+
+    /**
+     * Gets the number of records written to the log
+     * @return The number of records appended and synced
+     */
+    public long getAppended() {
+        return appended.get();
+    }
+
+    /**
+     * Gets the number of times the log was synced to disk. Each sync commits a whole batch of records
+     * @return The number of syncs
+     */
+    public long getCommits() {
+        return commits.get();
+    }
+
+    /**
+     * Gets when the last snapshot was written
+     * @return The time of the last snapshot in milliseconds since the epoch, or 0 if there hasn't been one
+     */
+    public long getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    /**
+     * Writes the fields of a record
+     */
+    @FunctionalInterface
+    private interface Fields {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Everything which was live when the bot stopped, in the order it was created
+     */
+    public static class State {
+
+        private final Map<Long, SavedChallenge> challenges = new LinkedHashMap<>();
+        private final Map<Long, SavedGame> games = new LinkedHashMap<>();
+
+        public Iterable<SavedChallenge> getChallenges() {
+            return challenges.values();
+        }
+
+        public Iterable<SavedGame> getGames() {
+            return games.values();
+        }
+
+    }
+
+    /**
+     * A challenge read back from the journal
+     */
+    public static class SavedChallenge {
+
+        final long id;
+        final String channel;
+        final String from;
+        final String to;
+        final long created;
+
+        private SavedChallenge(long id, String channel, String from, String to, long created) {
+            this.id = id;
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+            this.created = created;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+    }
+
+    /**
+     * A game read back from the journal
+     */
+    public static class SavedGame {
+
+        final long id;
+        final String channel;
+        final String p1;
+        final String p2;
+        final C4Engine.Difficulty difficulty;
+        final boolean team;
+        final boolean p1First;
+        final long startedAt;
+        long turnStartedAt;
+        short[] moves;
+        int count;
+
+        private SavedGame(long id, String channel, String p1, String p2, int bot, boolean team, boolean p1First, long startedAt, long turnStartedAt, short[] moves) {
+            this.id = id;
+            this.channel = channel;
+            this.p1 = p1;
+            this.p2 = p2;
+            this.difficulty = bot < 0 ? null : C4Engine.Difficulty.values()[bot];
+            this.team = team;
+            this.p1First = p1First;
+            this.startedAt = startedAt;
+            this.turnStartedAt = turnStartedAt;
+            this.moves = moves;
+            this.count = moves.length;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+    }
+
+}
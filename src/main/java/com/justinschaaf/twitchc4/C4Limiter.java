@@ -0,0 +1,162 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how many commands each user can send in each channel, so one
+ * spammer can't use up the bot's whole outgoing rate limit on error replies.
+ * Each user can send a burst of commands in a row, then one per cooldown.
+ *
+ * Every bucket is a single long in an open-addressed table: a tag from the
+ * hash of the channel and user, and the time at which the bucket will be
+ * full again. A bucket which is already full holds nothing worth keeping, so
+ * it's simply reused by the next user who lands on it, and idle users expire
+ * without ever being swept. Checking a command never takes a lock
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Limiter {
+
+    private static final int TIME_BITS = 40;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+    /**
+     * How many slots a user's bucket can be from where their hash lands
+     */
+    private static final int MAX_PROBES = 16;
+
+    private final long cooldown;
+    private final long tolerance;
+
+    private final AtomicLongArray buckets;
+    private final int mask;
+
+    private final long startTime = System.nanoTime();
+
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Creates a new limiter
+     *
+     * @param burst How many commands a user can send in a row
+     * @param cooldown How long it takes a user to earn another command, in milliseconds, or 0 to never limit anyone
+     * @param size The number of buckets, rounded up to a power of two. Users beyond this many aren't limited
+     */
+    public C4Limiter(int burst, long cooldown, int size) {
+
+        this.cooldown = cooldown;
+        this.tolerance = (burst - 1) * cooldown;
+
+        int n = Integer.highestOneBit(Math.max(MAX_PROBES, size - 1)) << 1;
+        this.buckets = new AtomicLongArray(n);
+        this.mask = n - 1;
+
+    }
+
+    /**
+     * Takes a command from the user's bucket, if they have one left. Safe to call from any thread
+     *
+     * @param channel The channel the command was sent in
+     * @param user The user who sent the command
+     * @return true if the command should be handled, false if it should be dropped
+     */
+    public boolean tryAcquire(String channel, String user) {
+
+        if (cooldown == 0) return true;
+
+        long hash = hash(channel, user);
+        long tag = hash >>> TIME_BITS;
+
+        while (true) {
+
+            // Empty slots hold 0, which is always in the past
+            long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + 1;
+
+            int i = (int) hash & mask;
+            int free = -1;
+            long freeValue = 0;
+            int found = -1;
+            long foundValue = 0;
+
+            for (int probe = 0; probe < MAX_PROBES; probe++, i = (i + 1) & mask) {
+
+                long v = buckets.get(i);
+
+                if ((v & TIME_MASK) <= now) {
+
+                    // Full again, so it's as good as empty
+                    if (free < 0) {
+                        free = i;
+                        freeValue = v;
+                    }
+
+                } else if (v >>> TIME_BITS == tag) {
+                    found = i;
+                    foundValue = v;
+                    break;
+                }
+
+            }
+
+            if (found >= 0) {
+
+                // The bucket is a schedule: each command pushes the time it's full again back by one cooldown
+                long full = foundValue & TIME_MASK;
+
+                if (full - now > tolerance) {
+                    dropped.increment();
+                    return false;
+                }
+
+                if (buckets.compareAndSet(found, foundValue, (tag << TIME_BITS) | (full + cooldown))) return true;
+
+            } else if (free >= 0) {
+
+                if (buckets.compareAndSet(free, freeValue, (tag << TIME_BITS) | (now + cooldown))) return true;
+
+            } else return true; // Every nearby bucket is busy, so let this one through rather than guess
+
+        }
+
+    }
+
+    /**
+     * Hashes a channel and user together, ignoring the user's case, without copying either
+     */
+    private static long hash(String channel, String user) {
+
+        long h = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < channel.length(); i++) {
+            h ^= channel.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= '#';
+        h *= 0x100000001b3L;
+
+        for (int i = 0; i < user.length(); i++) {
+            h ^= Character.toLowerCase(user.charAt(i));
+            h *= 0x100000001b3L;
+        }
+
+        // Spread the bits, since the top ones are the tag and the bottom ones pick the slot
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+
+        return h;
+
+    }
+
+    /**
+     * Gets the number of commands which have been dropped
+     * @return The number of commands dropped for going over the limit
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+}
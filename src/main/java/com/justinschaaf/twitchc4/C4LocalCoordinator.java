@@ -0,0 +1,104 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Coordinates instances which all run in the same process. Only useful for
+ * testing how channels move between instances, since a single process
+ * already holds every channel
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4LocalCoordinator implements C4Coordinator {
+
+    private final long expiry;
+
+    /**
+     * Each member's last heartbeat, in nanoseconds
+     */
+    private final ConcurrentHashMap<String, Long> members = new ConcurrentHashMap<>();
+    private final Map<String, List<byte[]>> handovers = new ConcurrentHashMap<>();
+
+    /**
+     * States which couldn't be restored, kept aside by channel
+     */
+    private final Map<String, List<byte[]>> rejected = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a coordinator
+     * @param expiry How long after its last heartbeat an instance is considered gone, in milliseconds
+     */
+    public C4LocalCoordinator(long expiry) {
+        this.expiry = TimeUnit.MILLISECONDS.toNanos(expiry);
+    }
+
+    @Override
+    public void join(String instance) {
+        members.put(instance, System.nanoTime());
+    }
+
+    @Override
+    public void leave(String instance) {
+        members.remove(instance);
+    }
+
+    @Override
+    public Set<String> getMembers() {
+
+        Set<String> live = new HashSet<>();
+        long now = System.nanoTime();
+
+        members.forEach((m, seen) -> {
+            if (now - seen <= expiry) live.add(m);
+        });
+
+        return live;
+
+    }
+
+    @Override
+    public void handOver(String channel, byte[] state) {
+
+        handovers.compute(channel, (c, states) -> {
+            if (states == null) states = new ArrayList<>();
+            states.add(state);
+            return states;
+        });
+
+    }
+
+    @Override
+    public Set<String> getHandovers() {
+        return new HashSet<>(handovers.keySet());
+    }
+
+    @Override
+    public void takeOver(String channel, Predicate<byte[]> restore) {
+
+        List<byte[]> states = handovers.remove(channel);
+        if (states == null) return;
+
+        for (byte[] state : states)
+            if (!restore.test(state))
+                rejected.computeIfAbsent(channel, c -> new ArrayList<>()).add(state);
+
+    }
+
+    /**
+     * Gets the states left for a channel which couldn't be restored
+     *
+     * @param channel The channel the states were left for
+     * @return The rejected states, oldest first
+     */
+    public List<byte[]> getRejected(String channel) {
+        return rejected.getOrDefault(channel, new ArrayList<>());
+    }
+
+}
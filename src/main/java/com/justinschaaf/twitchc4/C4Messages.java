@@ -1,14 +1,14 @@
 package com.justinschaaf.twitchc4;
 
 /**
- * Util class for formatting messages
+ * Util class for formatting and sending messages
  *
  * @author Justin H. Schaaf (justinschaaf.com)
  */
 public class C4Messages {
 
     /**
-     * Formats and sends a message in the given channel
+     * Formats and queues a game-critical message in the given channel
      *
      * @param channel The channel to send the message in
      * @param message The message to send
@@ -21,14 +21,28 @@ public class C4Messages {
      *                     "justinhschaaf" and all instances of "%t%" with "TheOnlyCheezIt"
      */
     public static void send(String channel, String message, String... replacements) {
+        send(channel, C4Outbox.Priority.GAME, message, replacements);
+    }
+
+    /**
+     * Formats and queues a message in the given channel
+     *
+     * @param channel The channel to send the message in
+     * @param priority How important the message is, see {@link C4Outbox.Priority}
+     * @param message The message to send
+     * @param replacements Any replacements to perform on the message, see {@link #send(String, String, String...)}
+     */
+    public static void send(String channel, C4Outbox.Priority priority, String message, String... replacements) {
 
         if (message != null) {
 
-            for (int i = 0; i < replacements.length - 1; i += 2)
-                if (replacements[i + 1] != null)
-                    message = message.replace(replacements[i], replacements[i + 1]);
+            C4Template template = TwitchC4.getConfig().getTemplate(message);
+
+            // Anything that isn't from the config (e.g. board rows) is only compiled if it needs to be
+            if (template != null) message = template.render(replacements);
+            else if (replacements.length > 0) message = C4Template.compile(message, null).render(replacements);
 
-            TwitchC4.getClient().getChat().sendMessage(channel, message);
+            TwitchC4.getOutbox().send(channel, priority, message);
 
         }
 
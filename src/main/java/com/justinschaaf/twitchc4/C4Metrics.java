@@ -0,0 +1,619 @@
+package com.justinschaaf.twitchc4;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what the bot is doing while it runs, and exports it in the
+ * Prometheus text format over a local HTTP endpoint and as a JMX MBean.
+ *
+ * Only the hot paths record anything here: each command's latency, each
+ * vote, and each Helix request, all with {@link LongAdder}s so recording never
+ * takes a lock or allocates. Everything else (games, challenges, the outbox,
+ * the timer, the journal, the archive, and the JVM) is read from the rest of
+ * the bot when it's scraped
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Metrics {
+
+    /**
+     * The name the MBean is registered under
+     */
+    public static final String MBEAN_NAME = "com.justinschaaf.twitchc4:type=Metrics";
+
+    /**
+     * The upper bound of the smallest histogram bucket is 2^MIN_SHIFT nanoseconds, about 16µs
+     */
+    private static final int MIN_SHIFT = 14;
+
+    /**
+     * The number of bounded histogram buckets. Each is twice the last, so the largest is about 17s
+     */
+    private static final int BUCKETS = 21;
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The latency of each command, indexed by ordinal, with unknown commands last
+     */
+    private final Histogram[] commands = new Histogram[C4Command.values().length + 1];
+
+    private final Histogram helix = new Histogram();
+    private final LongAdder helixErrors = new LongAdder();
+    private final LongAdder votes = new LongAdder();
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private ObjectName name;
+
+    /**
+     * Creates a new registry, which isn't exported anywhere until {@link #start(String, int)} or {@link #register()} is called
+     */
+    public C4Metrics() {
+        for (int i = 0; i < commands.length; i++) commands[i] = new Histogram();
+    }
+
+    /**
+     * Records a command which has finished running. Safe to call from any thread
+     *
+     * @param cmd The command, or null if it wasn't recognized
+     * @param nanos How long it took from arriving to finishing, including its wait in the channel's mailbox
+     */
+    public void command(C4Command cmd, long nanos) {
+        commands[cmd == null ? commands.length - 1 : cmd.ordinal()].observe(nanos);
+    }
+
+    /**
+     * Records a vote from chat in a team game. Safe to call from any thread
+     */
+    public void vote() {
+        votes.increment();
+    }
+
+    /**
+     * Records a request to Helix. Safe to call from any thread
+     *
+     * @param nanos How long the request took
+     * @param ok false if the request failed
+     */
+    public void helix(long nanos, boolean ok) {
+        helix.observe(nanos);
+        if (!ok) helixErrors.increment();
+    }
+
+    /**
+     * Starts serving the metrics at /metrics on the given address
+     *
+     * @param host The address to listen on
+     * @param port The port to listen on
+     * @throws IOException If the server can't be bound
+     */
+    public void start(String host, int port) throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", this::serve);
+
+        // Scrapes are rare and cheap, so one thread is plenty
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "C4-Metrics");
+            t.setDaemon(true);
+            return t;
+        });
+
+        server.setExecutor(executor);
+        server.start();
+
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as {@link #MBEAN_NAME}
+     * @throws JMException If the MBean can't be registered
+     */
+    public void register() throws JMException {
+        name = new ObjectName(MBEAN_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+    }
+
+    /**
+     * Stops the HTTP server and unregisters the MBean, if either was started
+     */
+    public void stop() {
+
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+
+        if (name != null) {
+
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                System.err.println("Failed to unregister the metrics MBean: " + e);
+            }
+
+            name = null;
+
+        }
+
+    }
+
+    /**
+     * Gets the address the HTTP server is listening on
+     * @return The bound address, or null if the server isn't running
+     */
+    public InetSocketAddress getAddress() {
+        return server == null ? null : server.getAddress();
+    }
+
+    /**
+     * Formats every metric in the Prometheus text format
+     * @return The current value of every metric
+     */
+    public String scrape() {
+
+        StringBuilder out = new StringBuilder(4096);
+
+        collect(new Exporter() {
+
+            @Override
+            public void family(String name, String type, String help) {
+                out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+                out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            }
+
+            @Override
+            public void sample(String name, String labels, double value) {
+
+                out.append(name);
+                if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+                out.append(' ');
+
+                if (value == (long) value) out.append((long) value);
+                else out.append(value);
+
+                out.append('\n');
+
+            }
+
+        });
+
+        return out.toString();
+
+    }
+
+    /**
+     * Reads every metric into a map from its name and labels, as they'd appear in a scrape, to its value
+     */
+    private Map<String, Double> snapshot() {
+
+        Map<String, Double> values = new LinkedHashMap<>();
+
+        collect(new Exporter() {
+
+            @Override
+            public void family(String name, String type, String help) {
+                // Only the values are kept
+            }
+
+            @Override
+            public void sample(String name, String labels, double value) {
+                values.put(labels.isEmpty() ? name : name + '{' + labels + '}', value);
+            }
+
+        });
+
+        return values;
+
+    }
+
+    /**
+     * Answers a scrape
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+
+        try {
+
+            String method = exchange.getRequestMethod();
+
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+
+        } finally {
+            exchange.close();
+        }
+
+    }
+
+    /**
+     * Reads every metric, from here and from the rest of the bot. Parts of the
+     * bot which haven't been loaded yet are skipped
+     */
+    private void collect(Exporter out) {
+
+        collectCommands(out);
+        collectChannels(out);
+        collectShard(out);
+        collectOutbox(out);
+        collectTimer(out);
+        collectJournal(out);
+        collectArchive(out);
+        collectJvm(out);
+
+    }
+
+    private void collectCommands(Exporter out) {
+
+        C4Command[] values = C4Command.values();
+
+        out.family("c4_command_duration_seconds", "histogram", "Time from a command arriving to it finishing, including its wait in the channel's mailbox");
+        for (int i = 0; i < commands.length; i++)
+            commands[i].export(out, "c4_command_duration_seconds", "command=\"" + (i < values.length ? values[i].name().toLowerCase(Locale.ROOT) : "unknown") + '"');
+
+        out.family("c4_votes_total", "counter", "Votes sent by chat in team games");
+        out.sample("c4_votes_total", "", votes.sum());
+
+        C4Commands cmds = TwitchC4.getCmds();
+
+        if (cmds != null) {
+            out.family("c4_commands_limited_total", "counter", "Commands dropped because the user sent too many");
+            out.sample("c4_commands_limited_total", "", cmds.getLimiter().getDropped());
+        }
+
+        out.family("c4_helix_request_duration_seconds", "histogram", "Time taken by requests to Helix");
+        helix.export(out, "c4_helix_request_duration_seconds", "");
+
+        out.family("c4_helix_request_errors_total", "counter", "Requests to Helix which failed");
+        out.sample("c4_helix_request_errors_total", "", helixErrors.sum());
+
+    }
+
+    private void collectChannels(Exporter out) {
+
+        C4Commands cmds = TwitchC4.getCmds();
+        if (cmds == null) return;
+
+        out.family("c4_channel_games", "gauge", "Games being played in each channel");
+        for (C4Channel c : cmds.getChannels()) out.sample("c4_channel_games", channel(c), c.getGameCount());
+
+        out.family("c4_channel_challenges", "gauge", "Challenges waiting to be accepted in each channel");
+        for (C4Channel c : cmds.getChannels()) out.sample("c4_channel_challenges", channel(c), c.getChallengeCount());
+
+        out.family("c4_channel_queued", "gauge", "Players waiting to be matched in each channel");
+        for (C4Channel c : cmds.getChannels()) out.sample("c4_channel_queued", channel(c), c.getQueue().size());
+
+    }
+
+    private void collectShard(Exporter out) {
+
+        C4Shard shard = TwitchC4.getShard();
+        if (shard == null) return;
+
+        C4Ring ring = shard.getRing();
+
+        out.family("c4_shard_channels", "gauge", "Channels this instance handles");
+        out.sample("c4_shard_channels", "", shard.getChannels().size());
+
+        out.family("c4_shard_members", "gauge", "Instances sharing the channels, including this one");
+        out.sample("c4_shard_members", "", ring == null ? 0 : ring.getMembers().size());
+
+    }
+
+    private void collectOutbox(Exporter out) {
+
+        C4Outbox outbox = TwitchC4.getOutbox();
+        if (outbox == null) return;
+
+        out.family("c4_outbox_depth", "gauge", "Chat messages waiting to be sent");
+        out.sample("c4_outbox_depth", "", outbox.getDepth());
+
+        out.family("c4_outbox_sent_total", "counter", "Chat messages sent");
+        out.sample("c4_outbox_sent_total", "", outbox.getSent());
+
+        out.family("c4_outbox_merged_total", "counter", "Chat messages merged into another instead of being sent separately");
+        out.sample("c4_outbox_merged_total", "", outbox.getMerged());
+
+        out.family("c4_outbox_suppressed_total", "counter", "Error replies not sent because the same error was just sent");
+        out.sample("c4_outbox_suppressed_total", "", outbox.getSuppressed());
+
+        out.family("c4_outbox_latency_seconds", "gauge", "Time chat messages waited to be sent");
+        out.sample("c4_outbox_latency_seconds", "stat=\"last\"", outbox.getLastLatency() / 1000.0);
+        out.sample("c4_outbox_latency_seconds", "stat=\"max\"", outbox.getMaxLatency() / 1000.0);
+        out.sample("c4_outbox_latency_seconds", "stat=\"mean\"", outbox.getMeanLatency() / 1000.0);
+
+    }
+
+    private void collectTimer(Exporter out) {
+
+        C4Timer timer = TwitchC4.getTimer();
+        if (timer == null) return;
+
+        out.family("c4_timer_pending", "gauge", "Timeouts waiting to run");
+        out.sample("c4_timer_pending", "", timer.getPending());
+
+        out.family("c4_timer_fired_total", "counter", "Timeouts which have run");
+        out.sample("c4_timer_fired_total", "", timer.getFired());
+
+        out.family("c4_timer_lag_seconds", "gauge", "How late timeouts were handed to a worker");
+        out.sample("c4_timer_lag_seconds", "stat=\"last\"", timer.getLastLag() / 1000.0);
+        out.sample("c4_timer_lag_seconds", "stat=\"max\"", timer.getMaxLag() / 1000.0);
+        out.sample("c4_timer_lag_seconds", "stat=\"mean\"", timer.getMeanLag() / 1000.0);
+
+    }
+
+    private void collectJournal(Exporter out) {
+
+        C4Journal journal = TwitchC4.getJournal();
+        if (journal == null || !journal.isEnabled()) return;
+
+        out.family("c4_journal_records_total", "counter", "Records written to the log");
+        out.sample("c4_journal_records_total", "", journal.getAppended());
+
+        out.family("c4_journal_commits_total", "counter", "Times the log was synced to disk");
+        out.sample("c4_journal_commits_total", "", journal.getCommits());
+
+    }
+
+    private void collectArchive(Exporter out) {
+
+        C4Archive archive = TwitchC4.getArchive();
+        if (archive == null || !archive.isEnabled()) return;
+
+        out.family("c4_archive_games", "gauge", "Finished games in the archive");
+        out.sample("c4_archive_games", "", archive.getArchived());
+
+        out.family("c4_archive_segment", "gauge", "The archive file being appended to");
+        out.sample("c4_archive_segment", "", archive.getSegment());
+
+    }
+
+    private void collectJvm(Exporter out) {
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+        out.family("c4_jvm_heap_used_bytes", "gauge", "Heap in use");
+        out.sample("c4_jvm_heap_used_bytes", "", heap.getUsed());
+
+        out.family("c4_jvm_heap_committed_bytes", "gauge", "Heap reserved from the OS");
+        out.sample("c4_jvm_heap_committed_bytes", "", heap.getCommitted());
+
+        out.family("c4_jvm_gc_collections_total", "counter", "Garbage collections by each collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            out.sample("c4_jvm_gc_collections_total", "gc=\"" + escape(gc.getName()) + '"', gc.getCollectionCount());
+
+        out.family("c4_jvm_gc_seconds_total", "counter", "Time spent in garbage collection by each collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            out.sample("c4_jvm_gc_seconds_total", "gc=\"" + escape(gc.getName()) + '"', gc.getCollectionTime() / 1000.0);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        out.family("c4_jvm_threads", "gauge", "Live threads");
+        out.sample("c4_jvm_threads", "", threads.getThreadCount());
+
+        // Allocation counting is a HotSpot extension, so it may not be there
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+
+            com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+
+            if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled()) {
+
+                long total = 0;
+                for (long bytes : t.getThreadAllocatedBytes(t.getAllThreadIds())) if (bytes > 0) total += bytes;
+
+                // Threads which have exited take their count with them, so this can go down
+                out.family("c4_jvm_allocated_bytes", "gauge", "Bytes allocated by every live thread since it started");
+                out.sample("c4_jvm_allocated_bytes", "", total);
+
+            }
+
+        }
+
+    }
+
+    private static String channel(C4Channel c) {
+        return "channel=\"" + escape(c.getName()) + '"';
+    }
+
+    /**
+     * Escapes a label value as the Prometheus text format requires
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Receives every metric as it's read
+     */
+    private interface Exporter {
+
+        /**
+         * Starts a new metric
+         *
+         * @param name The metric's name
+         * @param type counter, gauge, or histogram
+         * @param help What the metric measures
+         */
+        void family(String name, String type, String help);
+
+        /**
+         * Gives a single value of the current metric
+         *
+         * @param name The name of the series, which is the metric's name plus a suffix for histograms
+         * @param labels The series' labels, formatted as they appear between the braces, or an empty string if there are none
+         * @param value The value
+         */
+        void sample(String name, String labels, double value);
+
+    }
+
+    /**
+     * Counts durations in buckets which double in size, so finding a duration's
+     * bucket is a single leading-zeros count rather than a search
+     */
+    private static class Histogram {
+
+        /**
+         * The bounded buckets, followed by the bucket for everything larger. Not cumulative
+         */
+        private final LongAdder[] buckets = new LongAdder[BUCKETS + 1];
+        private final LongAdder sum = new LongAdder();
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        private void observe(long nanos) {
+
+            nanos = Math.max(1, nanos);
+
+            // The smallest power of two that's at least the duration picks its bucket
+            int bucket = Long.SIZE - Long.numberOfLeadingZeros(nanos - 1) - MIN_SHIFT;
+            buckets[Math.min(BUCKETS, Math.max(0, bucket))].increment();
+            sum.add(nanos);
+
+        }
+
+        /**
+         * Gives the buckets, cumulatively as Prometheus expects, then the sum and count
+         *
+         * @param name The name of the metric
+         * @param labels Any labels to add to every series, or an empty string
+         */
+        private void export(Exporter out, String name, String labels) {
+
+            String prefix = labels.isEmpty() ? "" : labels + ',';
+            long count = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                count += buckets[i].sum();
+                out.sample(name + "_bucket", prefix + "le=\"" + (double) (1L << (MIN_SHIFT + i)) / TimeUnit.SECONDS.toNanos(1) + '"', count);
+            }
+
+            count += buckets[BUCKETS].sum();
+            out.sample(name + "_bucket", prefix + "le=\"+Inf\"", count);
+            out.sample(name + "_sum", labels, sum.sum() / (double) TimeUnit.SECONDS.toNanos(1));
+            out.sample(name + "_count", labels, count);
+
+        }
+
+    }
+
+    /**
+     * Exposes every metric as a read-only attribute, named the same way as in
+     * a scrape, plus a scrape operation which returns the whole text
+     */
+    private class Bean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+
+            Double value = snapshot().get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+
+            return value;
+
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+
+            Map<String, Double> values = snapshot();
+            AttributeList list = new AttributeList();
+
+            for (String a : attributes) if (values.containsKey(a)) list.add(new Attribute(a, values.get(a)));
+
+            return list;
+
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+
+            if (actionName.equals("scrape") && (params == null || params.length == 0)) return scrape();
+
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+
+            // Channels come and go, so the attributes are listed fresh every time
+            Map<String, Double> values = snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+
+            int i = 0;
+            for (String a : values.keySet())
+                attributes[i++] = new MBeanAttributeInfo(a, Double.class.getName(), a, true, false, false);
+
+            return new MBeanInfo(
+                    C4Metrics.class.getName(),
+                    "Metrics for the Connect 4 bot",
+                    attributes,
+                    null,
+                    new MBeanOperationInfo[] {
+                            new MBeanOperationInfo("scrape", "Every metric in the Prometheus text format", new MBeanParameterInfo[0], String.class.getName(), MBeanOperationInfo.INFO)
+                    },
+                    null
+            );
+
+        }
+
+    }
+
+}
@@ -0,0 +1,446 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Queues every outgoing chat message and sends them within Twitch's rate
+ * limits. Each channel has its own queue, game-critical messages jump ahead
+ * of help and error text, and adjacent queued messages are merged into one
+ * chat message whenever they fit in {@link #MAX_LENGTH} characters. Channels
+ * with pending messages take turns, so one busy channel can't starve the rest
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Outbox {
+
+    /**
+     * The maximum length of a single Twitch chat message
+     */
+    public static final int MAX_LENGTH = 500;
+
+    /**
+     * The window Twitch's message limits are counted over, in seconds
+     */
+    private static final long RATE_WINDOW = 30;
+
+    /**
+     * How many messages a regular account may send per {@link #RATE_WINDOW}
+     */
+    private static final int RATE_USER = 20;
+
+    /**
+     * How many messages a moderator or broadcaster may send per {@link #RATE_WINDOW}
+     */
+    private static final int RATE_MODERATOR = 100;
+
+    /**
+     * How many recent error replies each channel remembers
+     */
+    private static final int MAX_RECENT_ERRORS = 64;
+
+    /**
+     * How important a message is. Queued {@link #GAME} messages are always
+     * sent before queued {@link #INFO} and {@link #ERROR} messages in the same channel
+     */
+    public enum Priority {
+
+        /**
+         * Messages which affect a game in progress, e.g. the board and turn prompts
+         */
+        GAME,
+
+        /**
+         * Help text and other replies
+         */
+        INFO,
+
+        /**
+         * Replies to mistakes. These are queued like {@link #INFO}, but an
+         * error which was already sent in the channel within the error window
+         * isn't sent again
+         */
+        ERROR
+
+    }
+
+    private final ConcurrentHashMap<String, ChannelQueue> queues = new ConcurrentHashMap<>();
+    private final BlockingQueue<ChannelQueue> ready = new LinkedBlockingQueue<>();
+
+    private final C4ChatSink sink;
+    private final Thread sender;
+    private final long errorWindow;
+    private volatile boolean running = true;
+
+    /**
+     * The most messages which may be sent in any {@link #RATE_WINDOW}, or 0 if there is no limit
+     */
+    private final int limit;
+
+    // When the last limit messages were sent, only touched by the sender thread
+    private final long[] sends;
+    private int next = 0;
+    private int filled = 0;
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+    private volatile long lastLatency = 0;
+
+    /**
+     * Creates and starts a new outbox
+     *
+     * @param sink Where to send messages
+     * @param moderator Whether or not the bot account is a moderator, which raises Twitch's rate limit
+     * @param errorWindow How long to hold back an error after it's been sent in a channel, in seconds
+     */
+    public C4Outbox(C4ChatSink sink, boolean moderator, int errorWindow) {
+        this(sink, moderator, errorWindow, r -> {
+            Thread t = new Thread(r, "C4-Outbox");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Creates and starts a new outbox which sends on a thread from the given factory
+     *
+     * @param sink Where to send messages
+     * @param moderator Whether or not the bot account is a moderator, which raises Twitch's rate limit
+     * @param errorWindow How long to hold back an error after it's been sent in a channel, in seconds
+     * @param threads Creates the sender thread, which must be a daemon
+     */
+    public C4Outbox(C4ChatSink sink, boolean moderator, int errorWindow, ThreadFactory threads) {
+
+        this.sink = sink;
+        this.errorWindow = TimeUnit.SECONDS.toNanos(errorWindow);
+        this.limit = moderator ? RATE_MODERATOR : RATE_USER;
+        this.sends = new long[limit];
+
+        this.sender = threads.newThread(this::run);
+        this.sender.start();
+
+    }
+
+    /**
+     * Creates an outbox which sends every message immediately on the calling
+     * thread, with no rate limiting, merging, or holding back errors. Only
+     * meant for running the bot without Twitch, e.g. in benchmarks
+     *
+     * @param sink Where to send messages
+     */
+    public C4Outbox(C4ChatSink sink) {
+
+        this.sink = sink;
+        this.errorWindow = 0;
+        this.limit = 0;
+        this.sends = null;
+        this.sender = null;
+
+    }
+
+    /**
+     * Queues a message to be sent in the given channel
+     *
+     * @param channel The channel to send the message in
+     * @param priority How important the message is
+     * @param message The message to send
+     */
+    public void send(String channel, Priority priority, String message) {
+
+        if (sender == null) {
+            sink.send(channel, message);
+            sent.incrementAndGet();
+            return;
+        }
+
+        ChannelQueue q = queues.computeIfAbsent(channel, ChannelQueue::new);
+        long now = System.nanoTime();
+        boolean wake;
+
+        synchronized (q) {
+
+            if (priority == Priority.ERROR && errorWindow > 0 && !q.allowError(message, now, errorWindow)) {
+                suppressed.incrementAndGet();
+                return;
+            }
+
+            depth.incrementAndGet();
+            q.get(priority).add(new Pending(message, now));
+            wake = !q.queued;
+            q.queued = true;
+        }
+
+        if (wake) ready.add(q);
+
+    }
+
+    /**
+     * Waits until every queued message has been sent, or the timeout passes
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of timeout
+     * @return true if the outbox was emptied
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (depth.get() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return depth.get() == 0;
+
+    }
+
+    /**
+     * Stops sending messages. Anything still queued is dropped
+     */
+    public void stop() {
+        running = false;
+        if (sender != null) sender.interrupt();
+    }
+
+    /**
+     * Gets the number of error replies which weren't sent because the same
+     * error had just been sent in the same channel
+     * @return The number of suppressed errors
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    /**
+     * Gets how often a message can be sent once the rate limit has been reached
+     * @return The time between sends at the sustained rate, in milliseconds, or 0 if there is no limit
+     */
+    public long getSendInterval() {
+        return limit == 0 ? 0 : (TimeUnit.SECONDS.toMillis(RATE_WINDOW) + limit - 1) / limit;
+    }
+
+    /**
+     * Gets the number of messages waiting to be sent, before merging
+     * @return The number of queued messages
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Gets the number of chat messages sent
+     * @return The number of messages sent to Twitch
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * Gets the number of queued messages which were merged into another message instead of being sent separately
+     * @return The number of messages saved by merging
+     */
+    public long getMerged() {
+        return merged.get();
+    }
+
+    /**
+     * Gets how long the most recently sent message waited in the queue
+     * @return The latency of the last message, in milliseconds
+     */
+    public long getLastLatency() {
+        return TimeUnit.NANOSECONDS.toMillis(lastLatency);
+    }
+
+    /**
+     * Gets the longest a message has waited in the queue
+     * @return The maximum latency, in milliseconds
+     */
+    public long getMaxLatency() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatency.get());
+    }
+
+    /**
+     * Gets the mean time messages waited in the queue
+     * @return The mean latency, in milliseconds
+     */
+    public double getMeanLatency() {
+        long n = sent.get();
+        return n == 0 ? 0 : totalLatency.get() / (double) n / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * The sender thread's main loop. Takes turns between channels with pending
+     * messages, sending one (merged) message from each whenever the rate limit allows
+     */
+    private void run() {
+
+        while (running) {
+
+            try {
+
+                ChannelQueue q = ready.take();
+                acquire();
+
+                StringBuilder msg = new StringBuilder();
+                long oldest;
+                int count = 0;
+
+                synchronized (q) {
+
+                    ArrayDeque<Pending> deque = q.game.isEmpty() ? q.info : q.game;
+                    Pending p = deque.poll();
+
+                    msg.append(p.message);
+                    oldest = p.enqueued;
+                    count++;
+
+                    // Merge the following messages while they fit
+                    while ((p = deque.peek()) != null && msg.length() + 1 + p.message.length() <= MAX_LENGTH) {
+                        deque.poll();
+                        msg.append(' ').append(p.message);
+                        count++;
+                    }
+
+                    if (q.game.isEmpty() && q.info.isEmpty()) q.queued = false;
+                    else ready.add(q);
+
+                }
+
+                try {
+                    sink.send(q.channel, msg.toString());
+                } catch (Exception e) {
+                    System.err.println("Failed to send message in " + q.channel + ": " + e);
+                }
+
+                long latency = System.nanoTime() - oldest;
+                lastLatency = latency;
+                maxLatency.accumulate(latency);
+                totalLatency.addAndGet(latency);
+                sent.incrementAndGet();
+                merged.addAndGet(count - 1);
+                depth.addAndGet(-count);
+
+            } catch (InterruptedException e) {
+                if (!running) break;
+            }
+
+        }
+
+    }
+
+    /**
+     * Blocks until a message can be sent without going over the rate limit,
+     * then counts it as sent. The limit is enforced over a sliding window: a
+     * message is only sent once the one sent limit messages before it is more
+     * than {@link #RATE_WINDOW} old, so no window ever holds more than the limit
+     * @throws InterruptedException If the outbox was stopped while waiting
+     */
+    private void acquire() throws InterruptedException {
+
+        long window = TimeUnit.SECONDS.toNanos(RATE_WINDOW);
+
+        while (true) {
+
+            long now = System.nanoTime();
+
+            // Once full, the next slot holds the oldest of the last limit sends
+            long wait = filled < sends.length ? 0 : sends[next] + window - now;
+
+            if (wait <= 0) {
+                sends[next] = now;
+                next = (next + 1) % sends.length;
+                if (filled < sends.length) filled++;
+                return;
+            }
+
+            TimeUnit.NANOSECONDS.sleep(wait);
+
+        }
+
+    }
+
+    /**
+     * A message waiting to be sent
+     */
+    private static class Pending {
+
+        private final String message;
+        private final long enqueued;
+
+        private Pending(String message, long enqueued) {
+            this.message = message;
+            this.enqueued = enqueued;
+        }
+
+    }
+
+    /**
+     * The pending messages for a single channel. Guarded by its own monitor
+     */
+    private static class ChannelQueue {
+
+        private final String channel;
+        private final ArrayDeque<Pending> game = new ArrayDeque<>();
+        private final ArrayDeque<Pending> info = new ArrayDeque<>();
+
+        /**
+         * Whether or not this queue is currently in {@link #ready} or being sent from
+         */
+        private boolean queued = false;
+
+        /**
+         * When each recent error was last let through, least recently seen first
+         */
+        private final LinkedHashMap<String, Long> errors = new LinkedHashMap<>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > MAX_RECENT_ERRORS;
+            }
+        };
+
+        private ChannelQueue(String channel) {
+            this.channel = channel;
+        }
+
+        private ArrayDeque<Pending> get(Priority priority) {
+            return priority == Priority.GAME ? game : info;
+        }
+
+        /**
+         * Checks whether an error can be sent, remembering it if so
+         *
+         * @param message The error
+         * @param now The current time, in nanoseconds
+         * @param window How long to hold back the same error, in nanoseconds
+         * @return false if the same error was let through within the window
+         */
+        private boolean allowError(String message, long now, long window) {
+
+            Long last = errors.get(message);
+            if (last != null && now - last < window) return false;
+
+            errors.put(message, now);
+            return true;
+
+        }
+
+    }
+
+}
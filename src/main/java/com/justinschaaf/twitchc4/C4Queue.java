@@ -0,0 +1,323 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The players in a channel waiting to be matched with an opponent of a
+ * similar rating. Players are kept in buckets of
+ * {@link C4Config#queueBucketSize} rating points, so finding the nearest
+ * opponent only looks through the buckets nearest to the player, stopping as
+ * soon as no bucket further out could hold anyone nearer or within reach,
+ * no matter how many are waiting.
+ *
+ * Each player will accept an opponent within {@link C4Config#queueWindow}
+ * points at first, and the window widens by {@link C4Config#queueWiden}
+ * points every second they wait. While anyone is waiting, the queue ticks on
+ * the shared {@link C4Timer}, pairing everyone it can and dropping whoever
+ * has waited longer than {@link C4Config#queueTimeout}.
+ *
+ * Like the rest of a channel's state, this must only be touched from within
+ * the channel's mailbox
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Queue {
+
+    private final C4Channel channel;
+
+    /**
+     * Every waiting player by their lowercased name, longest waiting first
+     */
+    private final LinkedHashMap<String, Waiting> waiting = new LinkedHashMap<>();
+
+    /**
+     * The waiting players by rating bucket, each longest waiting first. Empty buckets are removed
+     */
+    private final TreeMap<Integer, LinkedHashMap<String, Waiting>> buckets = new TreeMap<>();
+
+    /**
+     * The number of waiting players, which can be read from any thread
+     */
+    private volatile int size = 0;
+
+    private long ticks = 0;
+    private C4Timer.Timeout tick;
+
+    /**
+     * Creates an empty queue
+     * @param channel The channel this queue is in
+     */
+    public C4Queue(C4Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Adds a player to the queue, then pairs them straight away if someone
+     * within their window is already waiting
+     *
+     * @param user The player to add, who mustn't be waiting already
+     * @param rating The player's rating
+     */
+    public void join(String user, int rating) {
+
+        Waiting w = new Waiting(user, rating, bucket(rating), ticks);
+
+        waiting.put(key(user), w);
+        buckets.computeIfAbsent(w.bucket, b -> new LinkedHashMap<>()).put(key(user), w);
+        size = waiting.size();
+
+        pair(w);
+
+        if (tick == null && !waiting.isEmpty()) scheduleTick();
+
+    }
+
+    /**
+     * Takes a player out of the queue
+     *
+     * @param user The player to remove
+     * @return true if the player was waiting
+     */
+    public boolean leave(String user) {
+
+        Waiting w = waiting.get(key(user));
+        if (w == null) return false;
+
+        remove(w);
+
+        return true;
+
+    }
+
+    /**
+     * Whether or not a player is waiting
+     *
+     * @param user The player to check
+     * @return true if the player is in the queue
+     */
+    public boolean contains(String user) {
+        return waiting.containsKey(key(user));
+    }
+
+    /**
+     * Gets the number of waiting players. Safe to call from any thread
+     * @return The number of players in the queue
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops every waiting player without telling them and stops ticking,
+     * e.g. because the channel moved to another bot instance
+     */
+    public void clear() {
+
+        waiting.clear();
+        buckets.clear();
+        size = 0;
+
+        if (tick != null) tick.cancel();
+        tick = null;
+
+    }
+
+    /**
+     * Schedules the next tick in the channel's mailbox
+     */
+    private void scheduleTick() {
+        tick = TwitchC4
+                .getTimer()
+                .schedule(
+                        () -> TwitchC4.getCmds().submit(channel.getName(), this::tick),
+                        TwitchC4.getConfig().queueInterval,
+                        TimeUnit.SECONDS
+                );
+    }
+
+    /**
+     * Drops the players who have waited too long, then tries to pair
+     * everyone else, longest waiting first
+     */
+    private void tick() {
+
+        // The queue was cleared while this tick was on its way
+        if (tick == null) return;
+
+        ticks++;
+        long timeout = TwitchC4.getConfig().queueTimeout / TwitchC4.getConfig().queueInterval;
+
+        Iterator<Waiting> it = waiting.values().iterator();
+
+        while (it.hasNext()) {
+
+            Waiting w = it.next();
+            if (ticks - w.joined < timeout) break;
+
+            it.remove();
+            removeFromBucket(w);
+            C4Messages.send(channel.getName(), TwitchC4.getConfig().locQueueExpire, "%p%", w.user);
+
+        }
+
+        size = waiting.size();
+
+        for (Waiting w : new ArrayList<>(waiting.values())) if (!w.removed) pair(w);
+
+        if (waiting.isEmpty()) tick = null;
+        else scheduleTick();
+
+    }
+
+    /**
+     * Starts a game between the given player and the nearest rated player
+     * who's within either of their windows, if there is one
+     */
+    private void pair(Waiting w) {
+
+        // Only one game at a time, so everyone keeps waiting until it's over
+        if (!TwitchC4.getConfig().gameConcurrent && (channel.getGameCount() > 0 || channel.getChallengeCount() > 0)) return;
+
+        // Nobody's window is wider than that of whoever has waited longest
+        long reach = Math.max(window(w), window(waiting.values().iterator().next()));
+        int span = TwitchC4.getConfig().queueBucketSize;
+        Waiting best = null;
+
+        // Walk out from the player's bucket in both directions until a bucket's nearest rating is out of reach
+        for (Map.Entry<Integer, LinkedHashMap<String, Waiting>> e : buckets.headMap(w.bucket, true).descendingMap().entrySet()) {
+            long gap = (long) w.rating - ((long) e.getKey() * span + span - 1);
+            if (gap > reach || (best != null && gap > distance(w, best))) break;
+            best = nearest(w, best, e.getValue());
+        }
+
+        for (Map.Entry<Integer, LinkedHashMap<String, Waiting>> e : buckets.tailMap(w.bucket, false).entrySet()) {
+            long gap = (long) e.getKey() * span - w.rating;
+            if (gap > reach || (best != null && gap > distance(w, best))) break;
+            best = nearest(w, best, e.getValue());
+        }
+
+        if (best == null) return;
+
+        remove(w);
+        remove(best);
+
+        // Whoever waited longer goes first, unless the game picks at random
+        Waiting p1 = best.joined <= w.joined ? best : w;
+        Waiting p2 = p1 == w ? best : w;
+
+        channel.addGame(new C4Game(channel.getName(), p1.user, p2.user));
+
+    }
+
+    /**
+     * Picks whichever is nearer to the given player's rating: the best so far,
+     * or the nearest player in the bucket other than them who's within either
+     * of their windows. Ties go to whoever has waited longest
+     */
+    private Waiting nearest(Waiting w, Waiting best, LinkedHashMap<String, Waiting> bucket) {
+
+        for (Waiting other : bucket.values()) {
+
+            if (other == w) continue;
+
+            long gap = distance(w, other);
+            if (gap > Math.max(window(w), window(other))) continue;
+
+            if (best == null || gap < distance(w, best) || (gap == distance(w, best) && other.joined < best.joined))
+                best = other;
+
+        }
+
+        return best;
+
+    }
+
+    /**
+     * Gets how far apart two players' ratings are
+     */
+    private static long distance(Waiting a, Waiting b) {
+        return Math.abs((long) a.rating - b.rating);
+    }
+
+    /**
+     * Gets how far from their own rating the given player will accept an opponent
+     */
+    private long window(Waiting w) {
+        long seconds = (ticks - w.joined) * TwitchC4.getConfig().queueInterval;
+        return TwitchC4.getConfig().queueWindow + seconds * TwitchC4.getConfig().queueWiden;
+    }
+
+    /**
+     * Takes a player out of the queue and their bucket
+     */
+    private void remove(Waiting w) {
+
+        w.removed = true;
+        waiting.remove(key(w.user));
+        removeFromBucket(w);
+        size = waiting.size();
+
+    }
+
+    /**
+     * Takes a player out of their bucket, and drops the bucket if it's now empty
+     */
+    private void removeFromBucket(Waiting w) {
+
+        LinkedHashMap<String, Waiting> bucket = buckets.get(w.bucket);
+        if (bucket == null) return;
+
+        bucket.remove(key(w.user));
+        if (bucket.isEmpty()) buckets.remove(w.bucket);
+
+    }
+
+    /**
+     * Gets the bucket the given rating falls in
+     */
+    private static int bucket(int rating) {
+        return Math.floorDiv(rating, TwitchC4.getConfig().queueBucketSize);
+    }
+
+    /**
+     * Normalizes a username for use as an index key
+     */
+    private static String key(String user) {
+        return user.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A player waiting for an opponent
+     */
+    private static class Waiting {
+
+        private final String user;
+        private final int rating;
+        private final int bucket;
+
+        /**
+         * The tick the player joined on
+         */
+        private final long joined;
+
+        /**
+         * Set once the player has been paired or has left, so a tick skips them
+         */
+        private boolean removed = false;
+
+        private Waiting(String user, int rating, int bucket, long joined) {
+            this.user = user;
+            this.rating = rating;
+            this.bucket = bucket;
+            this.joined = joined;
+        }
+
+    }
+
+}
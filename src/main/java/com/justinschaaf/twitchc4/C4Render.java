@@ -0,0 +1,143 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Renders a game's board into chat messages, keeping each rendered row so a
+ * move only rebuilds the row its chip landed in. Rows are packed into as few
+ * messages as fit in {@link C4Outbox#MAX_LENGTH} characters, top row first;
+ * rows which are too long on their own are split between cells
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Render {
+
+    private final C4Board board;
+    private final String[] symbols;
+
+    /**
+     * The pieces of each row, from the bottom up. Each piece fits in a message on its own
+     */
+    private final String[][] rows;
+
+    /**
+     * How many moves had been made when the rows were last brought up to date, or -1 if they never were
+     */
+    private int moves = -1;
+
+    private List<String> messages;
+
+    /**
+     * Creates a render cache for the given board. Nothing is rendered until
+     * the first call to {@link #getMessages()}
+     *
+     * @param board The board to render
+     * @param empty The symbol for empty cells
+     * @param p1 The symbol for Player 1's chips
+     * @param p2 The symbol for Player 2's chips
+     */
+    public C4Render(C4Board board, String empty, String p1, String p2) {
+
+        this.board = board;
+        this.symbols = new String[3];
+        this.symbols[C4Board.EMPTY] = empty;
+        this.symbols[C4Board.P1] = p1;
+        this.symbols[C4Board.P2] = p2;
+        this.rows = new String[board.getHeight()][];
+
+    }
+
+    /**
+     * Gets the board as chat messages, rebuilding only the rows which changed
+     * since the last call. If exactly one move was made, that's the row of the
+     * last chip; otherwise, e.g. after the moves of a restored game were
+     * replayed, every row is rebuilt
+     *
+     * @return The messages, top row first, which mustn't be modified
+     */
+    public List<String> getMessages() {
+
+        int now = board.getMoves();
+
+        if (now == moves) return messages;
+
+        if (now == moves + 1 && board.getLastRow() >= 0) rows[board.getLastRow()] = renderRow(board.getLastRow());
+        else for (int row = 0; row < rows.length; row++) rows[row] = renderRow(row);
+
+        moves = now;
+        messages = pack();
+
+        return messages;
+
+    }
+
+    /**
+     * Gets the symbol used to render the given cell value
+     *
+     * @param cell The cell value from the board
+     * @return The symbol for the cell
+     */
+    public String getSymbol(int cell) {
+        return symbols[cell];
+    }
+
+    /**
+     * Renders a single row, split between cells wherever it would be too long for a message
+     */
+    private String[] renderRow(int row) {
+
+        List<String> pieces = new ArrayList<>(1);
+        StringBuilder piece = new StringBuilder();
+
+        for (int col = 0; col < board.getWidth(); col++) {
+
+            String symbol = symbols[board.get(col, row)];
+
+            if (piece.length() + symbol.length() > C4Outbox.MAX_LENGTH) {
+                pieces.add(piece.toString());
+                piece.setLength(0);
+            }
+
+            piece.append(symbol);
+
+        }
+
+        pieces.add(piece.toString());
+
+        return pieces.toArray(new String[0]);
+
+    }
+
+    /**
+     * Joins the rows with spaces, starting a new message whenever the next piece wouldn't fit
+     */
+    private List<String> pack() {
+
+        List<String> out = new ArrayList<>();
+        StringBuilder msg = new StringBuilder(C4Outbox.MAX_LENGTH);
+
+        for (int row = rows.length - 1; row >= 0; row--) {
+
+            for (String piece : rows[row]) {
+
+                if (msg.length() > 0 && msg.length() + 1 + piece.length() > C4Outbox.MAX_LENGTH) {
+                    out.add(msg.toString());
+                    msg.setLength(0);
+                }
+
+                if (msg.length() > 0) msg.append(' ');
+                msg.append(piece);
+
+            }
+
+        }
+
+        if (msg.length() > 0) out.add(msg.toString());
+
+        return Collections.unmodifiableList(out);
+
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Assigns channels to bot instances by consistent hashing. Each instance is
+ * placed on a ring of 64-bit hashes at several points, and each channel
+ * belongs to the first instance at or after its own hash. When an instance
+ * joins or leaves, only the channels next to its points move, about 1/N of
+ * them, rather than nearly all of them as with a plain modulo.
+ *
+ * Rings are immutable, and every instance which sees the same members builds
+ * the same ring
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Ring {
+
+    private final Set<String> members;
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * Builds a ring
+     *
+     * @param members The names of every live instance
+     * @param replicas How many points each instance gets. More points spread the channels more evenly
+     */
+    public C4Ring(Collection<String> members, int replicas) {
+
+        this.members = Collections.unmodifiableSet(new TreeSet<>(members));
+
+        TreeMap<Long, String> ring = new TreeMap<>();
+
+        // Members are added in sorted order so every instance settles hash collisions the same way
+        for (String m : this.members)
+            for (int i = 0; i < replicas; i++) ring.putIfAbsent(hash(m + '#' + i), m);
+
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+
+        int i = 0;
+
+        for (Map.Entry<Long, String> e : ring.entrySet()) {
+            points[i] = e.getKey();
+            owners[i] = e.getValue();
+            i++;
+        }
+
+    }
+
+    /**
+     * Finds the instance a channel belongs to
+     *
+     * @param channel The channel's name, in any case
+     * @return The name of the instance, or null if the ring is empty
+     */
+    public String owner(String channel) {
+
+        if (points.length == 0) return null;
+
+        int i = Arrays.binarySearch(points, hash(channel.toLowerCase(Locale.ROOT)));
+        if (i < 0) i = -i - 1;
+
+        // Past the last point wraps around to the first
+        return owners[i == points.length ? 0 : i];
+
+    }
+
+    /**
+     * Gets the instances on this ring
+     * @return Every member's name, sorted
+     */
+    public Set<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * Hashes a string onto the ring
+     */
+    private static long hash(String s) {
+
+        long h = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        // FNV alone leaves similar names close together, so spread the bits
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+
+    }
+
+}
@@ -0,0 +1,383 @@
+package com.justinschaaf.twitchc4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits the channels between several instances of the bot. Every heartbeat,
+ * each instance announces itself to the {@link C4Coordinator}, builds a
+ * {@link C4Ring} from every live member, and joins the channels which are now
+ * its own and leaves the ones which aren't. The games and challenges in a
+ * channel it leaves are handed over to the new owner, which resumes them with
+ * whatever time their turns had left
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Shard {
+
+    /**
+     * How long to wait for a channel's mailbox to hand over its state, in seconds
+     */
+    private static final long RELEASE_TIMEOUT = 10;
+
+    private final String instance;
+    private final C4Coordinator coordinator;
+    private final int replicas;
+    private final Set<String> channels = new HashSet<>();
+    private final Host host;
+
+    /**
+     * The channels this instance currently owns. Read from any thread
+     */
+    private final Set<String> owned = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Handovers which couldn't be left with the coordinator yet, retried every heartbeat
+     */
+    private final Map<String, List<byte[]>> unsent = new LinkedHashMap<>();
+
+    private volatile C4Ring ring;
+
+    private Thread heartbeat;
+    private volatile boolean running = false;
+
+    /**
+     * Creates a shard. Nothing is joined until the first {@link #rebalance()}
+     *
+     * @param instance The name of this instance, unique among every instance
+     * @param coordinator Where the instances find each other
+     * @param replicas How many points each instance gets on the ring
+     * @param channels Every channel, across all instances
+     * @param host Joins and leaves channels, and hands their state over
+     */
+    public C4Shard(String instance, C4Coordinator coordinator, int replicas, Collection<String> channels, Host host) {
+
+        this.instance = instance;
+        this.coordinator = coordinator;
+        this.replicas = replicas;
+        this.host = host;
+
+        for (String c : channels) this.channels.add(c.toLowerCase(Locale.ROOT));
+
+    }
+
+    /**
+     * Takes this instance's channels, then keeps them up to date every heartbeat on a background thread
+     *
+     * @param interval The time between heartbeats
+     * @param unit The unit of interval
+     */
+    public void start(long interval, TimeUnit unit) {
+
+        try {
+            rebalance();
+        } catch (IOException e) {
+            System.err.println("Unable to reach the shard coordinator, retrying in " + interval + " " + unit + ": " + e);
+        }
+
+        running = true;
+
+        heartbeat = new Thread(() -> {
+
+            while (running) {
+
+                try {
+                    unit.sleep(interval);
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                try {
+                    rebalance();
+                } catch (IOException e) {
+                    // Keep the channels we have until the coordinator is back
+                    System.err.println("Unable to reach the shard coordinator: " + e);
+                }
+
+            }
+
+        }, "C4-Shard");
+
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+
+    }
+
+    /**
+     * Heartbeats, then moves channels to match the current members and takes
+     * over any state handed to this instance
+     *
+     * @throws IOException If the coordinator can't be reached
+     */
+    public synchronized void rebalance() throws IOException {
+
+        coordinator.join(instance);
+
+        Set<String> members = coordinator.getMembers();
+        members.add(instance);
+
+        if (ring == null || !ring.getMembers().equals(members)) ring = new C4Ring(members, replicas);
+
+        for (String c : channels) {
+
+            boolean mine = instance.equals(ring.owner(c));
+
+            if (mine && owned.add(c)) host.acquire(c);
+            else if (!mine && owned.remove(c)) release(c);
+
+        }
+
+        flush();
+
+        for (String c : coordinator.getHandovers())
+            if (owned.contains(c))
+                coordinator.takeOver(c, state -> host.restore(c, state));
+
+    }
+
+    /**
+     * Stops heartbeating, hands every channel over, and leaves the coordinator
+     * so the other instances take them over straight away
+     */
+    public void stop() {
+
+        running = false;
+
+        if (heartbeat != null) {
+
+            heartbeat.interrupt();
+
+            try {
+                heartbeat.join(TimeUnit.SECONDS.toMillis(RELEASE_TIMEOUT));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+        }
+
+        synchronized (this) {
+
+            for (String c : new ArrayList<>(owned)) {
+                owned.remove(c);
+                release(c);
+            }
+
+            try {
+                flush();
+                coordinator.leave(instance);
+            } catch (IOException e) {
+                System.err.println("Unable to leave the shard coordinator: " + e);
+            }
+
+            if (!unsent.isEmpty()) System.err.println("Failed to hand over " + unsent.size() + " channels, their games are lost");
+
+        }
+
+    }
+
+    /**
+     * Leaves a channel and queues its state to be handed over
+     */
+    private void release(String channel) {
+
+        byte[] state = host.release(channel);
+        if (state != null) unsent.computeIfAbsent(channel, c -> new ArrayList<>()).add(state);
+
+    }
+
+    /**
+     * Leaves every queued handover with the coordinator
+     */
+    private void flush() throws IOException {
+
+        Iterator<Map.Entry<String, List<byte[]>>> it = unsent.entrySet().iterator();
+
+        while (it.hasNext()) {
+
+            Map.Entry<String, List<byte[]>> e = it.next();
+            Iterator<byte[]> states = e.getValue().iterator();
+
+            while (states.hasNext()) {
+                coordinator.handOver(e.getKey(), states.next());
+                states.remove();
+            }
+
+            it.remove();
+
+        }
+
+    }
+
+    /**
+     * Whether or not this instance currently owns a channel. Safe to call from any thread
+     *
+     * @param channel The channel's name, in any case
+     * @return true if this instance should handle the channel's commands
+     */
+    public boolean owns(String channel) {
+        return owned.contains(channel) || owned.contains(channel.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets the channels this instance currently owns
+     * @return The owned channels' names, lowercased
+     */
+    public Set<String> getChannels() {
+        return Collections.unmodifiableSet(owned);
+    }
+
+    /**
+     * Gets the ring as of the last heartbeat
+     * @return The ring, or null before the first heartbeat
+     */
+    public C4Ring getRing() {
+        return ring;
+    }
+
+    /**
+     * Gets the name of this instance
+     * @return The name of this instance
+     */
+    public String getInstance() {
+        return instance;
+    }
+
+    /**
+     * What a shard does when a channel moves
+     */
+    public interface Host {
+
+        /**
+         * Starts handling a channel
+         * @param channel The channel's name, lowercased
+         */
+        void acquire(String channel);
+
+        /**
+         * Stops handling a channel, and captures its state
+         *
+         * @param channel The channel's name, lowercased
+         * @return The channel's state, or null if there was nothing to hand over
+         */
+        byte[] release(String channel);
+
+        /**
+         * Resumes the state another instance handed over
+         *
+         * @param channel The channel's name, lowercased
+         * @param state The state from {@link #release(String)}
+         * @return false if the state couldn't be read, so it should be kept aside
+         */
+        boolean restore(String channel, byte[] state);
+
+    }
+
+    /**
+     * Moves channels in this bot: joins and leaves them in Twitch chat, and
+     * hands games and challenges over through {@link C4Journal#handOver(C4Channel)}
+     */
+    public static class Bot implements Host {
+
+        @Override
+        public void acquire(String channel) {
+            if (TwitchC4.getClient() != null) TwitchC4.getClient().getChat().joinChannel(channel);
+        }
+
+        @Override
+        public byte[] release(String channel) {
+
+            if (TwitchC4.getClient() != null) TwitchC4.getClient().getChat().leaveChannel(channel);
+
+            C4Channel c = TwitchC4.getCmds().getChannel(channel);
+
+            try {
+                return CompletableFuture.supplyAsync(() -> suspend(c), c).get(RELEASE_TIMEOUT, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                System.err.println("Failed to hand over channel " + channel + ": " + e);
+                return null;
+            }
+
+        }
+
+        /**
+         * Captures a channel's state, then stops everything in it without
+         * announcing anything. Runs in the channel's mailbox
+         */
+        private static byte[] suspend(C4Channel c) {
+
+            // The queue and tournament aren't handed over, only the games in them
+            c.getQueue().clear();
+            if (c.getTournament() != null) c.getTournament().abandon();
+
+            if (c.getGameCount() == 0 && c.getChallengeCount() == 0) return null;
+
+            byte[] state = C4Journal.handOver(c);
+
+            for (C4Challenge challenge : new ArrayList<>(c.getChallenges())) challenge.cancel();
+            for (C4Game game : new ArrayList<>(c.getGames())) game.suspend();
+
+            return state;
+
+        }
+
+        @Override
+        public boolean restore(String channel, byte[] state) {
+
+            C4Journal.State s;
+
+            try {
+                s = TwitchC4.getJournal().takeOver(state);
+            } catch (IOException e) {
+                System.err.println("Unable to take over the games in channel " + channel + ": " + e);
+                return false;
+            }
+
+            TwitchC4.getCmds().submit(channel, () -> {
+
+                C4Channel c = TwitchC4.getCmds().getChannel(channel);
+
+                // Players may have started something new here while their old games were on the way
+                for (C4Journal.SavedChallenge saved : s.getChallenges()) {
+
+                    if (c.findChallenge(saved.from) != null || c.findGame(saved.from) != null) continue;
+
+                    C4Challenge challenge = new C4Challenge(saved);
+                    c.addChallenge(challenge);
+                    TwitchC4.getJournal().challenge(challenge);
+
+                }
+
+                for (C4Journal.SavedGame saved : s.getGames()) {
+
+                    if (c.findGame(saved.p1) != null || c.findGame(saved.p2) != null) continue;
+
+                    C4Game game = new C4Game(saved);
+
+                    if (!game.isOver()) {
+                        c.addGame(game);
+                        TwitchC4.getJournal().adopt(game);
+                    }
+
+                }
+
+            });
+
+            return true;
+
+        }
+
+    }
+
+}
@@ -1,5 +1,10 @@
 package com.justinschaaf.twitchc4;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Tasks to perform whenever the bot shuts down
  *
@@ -8,29 +13,92 @@ package com.justinschaaf.twitchc4;
 public class C4Shutdown extends Thread {
 
     /**
-     * Cancels all currently pending challenges and all ongoing games
+     * How long to wait for every channel's mailbox to finish cancelling, and
+     * then for the outbox to empty, in seconds
+     */
+    private static final long TIMEOUT = 10;
+
+    /**
+     * Saves or cancels all currently pending challenges and all ongoing
+     * games, then stops the shared timer, outbox, metrics, and API
      */
     @Override
     public void run() {
 
+        // Hand every channel to the other instances first, so only what's left is saved or cancelled here
+        if (TwitchC4.getShard() != null) TwitchC4.getShard().stop();
+
+        if (TwitchC4.getJournal().isEnabled()) save();
+        else cancelAll();
+
+        // Give the goodbye messages a chance to make it out
+        TwitchC4.getOutbox().flush(TIMEOUT, TimeUnit.SECONDS);
+
+        TwitchC4.getStats().close();
+        TwitchC4.getArchive().close();
+        TwitchC4.getTimer().stop();
+        TwitchC4.getOutbox().stop();
+        TwitchC4.getMetrics().stop();
+        if (TwitchC4.getApi() != null) TwitchC4.getApi().stop();
+
+    }
+
+    /**
+     * Writes a final snapshot so every game carries on when the bot starts again
+     */
+    private void save() {
+
+        try {
+            TwitchC4.getJournal().snapshot();
+        } catch (Exception e) {
+            System.err.println("Failed to write a snapshot before shutting down, games will be restored from the log: " + e);
+        }
+
+        TwitchC4.getJournal().close();
+
+    }
+
+    /**
+     * Cancels every challenge and game in every channel
+     */
+    private void cancelAll() {
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+
+        // Each channel cancels its own games from within its mailbox
+        for (C4Channel c : TwitchC4.getCmds().getChannels())
+            tasks.add(CompletableFuture.runAsync(() -> cancel(c), c));
+
+        try {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).get(TIMEOUT, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            System.err.println("Failed to cancel every game before shutting down: " + e);
+        }
+
+    }
+
+    /**
+     * Cancels the pending challenges and ongoing games in the given channel
+     * @param channel The channel to cancel everything in
+     */
+    private void cancel(C4Channel channel) {
+
         // Cancel any current challenges
-        for (String u : TwitchC4.getCmds().CHALLENGES.keySet())
-            for (C4Challenge c : TwitchC4.getCmds().CHALLENGES.get(u)) {
+        for (C4Challenge c : new ArrayList<>(channel.getChallenges())) {
 
-                C4Messages.send(u, TwitchC4.getConfig().locShutdownCancelChallenge, "%f%", c.getFrom());
-                c.cancel();
+            C4Messages.send(channel.getName(), TwitchC4.getConfig().locShutdownCancelChallenge, "%f%", c.getFrom());
+            c.cancel();
 
-            }
+        }
 
         // Cancel any current games
-        for (String u : TwitchC4.getCmds().GAMES.keySet())
-            for (C4Game g : TwitchC4.getCmds().GAMES.get(u)) {
+        for (C4Game g : new ArrayList<>(channel.getGames())) {
 
-                String[] p = g.getPlayers();
-                C4Messages.send(u, TwitchC4.getConfig().locShutdownCancelGame, "%p1%", p[0], "%p2%", p[1]);
-                g.endGame(null);
+            String[] p = g.getPlayers();
+            C4Messages.send(channel.getName(), TwitchC4.getConfig().locShutdownCancelGame, "%p1%", p[0], "%p2%", p[1]);
+            g.cancel();
 
-            }
+        }
 
     }
 
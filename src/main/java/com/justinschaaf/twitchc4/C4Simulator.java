@@ -0,0 +1,462 @@
+package com.justinschaaf.twitchc4;
+
+import com.github.twitch4j.common.enums.CommandPermission;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Plays games as fast as possible without Twitch, for stress testing and
+ * fuzzing the game rules. Each thread plays its own channels through
+ * {@link C4Commands} exactly as chat would, on a virtual clock of its own so
+ * turn timeouts can be skipped instead of waited for without touching any
+ * other thread's games. Every move is checked
+ * against a shadow board, and every win against the full board scan in
+ * {@link C4Game#getWinner()}.
+ * Usage: java -cp TwitchC4-1.0.jar com.justinschaaf.twitchc4.C4Simulator [random/engine] [threads] [seconds] [board] [depth]
+ *
+ * Exits with status 1 if any inconsistency was found
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Simulator {
+
+    private static final Set<CommandPermission> PERMS = Set.of(CommandPermission.EVERYONE);
+
+    private static final int CHANNELS_PER_THREAD = 16;
+    private static final int PLAYERS_PER_CHANNEL = 8;
+
+    /**
+     * The chance of a player not moving until their turn times out, per game
+     */
+    private static final double AFK_CHANCE = .01;
+
+    /**
+     * The chance of a player forfeiting, per game
+     */
+    private static final double FORFEIT_CHANCE = .02;
+
+    /**
+     * The chance of sending an invalid command before each move
+     */
+    private static final double INVALID_CHANCE = .05;
+
+    /**
+     * The most time the engine gets for a move, however deep it's allowed to look
+     */
+    private static final long ENGINE_MILLIS = 1000;
+
+    /**
+     * How many inconsistencies are described before the rest are only counted
+     */
+    private static final int MAX_REPORTED = 10;
+
+    private final boolean engine;
+    private final int depth;
+    private final long tickMillis;
+    private final long timeoutMillis;
+
+    /**
+     * Measures how much each simulating thread allocates, or null if the JVM can't
+     */
+    private final com.sun.management.ThreadMXBean alloc;
+
+    private volatile boolean running = true;
+
+    private final LongAdder games = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder wins = new LongAdder();
+    private final LongAdder draws = new LongAdder();
+    private final LongAdder forfeits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final AtomicInteger inconsistencies = new AtomicInteger();
+
+    /**
+     * Each simulating thread's virtual clock, which the bot schedules that thread's timeouts on
+     */
+    private final ThreadLocal<C4Timer> clocks = new ThreadLocal<>();
+    private final Queue<C4Timer> timers = new ConcurrentLinkedQueue<>();
+
+    public static void main(String[] args) throws Exception {
+
+        String mode = args.length > 0 ? args[0] : "random";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String[] size = (args.length > 3 ? args[3] : "7x6").split("x");
+        int depth = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+
+        C4Config cfg = new C4Config();
+        cfg.gameWhileOnline = true;
+        cfg.gameWhileOffline = true;
+        cfg.cmdUserCooldown = 0;
+        cfg.gameBoardWidth = Integer.parseInt(size[0]);
+        cfg.gameBoardHeight = Integer.parseInt(size[1]);
+
+        C4Simulator sim = new C4Simulator(cfg, mode.equalsIgnoreCase("engine"), depth);
+        int failures = sim.run(threads, seconds);
+
+        TwitchC4.getEngine().shutdown();
+        TwitchC4.getTimer().stop();
+
+        System.exit(failures > 0 ? 1 : 0);
+
+    }
+
+    /**
+     * Sets up the bot headless, with a virtual clock for each simulating thread
+     *
+     * @param cfg The config to run the bot with
+     * @param engine true to pick every move with the {@link C4Engine}, false to pick them at random
+     * @param depth How many moves the engine looks ahead
+     */
+    public C4Simulator(C4Config cfg, boolean engine, int depth) {
+
+        this.engine = engine;
+        this.depth = depth;
+        this.tickMillis = 100;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(cfg.gameTimer);
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        this.alloc = bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) bean
+                : null;
+
+        TwitchC4.loadHeadless(cfg, (channel, message) -> messages.increment(), new C4Timer(tickMillis, TimeUnit.MILLISECONDS, 512));
+        TwitchC4.setThreadTimers(clocks);
+
+    }
+
+    /**
+     * Plays games on the given number of threads, printing progress every second
+     *
+     * @param threads The number of threads to play on
+     * @param seconds How long to play for
+     * @return The number of inconsistencies found
+     * @throws InterruptedException If interrupted while waiting for the threads to finish
+     */
+    public int run(int threads, int seconds) throws InterruptedException {
+
+        System.out.printf(
+                "Simulating %s games on %d threads for %ds%n",
+                engine ? "engine" : "random",
+                threads,
+                seconds
+        );
+
+        List<Thread> workers = new ArrayList<>(threads);
+
+        for (int i = 0; i < threads; i++) {
+            int id = i;
+            Thread t = new Thread(() -> work(id), "C4-Simulator-" + i);
+            t.setDaemon(true);
+            workers.add(t);
+        }
+
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+
+        long lastGames = 0;
+        long lastMoves = 0;
+
+        for (int s = 1; s <= seconds; s++) {
+
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, start + TimeUnit.SECONDS.toNanos(s) - System.nanoTime()));
+
+            long g = games.sum();
+            long m = moves.sum();
+
+            System.out.printf("%4ds: %,d games/s, %,d moves/s%n", s, g - lastGames, m - lastMoves);
+
+            lastGames = g;
+            lastMoves = m;
+
+        }
+
+        running = false;
+        for (Thread t : workers) t.join();
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long g = games.sum();
+
+        System.out.printf("Games: %,d (%,.0f/s, %,.0f/min)%n", g, g / elapsed, g / elapsed * 60);
+        System.out.printf("Moves: %,d (%,.0f/s)%n", moves.sum(), moves.sum() / elapsed);
+        System.out.printf(
+                "Results: %,d wins, %,d draws, %,d forfeits, %,d timeouts%n",
+                wins.sum(), draws.sum(), forfeits.sum(), timeouts.sum()
+        );
+        System.out.printf("Messages: %,d (%,.0f/s)%n", messages.sum(), messages.sum() / elapsed);
+        long fired = 0;
+        long pending = 0;
+
+        for (C4Timer t : timers) {
+            fired += t.getFired();
+            pending += t.getPending();
+            t.stop();
+        }
+
+        System.out.printf("Timer: %,d timeouts fired, %,d pending%n", fired, pending);
+
+        if (alloc != null) System.out.printf(
+                "Allocated: %,.1f MB/s, %,.0f bytes/game (simulating threads only)%n",
+                allocated.sum() / elapsed / (1 << 20),
+                g == 0 ? 0 : allocated.sum() / (double) g
+        );
+        else System.out.println("Allocated: unsupported by this JVM");
+
+        System.out.printf("Inconsistencies: %d%n", inconsistencies.get());
+
+        return inconsistencies.get();
+
+    }
+
+    /**
+     * A simulating thread's main loop. Takes turns between its channels,
+     * playing one game at a time in each with a random pair of players
+     *
+     * @param id The index of this thread
+     */
+    private void work(int id) {
+
+        long thread = Thread.currentThread().getId();
+        long before = alloc != null ? alloc.getThreadAllocatedBytes(thread) : 0;
+
+        SplittableRandom random = new SplittableRandom(id);
+
+        C4Timer timer = new C4Timer(tickMillis, TimeUnit.MILLISECONDS, 512);
+        clocks.set(timer);
+        timers.add(timer);
+
+        String[] channels = new String[CHANNELS_PER_THREAD];
+        for (int i = 0; i < channels.length; i++) channels[i] = "sim" + id + "_" + i;
+
+        String[] players = new String[PLAYERS_PER_CHANNEL];
+        for (int i = 0; i < players.length; i++) players[i] = "player" + i;
+
+        for (int n = 0; running; n++) {
+
+            int a = random.nextInt(players.length);
+            int b = (a + 1 + random.nextInt(players.length - 1)) % players.length;
+
+            try {
+                play(channels[n % channels.length], players[a], players[b], random, timer);
+            } catch (Exception e) {
+                fail("Game in " + channels[n % channels.length] + " threw " + e);
+            }
+
+            // Keep the clock ticking so cancelled timeouts are cleaned up
+            timer.advance(tickMillis, TimeUnit.MILLISECONDS);
+
+        }
+
+        if (alloc != null) allocated.add(alloc.getThreadAllocatedBytes(thread) - before);
+
+    }
+
+    /**
+     * Plays a single game through chat commands, checking every move
+     *
+     * @param channel The channel to play in
+     * @param a The player sending the challenge
+     * @param b The player accepting it
+     * @param random The random source for moves and mistakes
+     * @param timer This thread's virtual clock
+     */
+    private void play(String channel, String a, String b, SplittableRandom random, C4Timer timer) {
+
+        C4Commands cmds = TwitchC4.getCmds();
+        int length = TwitchC4.getConfig().gameConnectLength;
+
+        cmds.handle(channel, a, PERMS, "c4!play " + b);
+        cmds.handle(channel, b, PERMS, "c4!play " + a);
+
+        C4Game game = inspect(channel, () -> cmds.getChannel(channel).findGame(a));
+
+        if (game == null) {
+            fail(channel + ": the challenge from " + a + " to " + b + " didn't start a game");
+            cmds.handle(channel, b, PERMS, "c4!forfeit");
+            return;
+        }
+
+        games.increment();
+
+        C4Board shadow = C4Board.create(TwitchC4.getConfig().gameBoardWidth, TwitchC4.getConfig().gameBoardHeight);
+        String p1 = game.getPlayer(C4Board.P1);
+
+        boolean afk = random.nextDouble() < AFK_CHANCE;
+        boolean forfeit = !afk && random.nextDouble() < FORFEIT_CHANCE;
+        int stopAt = afk || forfeit ? random.nextInt(shadow.getWidth() * shadow.getHeight()) : -1;
+
+        // Why the game should have ended, once it has
+        String expected = null;
+
+        while (true) {
+
+            Turn turn = inspect(channel, () -> new Turn(game));
+
+            if (turn.moves != shadow.getMoves() || turn.hash != shadow.getHash()) {
+                fail(channel + ": the board diverged after " + shadow.getMoves() + " moves");
+                cmds.handle(channel, turn.player, PERMS, "c4!forfeit");
+                return;
+            }
+
+            if (turn.over) break;
+
+            if (expected != null) {
+                fail(channel + ": the game should have ended (" + expected + ") after " + shadow.getMoves() + " moves");
+                cmds.handle(channel, turn.player, PERMS, "c4!forfeit");
+                return;
+            }
+
+            if (turn.winner != C4Board.EMPTY) fail(channel + ": the game carried on after a win");
+
+            int player = turn.player.equals(p1) ? C4Board.P1 : C4Board.P2;
+            String other = turn.player.equals(a) ? b : a;
+
+            if (shadow.getMoves() == stopAt) {
+
+                if (forfeit) {
+                    cmds.handle(channel, turn.player, PERMS, "c4!forfeit");
+                    expected = "forfeit";
+                } else {
+                    timer.advance(timeoutMillis + tickMillis, TimeUnit.MILLISECONDS);
+                    expected = "timeout";
+                }
+
+                continue;
+
+            }
+
+            // None of these should change the board, which the next turn checks
+            if (random.nextDouble() < INVALID_CHANCE) {
+                cmds.handle(channel, other, PERMS, "c4!put " + (1 + random.nextInt(shadow.getWidth())));
+                cmds.handle(channel, turn.player, PERMS, "c4!put " + (random.nextBoolean() ? 0 : shadow.getWidth() + 1));
+                cmds.handle(channel, turn.player, PERMS, "c4!put x");
+                for (int col = 0; col < shadow.getWidth(); col++)
+                    if (!shadow.canPlay(col)) cmds.handle(channel, turn.player, PERMS, "c4!put " + (col + 1));
+            }
+
+            int col = engine
+                    ? TwitchC4.getEngine().analyse(shadow, player, ENGINE_MILLIS, depth).join().getColumn()
+                    : randomColumn(shadow, random);
+
+            cmds.handle(channel, turn.player, PERMS, "c4!put " + (col + 1));
+            moves.increment();
+
+            int row = shadow.play(col, player);
+
+            if (shadow.isWin(col, row, length)) expected = "win";
+            else if (shadow.isFull()) expected = "draw";
+
+        }
+
+        // The game is over, so its board won't change any more
+        int winner = game.getWinner();
+
+        if (expected == null) fail(channel + ": the game ended early after " + shadow.getMoves() + " moves");
+        else if (expected.equals("win")) {
+
+            if (winner != shadow.get(shadow.getLastColumn(), shadow.getLastRow()))
+                fail(channel + ": the last move won, but the full scan found winner " + winner);
+            else wins.increment();
+
+        } else if (winner != C4Board.EMPTY) {
+            fail(channel + ": the game ended by " + expected + ", but the full scan found winner " + winner);
+        } else if (expected.equals("draw")) draws.increment();
+        else if (expected.equals("forfeit")) forfeits.increment();
+        else timeouts.increment();
+
+        checkFree(channel, a, b);
+
+    }
+
+    /**
+     * Checks that neither player is still in a game once theirs has ended
+     */
+    private void checkFree(String channel, String a, String b) {
+
+        C4Channel c = TwitchC4.getCmds().getChannel(channel);
+        boolean free = inspect(channel, () -> c.findGame(a) == null && c.findGame(b) == null);
+
+        if (!free) fail(channel + ": " + a + " or " + b + " was still in a game after it ended");
+
+    }
+
+    /**
+     * Picks a random column which isn't full
+     */
+    private static int randomColumn(C4Board board, SplittableRandom random) {
+
+        int col = random.nextInt(board.getWidth());
+        while (!board.canPlay(col)) col = (col + 1) % board.getWidth();
+
+        return col;
+
+    }
+
+    /**
+     * Reads a channel's state from within its mailbox
+     *
+     * @param channel The channel to read
+     * @param read What to read
+     * @return Whatever was read
+     */
+    private static <T> T inspect(String channel, Supplier<T> read) {
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        TwitchC4.getCmds().submit(channel, () -> {
+            try {
+                result.complete(read.get());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result.join();
+
+    }
+
+    /**
+     * Records an inconsistency, describing the first few
+     * @param message What went wrong
+     */
+    private void fail(String message) {
+        if (inconsistencies.incrementAndGet() <= MAX_REPORTED) System.err.println("Inconsistency: " + message);
+    }
+
+    /**
+     * A game's state at the start of a turn
+     */
+    private static class Turn {
+
+        private final boolean over;
+        private final String player;
+        private final int moves;
+        private final long hash;
+        private final int winner;
+
+        private Turn(C4Game game) {
+            this.over = game.isOver();
+            this.player = game.getPlayerTurn();
+            this.moves = game.getBoard().getMoves();
+            this.hash = game.getBoard().getHash();
+            this.winner = over ? C4Board.EMPTY : game.getWinner();
+        }
+
+    }
+
+}
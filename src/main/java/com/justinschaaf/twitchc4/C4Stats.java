@@ -0,0 +1,551 @@
+package com.justinschaaf.twitchc4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps every player's wins, losses, draws, and Elo rating, both in each
+ * channel and across every channel. Everything is held in memory, with each
+ * scope's players also kept sorted by rating so the leaderboard is read off
+ * the front of a tree rather than sorted on demand.
+ *
+ * Every change is appended to a log file as the player's full, updated
+ * record, so loading the file just keeps the last record for each player.
+ * Once the log is mostly superseded records it's compacted down to one record
+ * per player
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Stats {
+
+    /**
+     * The scope holding every player's stats across all channels
+     */
+    public static final String GLOBAL = "*";
+
+    /**
+     * The rating every player starts with
+     */
+    public static final int INITIAL_RATING = 1200;
+
+    /**
+     * How far a rating can move in a single game
+     */
+    private static final double K = 32;
+
+    /**
+     * The log isn't compacted until it has at least this many records
+     */
+    private static final int COMPACT_MIN = 1024;
+
+    private static final int MAX_RECORD = 1 << 16;
+
+    /**
+     * How long to wait before writing a failed batch again, in milliseconds
+     */
+    private static final long RETRY_DELAY = 1000;
+
+    private static final Comparator<Entry> BY_RATING = Comparator
+            .comparingInt((Entry e) -> -e.rating)
+            .thenComparing(e -> e.key);
+
+    private final ConcurrentHashMap<String, Scope> scopes = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private volatile boolean running = false;
+
+    /**
+     * The number of records in the log file. Only touched by the writer thread once started
+     */
+    private long records = 0;
+
+    /**
+     * Where the last intact record in the log file ends. Only touched by the writer thread once started
+     */
+    private long size = 0;
+
+    /**
+     * Creates stats which are only kept in memory
+     */
+    public C4Stats() {
+        this.file = null;
+    }
+
+    /**
+     * Creates stats which are stored in the given file, loading whatever is already there
+     *
+     * @param file The log file to store stats in
+     * @throws IOException If the file exists but can't be read
+     */
+    public C4Stats(Path file) throws IOException {
+
+        this.file = file;
+
+        if (Files.exists(file)) {
+            load();
+            truncate();
+        } else if (file.getParent() != null) Files.createDirectories(file.getParent());
+
+        running = true;
+        writer = new Thread(this::write, "C4-Stats");
+        writer.setDaemon(true);
+        writer.start();
+
+    }
+
+    /**
+     * Records the result of a game in the channel it was played in and globally
+     *
+     * @param channel The channel the game was played in
+     * @param p1 The name of Player 1
+     * @param p2 The name of Player 2
+     * @param winner The name of the winner, or null if the game was a draw
+     */
+    public void record(String channel, String p1, String p2, String winner) {
+
+        double score = winner == null ? .5 : winner.equals(p1) ? 1 : 0;
+
+        record(scope(channel.toLowerCase(Locale.ROOT)), p1, p2, score);
+        record(scope(GLOBAL), p1, p2, score);
+
+    }
+
+    /**
+     * Updates both players' records in a single scope
+     *
+     * @param score Player 1's score: 1 for a win, .5 for a draw, 0 for a loss
+     */
+    private void record(Scope scope, String p1, String p2, double score) {
+
+        Entry a;
+        Entry b;
+
+        synchronized (scope) {
+
+            Entry oldA = scope.get(p1);
+            Entry oldB = scope.get(p2);
+
+            // Elo: each player gains or loses the difference between their actual and expected score
+            double expected = 1 / (1 + Math.pow(10, (oldB.rating - oldA.rating) / 400.0));
+            int change = (int) Math.round(K * (score - expected));
+
+            a = oldA.update(p1, score, change);
+            b = oldB.update(p2, 1 - score, -change);
+
+            scope.put(oldA, a);
+            scope.put(oldB, b);
+
+        }
+
+        if (running) {
+            queue.add(a);
+            queue.add(b);
+        }
+
+    }
+
+    /**
+     * Gets a player's stats
+     *
+     * @param scope A channel name, or {@link #GLOBAL}
+     * @param user The player
+     * @return The player's stats, or null if they haven't played in the scope
+     */
+    public Entry get(String scope, String user) {
+
+        Scope s = scopes.get(scope.toLowerCase(Locale.ROOT));
+        if (s == null) return null;
+
+        synchronized (s) {
+            return s.players.get(user.toLowerCase(Locale.ROOT));
+        }
+
+    }
+
+    /**
+     * Gets the highest rated players
+     *
+     * @param scope A channel name, or {@link #GLOBAL}
+     * @param count The number of players to get
+     * @return Up to count players, highest rated first
+     */
+    public List<Entry> top(String scope, int count) {
+
+        List<Entry> top = new ArrayList<>(count);
+
+        Scope s = scopes.get(scope.toLowerCase(Locale.ROOT));
+        if (s == null) return top;
+
+        synchronized (s) {
+            Iterator<Entry> it = s.ranked.iterator();
+            while (top.size() < count && it.hasNext()) top.add(it.next());
+        }
+
+        return top;
+
+    }
+
+    /**
+     * Stops writing to the log, after writing everything still queued
+     */
+    public void close() {
+
+        if (!running) return;
+        running = false;
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    private Scope scope(String name) {
+        return scopes.computeIfAbsent(name, Scope::new);
+    }
+
+    /**
+     * Reads every intact record in the log, keeping the last one for each player
+     */
+    private void load() throws IOException {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+
+            while (true) {
+
+                Entry e = read(in);
+                if (e == null) break;
+
+                Scope s = scope(e.scope);
+                s.put(s.players.get(e.key), e);
+                records++;
+
+                // Framing is deterministic, so framing the record again gives its size on disk
+                size += frame(e).length;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Cuts anything after the last intact record off the log, such as a record
+     * torn by a crash or a failed write, so later records aren't appended after
+     * it where loading would never reach them
+     */
+    private void truncate() throws IOException {
+
+        if (Files.size(file) <= size) return;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+
+    }
+
+    /**
+     * The writer thread's main loop. Appends every queued record, and
+     * compacts the log once most of it has been superseded
+     */
+    private void write() {
+
+        List<Entry> batch = new ArrayList<>();
+
+        while (running || !queue.isEmpty()) {
+
+            try {
+
+                if (batch.isEmpty()) {
+                    Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                }
+
+                queue.drainTo(batch);
+
+                long written = 0;
+
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+                    for (Entry e : batch) {
+                        byte[] framed = frame(e);
+                        out.write(framed);
+                        written += framed.length;
+                    }
+                }
+
+                records += batch.size();
+                size += written;
+                batch.clear();
+
+                long live = 0;
+                for (Scope s : scopes.values()) live += s.size();
+
+                if (records >= COMPACT_MIN && records > live * 2) {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        System.err.println("Failed to compact the stats log: " + e);
+                    }
+                }
+
+            } catch (InterruptedException e) {
+                if (!running) break;
+            } catch (IOException e) {
+
+                // Cut off whatever part of the batch made it, then write it again with anything queued since
+                System.err.println("Failed to write " + batch.size() + " stats records, trying again: " + e);
+
+                try {
+                    truncate();
+                } catch (IOException e2) {
+                    System.err.println("Failed to repair the stats log: " + e2);
+                }
+
+                if (!running) break;
+
+                try {
+                    Thread.sleep(RETRY_DELAY);
+                } catch (InterruptedException e2) {
+                    if (!running) break;
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Rewrites the log with only the latest record for each player
+     */
+    private void compact() throws IOException {
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long count = 0;
+        long bytes = 0;
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+
+            for (Scope s : scopes.values()) {
+
+                List<Entry> entries;
+
+                synchronized (s) {
+                    entries = new ArrayList<>(s.players.values());
+                }
+
+                for (Entry e : entries) {
+                    byte[] framed = frame(e);
+                    out.write(framed);
+                    bytes += framed.length;
+                }
+
+                count += entries.size();
+
+            }
+
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = count;
+        size = bytes;
+
+    }
+
+    /**
+     * Serializes a record as its length, body, and checksum
+     */
+    private static byte[] frame(Entry e) {
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeUTF(e.scope);
+            out.writeUTF(e.name);
+            out.writeInt(e.wins);
+            out.writeInt(e.losses);
+            out.writeInt(e.draws);
+            out.writeInt(e.rating);
+
+            byte[] body = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+
+            ByteArrayOutputStream framed = new ByteArrayOutputStream(body.length + 2 * Integer.BYTES);
+            DataOutputStream f = new DataOutputStream(framed);
+            f.writeInt(body.length);
+            f.write(body);
+            f.writeInt((int) crc.getValue());
+
+            return framed.toByteArray();
+
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+    }
+
+    /**
+     * Reads the next record, checking its length and checksum
+     *
+     * @return The record, or null at the end of the log or a torn record
+     */
+    private static Entry read(DataInputStream in) throws IOException {
+
+        try {
+
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_RECORD) return null;
+
+            byte[] body = new byte[length];
+            in.readFully(body);
+
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (in.readInt() != (int) crc.getValue()) return null;
+
+            DataInputStream r = new DataInputStream(new ByteArrayInputStream(body));
+
+            return new Entry(r.readUTF(), r.readUTF(), r.readInt(), r.readInt(), r.readInt(), r.readInt());
+
+        } catch (EOFException e) {
+            return null;
+        }
+
+    }
+
+    /**
+     * The players in a single channel, or globally. Guarded by its own monitor
+     */
+    private static class Scope {
+
+        private final String name;
+        private final Map<String, Entry> players = new HashMap<>();
+        private final TreeSet<Entry> ranked = new TreeSet<>(BY_RATING);
+
+        private Scope(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Gets a player's record, or a fresh one if they haven't played yet
+         */
+        private Entry get(String user) {
+            Entry e = players.get(user.toLowerCase(Locale.ROOT));
+            return e != null ? e : new Entry(name, user, 0, 0, 0, INITIAL_RATING);
+        }
+
+        /**
+         * Replaces a player's record, keeping the ranking in order
+         *
+         * @param old The player's previous record, or null if they didn't have one
+         * @param e The player's new record
+         */
+        private void put(Entry old, Entry e) {
+            if (old != null) ranked.remove(old);
+            players.put(e.key, e);
+            ranked.add(e);
+        }
+
+        private synchronized int size() {
+            return players.size();
+        }
+
+    }
+
+    /**
+     * A single player's stats in a single scope
+     */
+    public static class Entry {
+
+        private final String scope;
+        private final String name;
+        private final String key;
+        private final int wins;
+        private final int losses;
+        private final int draws;
+        private final int rating;
+
+        private Entry(String scope, String name, int wins, int losses, int draws, int rating) {
+            this.scope = scope;
+            this.name = name;
+            this.key = name.toLowerCase(Locale.ROOT);
+            this.wins = wins;
+            this.losses = losses;
+            this.draws = draws;
+            this.rating = rating;
+        }
+
+        /**
+         * Creates the record after another game
+         *
+         * @param name The player's current name
+         * @param score 1 for a win, .5 for a draw, 0 for a loss
+         * @param change The change in rating
+         */
+        private Entry update(String name, double score, int change) {
+            return new Entry(
+                    scope,
+                    name,
+                    wins + (score == 1 ? 1 : 0),
+                    losses + (score == 0 ? 1 : 0),
+                    draws + (score == .5 ? 1 : 0),
+                    rating + change
+            );
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWins() {
+            return wins;
+        }
+
+        public int getLosses() {
+            return losses;
+        }
+
+        public int getDraws() {
+            return draws;
+        }
+
+        public int getRating() {
+            return rating;
+        }
+
+    }
+
+}
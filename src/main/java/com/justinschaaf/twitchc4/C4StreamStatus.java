@@ -0,0 +1,224 @@
+package com.justinschaaf.twitchc4;
+
+import com.github.twitch4j.helix.domain.Stream;
+import com.github.twitch4j.helix.domain.StreamList;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caches whether or not each channel is currently live, so commands never
+ * have to wait on Helix. Reads always return the cached value immediately;
+ * once the cache is older than {@link C4Config#gameStatusTtl} a refresh of
+ * every known channel is started in the background (stale-while-revalidate)
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4StreamStatus {
+
+    /**
+     * The maximum number of user_login parameters Helix accepts per request
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * The channels to include in each refresh
+     */
+    private final Set<String> channels = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The channels which were live as of the last refresh
+     */
+    private volatile Set<String> live = Set.of();
+
+    private volatile long lastRefresh = 0;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "C4-StreamStatus");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Where each batch's request is made, or null to make them one after another on the refresh thread
+     */
+    private final Executor io;
+
+    /**
+     * Limits how many requests are made to Helix at once
+     */
+    private final Semaphore helix;
+
+    /**
+     * Creates a new status cache for the given channels, which requests one
+     * batch at a time
+     *
+     * @param channels The channels to track the status of
+     */
+    public C4StreamStatus(List<String> channels) {
+        this(channels, null, 1);
+    }
+
+    /**
+     * Creates a new status cache for the given channels, which requests every
+     * batch at once on the given executor
+     *
+     * @param channels The channels to track the status of
+     * @param io Where each batch's request is made, e.g. one virtual thread per request
+     * @param concurrency How many requests can be made to Helix at once
+     */
+    public C4StreamStatus(List<String> channels, Executor io, int concurrency) {
+
+        for (String c : channels) this.channels.add(c.toLowerCase(Locale.ROOT));
+
+        this.io = io;
+        this.helix = new Semaphore(concurrency);
+
+    }
+
+    /**
+     * Starts the initial refresh so the cache is warm before the first command arrives
+     */
+    public void start() {
+        revalidate();
+    }
+
+    /**
+     * Gets whether or not the given channel is currently live. Never blocks;
+     * if the cached status has expired, a refresh is started in the background
+     * and the stale value is returned in the meantime
+     *
+     * @param channel The channel to check the status of
+     * @return true if the channel was live as of the last refresh
+     */
+    public boolean isLive(String channel) {
+
+        channel = channel.toLowerCase(Locale.ROOT);
+
+        if (channels.add(channel) || System.currentTimeMillis() - lastRefresh > TimeUnit.SECONDS.toMillis(TwitchC4.getConfig().gameStatusTtl))
+            revalidate();
+
+        return live.contains(channel);
+
+    }
+
+    /**
+     * Stops the background refresh thread
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Schedules a refresh unless one is already in progress
+     */
+    private void revalidate() {
+        if (refreshing.compareAndSet(false, true)) executor.execute(this::refresh);
+    }
+
+    /**
+     * Fetches the status of every known channel, in batches of {@link #BATCH_SIZE}
+     */
+    private void refresh() {
+
+        try {
+
+            List<String> all = new ArrayList<>(channels);
+            Set<String> online = new HashSet<>();
+
+            if (io == null) {
+
+                for (int i = 0; i < all.size(); i += BATCH_SIZE)
+                    online.addAll(fetch(all.subList(i, Math.min(i + BATCH_SIZE, all.size()))));
+
+            } else {
+
+                List<CompletableFuture<Set<String>>> batches = new ArrayList<>();
+
+                for (int i = 0; i < all.size(); i += BATCH_SIZE) {
+                    List<String> batch = all.subList(i, Math.min(i + BATCH_SIZE, all.size()));
+                    batches.add(CompletableFuture.supplyAsync(() -> fetch(batch), io));
+                }
+
+                try {
+                    for (CompletableFuture<Set<String>> b : batches) online.addAll(b.join());
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+
+            }
+
+            live = online;
+
+        } catch (Exception e) {
+            // Keep serving the old status, we'll try again once it expires
+            System.err.println("Failed to refresh stream status: " + e.getMessage());
+        } finally {
+            lastRefresh = System.currentTimeMillis();
+            refreshing.set(false);
+        }
+
+    }
+
+    /**
+     * Requests the status of a single batch of channels, once fewer than the
+     * maximum number of requests are in progress
+     *
+     * @param batch At most {@link #BATCH_SIZE} channels
+     * @return The channels in the batch which are live
+     */
+    private Set<String> fetch(List<String> batch) {
+
+        helix.acquireUninterruptibly();
+
+        try {
+
+            long start = System.nanoTime();
+            StreamList streams;
+
+            try {
+                streams = TwitchC4
+                        .getClient()
+                        .getHelix()
+                        .getStreams(
+                                null,
+                                null,
+                                null,
+                                BATCH_SIZE,
+                                null,
+                                null,
+                                null,
+                                batch
+                        ).execute();
+            } catch (RuntimeException e) {
+                TwitchC4.getMetrics().helix(System.nanoTime() - start, false);
+                throw e;
+            }
+
+            TwitchC4.getMetrics().helix(System.nanoTime() - start, true);
+
+            Set<String> online = new HashSet<>();
+            for (Stream s : streams.getStreams()) online.add(s.getUserLogin().toLowerCase(Locale.ROOT));
+
+            return online;
+
+        } finally {
+            helix.release();
+        }
+
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A message which has been split into literal segments and placeholder slots
+ * ahead of time, so it can be filled in with a single pass over a reusable
+ * buffer instead of one {@link String#replace} per placeholder
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Template {
+
+    /**
+     * Every placeholder messages may contain, without the surrounding %s
+     */
+    public static final Set<String> PLACEHOLDERS = Set.of("p", "f", "t", "p1", "p2", "c", "s", "r", "w", "l", "d", "n", "list");
+
+    /**
+     * The buffer each thread renders into
+     */
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(C4Outbox.MAX_LENGTH));
+
+    /**
+     * The literal text around each slot. There is always one more segment than there are slots
+     */
+    private final String[] segments;
+
+    /**
+     * The placeholder in each slot, including the surrounding %s, e.g. "%p1%"
+     */
+    private final String[] slots;
+
+    private C4Template(String[] segments, String[] slots) {
+        this.segments = segments;
+        this.slots = slots;
+    }
+
+    /**
+     * Parses the given message into a template
+     *
+     * @param message The message to parse
+     * @param unknown Called with each placeholder-looking token which isn't in
+     *                {@link #PLACEHOLDERS}. Unknown tokens are kept as literal text
+     * @return The compiled template
+     */
+    public static C4Template compile(String message, Consumer<String> unknown) {
+
+        List<String> segments = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+
+        int start = 0;
+        int from = 0;
+
+        while (true) {
+
+            int open = message.indexOf('%', from);
+            int close = open < 0 ? -1 : message.indexOf('%', open + 1);
+            if (close < 0) break;
+
+            String name = message.substring(open + 1, close);
+
+            if (PLACEHOLDERS.contains(name)) {
+
+                segments.add(message.substring(start, open));
+                slots.add(message.substring(open, close + 1));
+                start = from = close + 1;
+
+            } else {
+
+                // Only report things that look like a placeholder, not every stray %
+                if (unknown != null && !name.isEmpty() && name.chars().allMatch(Character::isLetterOrDigit))
+                    unknown.accept(message.substring(open, close + 1));
+
+                // The closing % could be the start of a real placeholder
+                from = close;
+
+            }
+
+        }
+
+        segments.add(message.substring(start));
+
+        return new C4Template(segments.toArray(new String[0]), slots.toArray(new String[0]));
+
+    }
+
+    /**
+     * Fills in this template
+     *
+     * @param replacements Pairs of placeholders and what to replace them with, see
+     *                     {@link C4Messages#send(String, String, String...)}. Placeholders
+     *                     without a (non-null) replacement are left as they are
+     * @return The rendered message
+     */
+    public String render(String... replacements) {
+
+        if (slots.length == 0) return segments[0];
+
+        StringBuilder buf = BUFFER.get();
+        buf.setLength(0);
+
+        for (int i = 0; i < slots.length; i++) {
+
+            buf.append(segments[i]);
+
+            String value = null;
+
+            for (int j = 0; value == null && j < replacements.length - 1; j += 2)
+                if (slots[i].equals(replacements[j]))
+                    value = replacements[j + 1];
+
+            buf.append(value != null ? value : slots[i]);
+
+        }
+
+        buf.append(segments[slots.length]);
+
+        return buf.toString();
+
+    }
+
+}
@@ -0,0 +1,487 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A hashed timing wheel which holds every turn and challenge timeout in the
+ * bot. Scheduling and cancelling are both O(1), and no matter how many
+ * timeouts are pending only one ticker thread and a fixed number of worker
+ * threads are ever used.
+ *
+ * A timer can also run on a virtual clock instead, which only moves when
+ * {@link #advance(long, TimeUnit)} is called. Expired tasks then run on the
+ * thread which advanced the clock, so simulations can skip hours of turn
+ * timers in an instant
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Timer {
+
+    /**
+     * The maximum number of new timeouts moved onto the wheel per tick, so a
+     * burst of scheduling can't starve expiration
+     */
+    private static final int MAX_ADDS_PER_TICK = 100000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<Timeout> additions = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancellations = new ConcurrentLinkedQueue<>();
+
+    private final ExecutorService workers;
+    private final Thread ticker;
+
+    private final long startTime = System.nanoTime();
+    private long tick = 0;
+    private volatile boolean running = true;
+
+    /**
+     * The current time on the virtual clock, or -1 if this timer follows the real clock
+     */
+    private volatile long virtualTime = -1;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong totalLag = new AtomicLong();
+    private final LongAccumulator maxLag = new LongAccumulator(Math::max, 0);
+    private volatile long lastLag = 0;
+
+    /**
+     * Creates and starts a new timer
+     *
+     * @param tick How long each tick of the wheel lasts, and therefore the timer's precision
+     * @param unit The unit of tick
+     * @param wheelSize The number of buckets in the wheel, rounded up to a power of two
+     * @param threads The number of worker threads which run expired tasks
+     */
+    public C4Timer(long tick, TimeUnit unit, int wheelSize, int threads) {
+
+        this.tickNanos = unit.toNanos(tick);
+
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "C4-Timer-Worker");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.ticker = new Thread(this::run, "C4-Timer");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+
+    }
+
+    /**
+     * Creates a timer on a virtual clock, starting at 0. Nothing runs until
+     * the clock is moved with {@link #advance(long, TimeUnit)}
+     *
+     * @param tick How long each tick of the wheel lasts, and therefore the timer's precision
+     * @param unit The unit of tick
+     * @param wheelSize The number of buckets in the wheel, rounded up to a power of two
+     */
+    public C4Timer(long tick, TimeUnit unit, int wheelSize) {
+
+        this.tickNanos = unit.toNanos(tick);
+
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+
+        this.workers = null;
+        this.ticker = null;
+        this.virtualTime = 0;
+
+    }
+
+    /**
+     * Schedules the given task to run once after the given delay
+     *
+     * @param task The task to run
+     * @param delay How long to wait before running the task
+     * @param unit The unit of delay
+     * @return A handle which can be used to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+
+        Timeout t = new Timeout(task, now() + unit.toNanos(delay));
+
+        pending.incrementAndGet();
+        additions.add(t);
+
+        return t;
+
+    }
+
+    /**
+     * Stops the timer. Pending timeouts will never run
+     */
+    public void stop() {
+        running = false;
+        if (ticker != null) ticker.interrupt();
+        if (workers != null) workers.shutdownNow();
+    }
+
+    /**
+     * Moves the virtual clock forward, running every task which expires along
+     * the way on the calling thread. Only one thread can advance the clock at
+     * a time
+     *
+     * @param delay How far to move the clock
+     * @param unit The unit of delay
+     * @throws IllegalStateException If this timer follows the real clock
+     */
+    public synchronized void advance(long delay, TimeUnit unit) {
+
+        if (!isVirtual()) throw new IllegalStateException("Only a virtual clock can be advanced");
+
+        long target = virtualTime + unit.toNanos(delay);
+
+        while (running && tickNanos * (tick + 1) <= target) {
+
+            long deadline = tickNanos * (tick + 1);
+            virtualTime = deadline;
+
+            removeCancelled();
+            transferAdditions();
+
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+
+        }
+
+        virtualTime = target;
+
+    }
+
+    /**
+     * Whether or not this timer runs on a virtual clock
+     * @return true if this timer was created without worker threads
+     */
+    public boolean isVirtual() {
+        return ticker == null;
+    }
+
+    /**
+     * Gets the current time on this timer's clock
+     *
+     * @param unit The unit to return the time in
+     * @return The time since the timer started, or the virtual clock's time
+     */
+    public long getTime(TimeUnit unit) {
+        return unit.convert(now(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the number of timeouts which have been scheduled but have neither run nor been cancelled
+     * @return The number of pending timeouts
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Gets the number of timeouts which have run
+     * @return The number of expired timeouts
+     */
+    public long getFired() {
+        return fired.get();
+    }
+
+    /**
+     * Gets how late the most recently expired timeout was handed to a worker
+     * @return The firing lag of the last timeout, in milliseconds
+     */
+    public long getLastLag() {
+        return TimeUnit.NANOSECONDS.toMillis(lastLag);
+    }
+
+    /**
+     * Gets the worst firing lag seen since the timer started
+     * @return The maximum firing lag, in milliseconds
+     */
+    public long getMaxLag() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLag.get());
+    }
+
+    /**
+     * Gets the mean firing lag since the timer started
+     * @return The mean firing lag, in milliseconds
+     */
+    public double getMeanLag() {
+        long n = fired.get();
+        return n == 0 ? 0 : totalLag.get() / (double) n / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Gets the current time on this timer's clock
+     * @return The time since the timer started, in nanoseconds
+     */
+    private long now() {
+        long v = virtualTime;
+        return v >= 0 ? v : System.nanoTime() - startTime;
+    }
+
+    /**
+     * The ticker thread's main loop
+     */
+    private void run() {
+
+        while (running) {
+
+            long deadline = waitForNextTick();
+            if (deadline < 0) break;
+
+            removeCancelled();
+            transferAdditions();
+
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+
+        }
+
+    }
+
+    /**
+     * Sleeps until the start of the next tick
+     * @return The time the tick started at, relative to {@link #startTime}, or -1 if the timer was stopped
+     */
+    private long waitForNextTick() {
+
+        long deadline = tickNanos * (tick + 1);
+
+        while (true) {
+
+            long now = System.nanoTime() - startTime;
+            long sleep = deadline - now;
+
+            if (sleep <= 0) return now;
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            } catch (InterruptedException e) {
+                if (!running) return -1;
+            }
+
+        }
+
+    }
+
+    /**
+     * Moves newly scheduled timeouts into their buckets
+     */
+    private void transferAdditions() {
+
+        for (int i = 0; i < MAX_ADDS_PER_TICK; i++) {
+
+            Timeout t = additions.poll();
+            if (t == null) break;
+
+            if (t.state.get() != Timeout.INIT) continue;
+
+            long calculated = t.deadline / tickNanos;
+            t.remainingRounds = (calculated - tick) / wheel.length;
+
+            // Deadlines which already passed go in the current bucket
+            wheel[(int) (Math.max(calculated, tick) & mask)].add(t);
+
+        }
+
+    }
+
+    /**
+     * Unlinks cancelled timeouts from their buckets
+     */
+    private void removeCancelled() {
+
+        Timeout t;
+
+        while ((t = cancellations.poll()) != null)
+            if (t.bucket != null) t.bucket.remove(t);
+
+    }
+
+    /**
+     * Hands an expired timeout to a worker thread
+     * @param t The timeout to run
+     */
+    private void fire(Timeout t) {
+
+        if (!t.state.compareAndSet(Timeout.INIT, Timeout.EXPIRED)) return;
+
+        Runnable task = t.task;
+        t.task = null;
+
+        long lag = Math.max(0, now() - t.deadline);
+        lastLag = lag;
+        maxLag.accumulate(lag);
+        totalLag.addAndGet(lag);
+        fired.incrementAndGet();
+        pending.decrementAndGet();
+
+        Runnable run = () -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("Timer task failed: " + e);
+                e.printStackTrace();
+            }
+        };
+
+        // A virtual clock runs tasks on the thread advancing it
+        if (workers == null) run.run();
+        else workers.execute(run);
+
+    }
+
+    /**
+     * A task scheduled on the timer
+     */
+    public class Timeout {
+
+        private static final int INIT = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(INIT);
+        private final long deadline;
+        private volatile Runnable task;
+
+        // Only touched by the ticker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels this timeout. The task is released immediately; the
+         * ticker unlinks the timeout from its bucket on the next tick
+         *
+         * @return true if this call cancelled the timeout, false if it had already run or been cancelled
+         */
+        public boolean cancel() {
+
+            if (!state.compareAndSet(INIT, CANCELLED)) return false;
+
+            task = null;
+            pending.decrementAndGet();
+            cancellations.add(this);
+
+            return true;
+
+        }
+
+        /**
+         * Whether or not this timeout was cancelled
+         * @return true if {@link #cancel()} succeeded
+         */
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        /**
+         * Whether or not this timeout has run or been cancelled
+         * @return true if this timeout is no longer pending
+         */
+        public boolean isDone() {
+            return state.get() != INIT;
+        }
+
+        /**
+         * Gets how long remains until this timeout runs
+         *
+         * @param unit The unit to return the delay in
+         * @return The remaining delay, or 0 if it's overdue
+         */
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Math.max(0, deadline - now()), TimeUnit.NANOSECONDS);
+        }
+
+    }
+
+    /**
+     * A doubly-linked list of the timeouts in one slot of the wheel
+     */
+    private class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout t) {
+
+            t.bucket = this;
+
+            if (head == null) head = tail = t;
+            else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+
+        }
+
+        private void remove(Timeout t) {
+
+            if (t.prev != null) t.prev.next = t.next;
+            else head = t.next;
+
+            if (t.next != null) t.next.prev = t.prev;
+            else tail = t.prev;
+
+            t.prev = t.next = null;
+            t.bucket = null;
+
+        }
+
+        /**
+         * Fires every timeout in this bucket which is due this round
+         * @param deadline The time the current tick started at
+         */
+        private void expire(long deadline) {
+
+            Timeout t = head;
+
+            while (t != null) {
+
+                Timeout next = t.next;
+
+                if (t.remainingRounds <= 0) {
+
+                    remove(t);
+
+                    if (t.deadline <= deadline) fire(t);
+                    else {
+                        // Can only happen if the tick ran late; retry next tick
+                        wheel[(int) ((tick + 1) & mask)].add(t);
+                    }
+
+                } else if (t.isCancelled()) remove(t);
+                else t.remainingRounds--;
+
+                t = next;
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,621 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tournament in a single channel. Players sign up for a while, then are
+ * seeded by rating and play either a single-elimination bracket or a number
+ * of Swiss rounds. Every match in a round is started at once, and the next
+ * round starts as soon as the last result of the current one comes in.
+ *
+ * Everything about the bracket is kept in arrays indexed by seed, so even a
+ * tournament with hundreds of players is only a handful of objects. The
+ * first prompt of each game in a round is spaced out by the
+ * {@link C4Outbox}'s sustained rate, so the round's start doesn't use up the
+ * whole chat budget at once.
+ *
+ * Like the rest of a channel's state, this must only be touched from within
+ * the channel's mailbox
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Tournament {
+
+    /**
+     * How a tournament decides who plays who
+     */
+    public enum Format {
+
+        /**
+         * Players are knocked out when they lose, until only one is left. A
+         * draw sends the higher seed through
+         */
+        SINGLE,
+
+        /**
+         * Everyone plays every round against someone with a similar score
+         * they haven't played yet. The highest score at the end wins
+         */
+        SWISS;
+
+        /**
+         * Gets the format with the given name
+         *
+         * @param name The format's name, in any case
+         * @return The format, or null if there is none by that name
+         */
+        public static Format of(String name) {
+
+            switch (name.toLowerCase(Locale.ROOT)) {
+
+                case "single":
+                case "elimination":
+                case "knockout":
+                    return SINGLE;
+
+                case "swiss":
+                    return SWISS;
+
+                default:
+                    return null;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Marks an empty slot in the bracket or a player without an opponent
+     */
+    private static final int BYE = -1;
+
+    /**
+     * What happened in each match
+     */
+    private static final byte PENDING = 0;
+    private static final byte P1_WON = 1;
+    private static final byte P2_WON = 2;
+    private static final byte DRAW = 3;
+
+    private final C4Channel channel;
+    private final Format format;
+
+    /**
+     * The players in the order they signed up, then by seed once the tournament starts
+     */
+    private String[] players = new String[16];
+    private int count = 0;
+
+    /**
+     * Each player's index in {@link #players} by their lowercased name
+     */
+    private final HashMap<String, Integer> index = new HashMap<>();
+
+    private C4Timer.Timeout signups;
+    private boolean started = false;
+    private boolean over = false;
+
+    private int round = 0;
+    private int rounds;
+
+    /**
+     * The matches in the current round, as pairs of seeds. The second of a pair is {@link #BYE} if the first has no opponent
+     */
+    private int[] pairs;
+    private byte[] results;
+    private int pending;
+
+    /**
+     * Single elimination: the seeds still in, in bracket order, with {@link #BYE} in empty slots
+     */
+    private int[] bracket;
+    private final BitSet eliminated = new BitSet();
+
+    /**
+     * Swiss: each player's score in half points, who has played who, and who has already had a bye
+     */
+    private int[] points;
+    private BitSet met;
+    private final BitSet byes = new BitSet();
+
+    /**
+     * Opens sign-ups for a new tournament, which starts by itself once
+     * {@link C4Config#tournamentSignupTime} is up
+     *
+     * @param channel The channel the tournament is in
+     * @param format How players are paired
+     */
+    public C4Tournament(C4Channel channel, Format format) {
+
+        this.channel = channel;
+        this.format = format;
+
+        int time = TwitchC4.getConfig().tournamentSignupTime;
+
+        C4Messages.send(channel.getName(), TwitchC4.getConfig().locTournamentOpen, "%n%", String.valueOf(time));
+
+        signups = TwitchC4
+                .getTimer()
+                .schedule(
+                        () -> TwitchC4.getCmds().submit(channel.getName(), () -> {
+                            if (channel.getTournament() == this && !started) begin();
+                        }),
+                        time,
+                        TimeUnit.SECONDS
+                );
+
+    }
+
+    /**
+     * Signs a player up
+     * @param user The player, who mustn't be signed up already
+     */
+    public void join(String user) {
+
+        if (count == players.length) players = Arrays.copyOf(players, count * 2);
+
+        index.put(key(user), count);
+        players[count++] = user;
+
+        C4Messages.send(channel.getName(), TwitchC4.getConfig().locTournamentJoin, "%p%", user, "%n%", String.valueOf(count));
+
+    }
+
+    /**
+     * Takes a player's sign-up back
+     *
+     * @param user The player
+     * @return true if the player was signed up
+     */
+    public boolean leave(String user) {
+
+        Integer i = index.remove(key(user));
+        if (i == null) return false;
+
+        // Move the last player into the gap
+        players[i] = players[--count];
+        players[count] = null;
+        if (i < count) index.put(key(players[i]), i);
+
+        return true;
+
+    }
+
+    /**
+     * Closes sign-ups, seeds the players by rating, and starts the first
+     * round. If fewer than two players signed up, the tournament is
+     * cancelled instead
+     */
+    public void begin() {
+
+        if (started) return;
+
+        started = true;
+        signups.cancel();
+
+        if (count < 2) {
+            end();
+            C4Messages.send(channel.getName(), TwitchC4.getConfig().locTournamentTooFew);
+            return;
+        }
+
+        seed();
+
+        if (format == Format.SINGLE) {
+
+            int size = Integer.highestOneBit(count - 1) << 1;
+
+            bracket = new int[size];
+            int[] order = order(size);
+            for (int i = 0; i < size; i++) bracket[i] = order[i] < count ? order[i] : BYE;
+
+            rounds = Integer.numberOfTrailingZeros(size);
+
+        } else {
+
+            points = new int[count];
+            met = new BitSet(count * count);
+
+            rounds = TwitchC4.getConfig().tournamentSwissRounds;
+            if (rounds == 0) rounds = 32 - Integer.numberOfLeadingZeros(count - 1);
+
+        }
+
+        nextRound();
+
+    }
+
+    /**
+     * Records the result of a match, and starts the next round once it was
+     * the last one in the current round. Called by {@link C4Game} when a
+     * match ends
+     *
+     * @param match The match's index in the current round
+     * @param winner The player who won, or null if it was a draw
+     */
+    void result(int match, String winner) {
+
+        if (over || results[match] != PENDING) return;
+
+        if (winner == null) results[match] = DRAW;
+        else results[match] = winner.equalsIgnoreCase(players[pairs[match * 2]]) ? P1_WON : P2_WON;
+
+        if (--pending == 0) advance();
+
+    }
+
+    /**
+     * Stops the tournament and ends every match still being played without a result
+     */
+    public void cancel() {
+
+        if (started && !over)
+            for (int m = 0; m < results.length; m++)
+                if (results[m] == PENDING) {
+
+                    C4Game game = channel.findGame(players[pairs[m * 2]]);
+                    if (game != null && game.getTournament() == this) game.cancel();
+
+                }
+
+        end();
+        C4Messages.send(channel.getName(), TwitchC4.getConfig().locTournamentCancel);
+
+    }
+
+    /**
+     * Stops the tournament without announcing anything or touching its
+     * games, e.g. because the channel moved to another bot instance
+     */
+    public void abandon() {
+        end();
+    }
+
+    /**
+     * Whether or not players can still sign up
+     * @return true until the first round starts
+     */
+    public boolean isOpen() {
+        return !started;
+    }
+
+    /**
+     * Whether or not as many players have signed up as are allowed to
+     * @return true if nobody else can sign up
+     */
+    public boolean isFull() {
+        return count >= TwitchC4.getConfig().tournamentMaxPlayers;
+    }
+
+    /**
+     * Whether or not the given player is still in the tournament, so can't
+     * start any other game. Players knocked out of a single-elimination
+     * bracket are free to play again
+     *
+     * @param user The player to check
+     * @return true if the player is signed up and hasn't been knocked out
+     */
+    public boolean contains(String user) {
+        Integer i = index.get(key(user));
+        return i != null && !eliminated.get(i);
+    }
+
+    /**
+     * Sorts the players by rating, highest first, so their indexes are their seeds
+     */
+    private void seed() {
+
+        Integer[] order = new Integer[count];
+        int[] ratings = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            C4Stats.Entry e = TwitchC4.getStats().get(channel.getName(), players[i]);
+            ratings[i] = e == null ? C4Stats.INITIAL_RATING : e.getRating();
+            order[i] = i;
+        }
+
+        // Sign-up order breaks ties
+        Arrays.sort(order, (a, b) -> ratings[a] != ratings[b] ? Integer.compare(ratings[b], ratings[a]) : Integer.compare(a, b));
+
+        String[] seeded = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            seeded[i] = players[order[i]];
+            index.put(key(seeded[i]), i);
+        }
+
+        players = seeded;
+
+    }
+
+    /**
+     * Gets the standard bracket order for the given number of slots, where
+     * each round's top seeds can only meet in later rounds, e.g. 1v8, 4v5,
+     * 2v7, 3v6 for 8 slots
+     */
+    private static int[] order(int size) {
+
+        int[] order = {0};
+
+        for (int n = 2; n <= size; n *= 2) {
+
+            int[] next = new int[n];
+
+            for (int i = 0; i < order.length; i++) {
+                next[i * 2] = order[i];
+                next[i * 2 + 1] = n - 1 - order[i];
+            }
+
+            order = next;
+
+        }
+
+        return order;
+
+    }
+
+    /**
+     * Pairs the players for the next round and starts every match at once.
+     * Players without an opponent go through straight away
+     */
+    private void nextRound() {
+
+        round++;
+        pairs = format == Format.SINGLE ? pairBracket() : pairSwiss();
+        results = new byte[pairs.length / 2];
+        pending = 0;
+
+        C4Messages.send(channel.getName(), TwitchC4.getConfig().locTournamentRound, "%n%", String.valueOf(round));
+
+        List<String> free = new ArrayList<>();
+        long interval = TwitchC4.getOutbox().getSendInterval();
+        int launched = 0;
+
+        for (int m = 0; m < results.length; m++) {
+
+            int a = pairs[m * 2];
+            int b = pairs[m * 2 + 1];
+
+            if (b == BYE) {
+                results[m] = P1_WON;
+                free.add(players[a]);
+                continue;
+            }
+
+            pending++;
+            channel.addGame(new C4Game(channel.getName(), players[a], players[b], this, m, launched++ * interval));
+
+        }
+
+        sendList(TwitchC4.getConfig().locTournamentBye, free);
+
+        if (pending == 0) advance();
+
+    }
+
+    /**
+     * Pairs neighbouring slots of the bracket. The empty slots only ever face real players
+     */
+    private int[] pairBracket() {
+
+        int[] p = new int[bracket.length];
+
+        for (int i = 0; i < bracket.length; i += 2) {
+
+            // The bye always goes second
+            boolean swap = bracket[i] == BYE;
+            p[i] = swap ? bracket[i + 1] : bracket[i];
+            p[i + 1] = swap ? bracket[i] : bracket[i + 1];
+
+        }
+
+        return p;
+
+    }
+
+    /**
+     * Pairs players with the nearest score they haven't played yet, from the
+     * top of the standings down. With an odd number of players, the lowest
+     * placed player who hasn't had a bye yet sits this round out
+     */
+    private int[] pairSwiss() {
+
+        int[] standings = standings();
+        boolean[] paired = new boolean[count];
+        int[] p = new int[(count + 1) / 2 * 2];
+        int n = 0;
+
+        if (count % 2 == 1) {
+
+            int bye = standings[count - 1];
+
+            for (int i = count - 1; i >= 0; i--)
+                if (!byes.get(standings[i])) {
+                    bye = standings[i];
+                    break;
+                }
+
+            paired[bye] = true;
+            byes.set(bye);
+            p[p.length - 2] = bye;
+            p[p.length - 1] = BYE;
+
+        }
+
+        for (int i = 0; i < count; i++) {
+
+            int a = standings[i];
+            if (paired[a]) continue;
+
+            // Prefer someone new, but a rematch beats leaving someone out
+            int b = -1;
+
+            for (int j = i + 1; j < count; j++) {
+
+                int c = standings[j];
+                if (paired[c]) continue;
+
+                if (b == -1) b = c;
+
+                if (!met.get(a * count + c)) {
+                    b = c;
+                    break;
+                }
+
+            }
+
+            paired[a] = paired[b] = true;
+            p[n++] = a;
+            p[n++] = b;
+
+        }
+
+        return p;
+
+    }
+
+    /**
+     * Gets every player's seed, from the highest score down. Seeds break ties
+     */
+    private int[] standings() {
+
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+
+        Arrays.sort(order, (a, b) -> points[a] != points[b] ? Integer.compare(points[b], points[a]) : Integer.compare(a, b));
+
+        int[] standings = new int[count];
+        for (int i = 0; i < count; i++) standings[i] = order[i];
+
+        return standings;
+
+    }
+
+    /**
+     * Applies the results of the round which just ended, then either starts
+     * the next round or announces the winner
+     */
+    private void advance() {
+
+        if (format == Format.SINGLE) {
+
+            int[] next = new int[bracket.length / 2];
+
+            for (int m = 0; m < results.length; m++) {
+
+                int a = pairs[m * 2];
+                int b = pairs[m * 2 + 1];
+
+                // Either player may be the higher seed, and a draw sends them through
+                boolean aWins = results[m] == P1_WON || (results[m] == DRAW && a < b);
+
+                next[m] = aWins ? a : b;
+                if (b != BYE) eliminated.set(aWins ? b : a);
+
+            }
+
+            bracket = next;
+
+            if (bracket.length == 1) finish(bracket[0]);
+            else nextRound();
+
+        } else {
+
+            for (int m = 0; m < results.length; m++) {
+
+                int a = pairs[m * 2];
+                int b = pairs[m * 2 + 1];
+
+                if (b == BYE) {
+                    points[a] += 2;
+                    continue;
+                }
+
+                met.set(a * count + b);
+                met.set(b * count + a);
+
+                if (results[m] == P1_WON) points[a] += 2;
+                else if (results[m] == P2_WON) points[b] += 2;
+                else {
+                    points[a]++;
+                    points[b]++;
+                }
+
+            }
+
+            int[] standings = standings();
+            List<String> top = new ArrayList<>();
+
+            for (int i = 0; i < Math.min(count, TwitchC4.getConfig().statsTopSize); i++)
+                top.add((i + 1) + ". " + players[standings[i]] + " (" + (points[standings[i]] / 2) + (points[standings[i]] % 2 == 1 ? ".5" : "") + ")");
+
+            sendList(TwitchC4.getConfig().locTournamentStandings, top);
+
+            if (round == rounds) finish(standings[0]);
+            else nextRound();
+
+        }
+
+    }
+
+    /**
+     * Announces the winner and ends the tournament
+     */
+    private void finish(int winner) {
+        end();
+        C4Messages.send(channel.getName(), TwitchC4.getConfig().locTournamentWin, "%p%", players[winner]);
+    }
+
+    /**
+     * Stops listening for results and frees the channel for another tournament
+     */
+    private void end() {
+
+        over = true;
+        started = true;
+        signups.cancel();
+
+        if (channel.getTournament() == this) channel.setTournament(null);
+
+    }
+
+    /**
+     * Sends a message listing the given items, split over as many messages as it takes to fit them all
+     */
+    private void sendList(String message, List<String> items) {
+
+        // The placeholder itself is counted too, which leaves a little room for error
+        int room = C4Outbox.MAX_LENGTH - message.length();
+        StringBuilder list = new StringBuilder();
+
+        for (String item : items) {
+
+            if (list.length() > 0 && list.length() + 2 + item.length() > room) {
+                C4Messages.send(channel.getName(), message, "%list%", list.toString());
+                list.setLength(0);
+            }
+
+            if (list.length() > 0) list.append(", ");
+            list.append(item);
+
+        }
+
+        if (list.length() > 0) C4Messages.send(channel.getName(), message, "%list%", list.toString());
+
+    }
+
+    /**
+     * Normalizes a username for use as an index key
+     */
+    private static String key(String user) {
+        return user.toLowerCase(Locale.ROOT);
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.justinschaaf.twitchc4;
+
+/**
+ * A fixed-size, lock-free cache of search results shared by every search
+ * thread. Each slot is a pair of longs: the packed entry and the position's
+ * hash XORed with that entry. A reader only accepts an entry if the two still
+ * XOR back to the hash it's looking for, so a slot torn by two threads writing
+ * at once simply reads as a miss
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4TranspositionTable {
+
+    public static final int EXACT = 1;
+    public static final int LOWER = 2;
+    public static final int UPPER = 3;
+
+    private final long[] keys;
+    private final long[] data;
+    private final int mask;
+
+    /**
+     * Creates a new table
+     * @param size The number of entries, rounded up to a power of two
+     */
+    public C4TranspositionTable(int size) {
+
+        int n = Integer.highestOneBit(Math.max(2, size) - 1) << 1;
+
+        this.keys = new long[n];
+        this.data = new long[n];
+        this.mask = n - 1;
+
+    }
+
+    /**
+     * Looks up the entry for the given position
+     *
+     * @param hash The position's hash
+     * @return The packed entry, or 0 if there is none
+     */
+    public long probe(long hash) {
+
+        int i = (int) hash & mask;
+        long d = data[i];
+
+        return (keys[i] ^ d) == hash ? d : 0;
+
+    }
+
+    /**
+     * Stores the result of a search, replacing whatever was in the slot
+     *
+     * @param hash The position's hash
+     * @param depth The depth the position was searched to
+     * @param score The score of the position
+     * @param flag Whether the score is {@link #EXACT}, a {@link #LOWER} bound, or an {@link #UPPER} bound
+     * @param move The best column found, or -1 if there is none
+     */
+    public void store(long hash, int depth, int score, int flag, int move) {
+
+        long d = (score & 0xFFFFFFFFL)
+                | (long) Math.min(depth, 0xFFF) << 32
+                | (long) flag << 44
+                | (long) (move + 1) << 46;
+
+        int i = (int) hash & mask;
+        keys[i] = hash ^ d;
+        data[i] = d;
+
+    }
+
+    /**
+     * Gets the score from a packed entry
+     * @param entry The entry from {@link #probe(long)}
+     * @return The stored score
+     */
+    public static int score(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Gets the search depth from a packed entry
+     * @param entry The entry from {@link #probe(long)}
+     * @return The depth the position was searched to
+     */
+    public static int depth(long entry) {
+        return (int) (entry >>> 32) & 0xFFF;
+    }
+
+    /**
+     * Gets the bound type from a packed entry
+     * @param entry The entry from {@link #probe(long)}
+     * @return {@link #EXACT}, {@link #LOWER}, or {@link #UPPER}
+     */
+    public static int flag(long entry) {
+        return (int) (entry >>> 44) & 0x3;
+    }
+
+    /**
+     * Gets the best move from a packed entry
+     * @param entry The entry from {@link #probe(long)}
+     * @return The best column found, or -1 if there is none
+     */
+    public static int move(long entry) {
+        return (int) (entry >>> 46) - 1;
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.justinschaaf.twitchc4;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads on JDKs which have them (21 and newer). The bot is
+ * built for Java 11, so they're looked up reflectively rather than called
+ * directly; on an older JDK {@link #isSupported()} is false and the bot keeps
+ * using its platform threads
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4VirtualThreads {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method NAME_NUMBERED;
+    private static final Method FACTORY;
+    private static final Method PER_TASK;
+
+    static {
+
+        Method ofVirtual = null, name = null, numbered = null, factory = null, perTask = null;
+
+        try {
+
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class);
+            numbered = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+
+            // Throws on JDKs where virtual threads are still a preview feature and it isn't enabled
+            factory.invoke(ofVirtual.invoke(null));
+
+        } catch (Exception | LinkageError e) {
+            ofVirtual = null;
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        NAME_NUMBERED = numbered;
+        FACTORY = factory;
+        PER_TASK = perTask;
+
+    }
+
+    private C4VirtualThreads() {}
+
+    /**
+     * Gets whether or not this JDK can create virtual threads
+     * @return true if virtual threads are available
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates a factory for virtual threads which all have the same name
+     *
+     * @param name The name of every thread
+     * @return The factory
+     * @throws UnsupportedOperationException If this JDK doesn't have virtual threads
+     */
+    public static ThreadFactory factory(String name) {
+        return build(NAME, name);
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for every task.
+     * The threads are named the prefix followed by a counter
+     *
+     * @param prefix The start of every thread's name
+     * @return The executor
+     * @throws UnsupportedOperationException If this JDK doesn't have virtual threads
+     */
+    public static ExecutorService newExecutor(String prefix) {
+
+        try {
+            return (ExecutorService) PER_TASK.invoke(null, build(NAME_NUMBERED, prefix, 0L));
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unable to create a virtual thread executor", e);
+        }
+
+    }
+
+    /**
+     * Names a new virtual thread builder with the given arguments, then gets its factory
+     */
+    private static ThreadFactory build(Method name, Object... args) {
+
+        if (!isSupported()) throw new UnsupportedOperationException("Virtual threads need Java 21 or newer, this is Java " + System.getProperty("java.version"));
+
+        try {
+            return (ThreadFactory) FACTORY.invoke(name.invoke(OF_VIRTUAL.invoke(null), args));
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unable to create a virtual thread factory", e);
+        }
+
+    }
+
+}
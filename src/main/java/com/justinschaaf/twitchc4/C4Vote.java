@@ -0,0 +1,300 @@
+package com.justinschaaf.twitchc4;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts chat's votes for the next column in a team game. Votes are cast
+ * straight from the chat event threads without going through the channel's
+ * mailbox, since a big chat can send tens of thousands of them in one turn,
+ * so nothing here takes a lock.
+ *
+ * Each column's votes are counted with a {@link LongAdder}, and each voter is
+ * remembered in an open-addressed table of longs holding a hash of their name
+ * tagged with the number of the round they voted in. Starting a new round just
+ * bumps the round number, which makes every entry in the table stale at once
+ * instead of having to clear it
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4Vote {
+
+    private static final int ROUND_BITS = 24;
+    private static final int KEY_BITS = Long.SIZE - ROUND_BITS;
+    private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+    private static final int ROUND_MASK = (1 << ROUND_BITS) - 1;
+
+    /**
+     * How many slots a vote looks at before giving up on a full table
+     */
+    private static final int MAX_PROBES = 32;
+
+    private final String opponent;
+    private final AtomicLongArray voters;
+    private final int mask;
+
+    /**
+     * The current round, or null between rounds
+     */
+    private volatile Round round;
+
+    /**
+     * The number of the last round. Only touched from within the channel's mailbox
+     */
+    private int number = 0;
+
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Creates a vote
+     *
+     * @param opponent The player chat is playing against, whose moves aren't votes, or null if it's the bot
+     * @param maxVoters The most users who can vote in a single round
+     */
+    public C4Vote(String opponent, int maxVoters) {
+
+        this.opponent = opponent;
+
+        // Keep the table at most half full so probes stay short
+        int size = Integer.highestOneBit(Math.max(16, maxVoters * 2 - 1)) << 1;
+        this.voters = new AtomicLongArray(size);
+        this.mask = size - 1;
+
+    }
+
+    /**
+     * Starts a new round of voting with every user's vote cleared. Must be
+     * called from within the channel's mailbox
+     *
+     * @param width The number of columns on the board
+     */
+    public void open(int width) {
+
+        // Round 0 would match the empty slots, so it's skipped when the number wraps
+        number = (number + 1) & ROUND_MASK;
+        if (number == 0) number = 1;
+
+        round = new Round(number, width);
+
+    }
+
+    /**
+     * Ends the current round. Must be called from within the channel's mailbox
+     *
+     * @param board The board, so full columns can be skipped
+     * @return The column with the most votes, starting from 0, or -1 if nobody voted for a column that can be played
+     */
+    public int close(C4Board board) {
+
+        Round r = round;
+        round = null;
+
+        if (r == null) return -1;
+
+        int best = -1;
+        long most = 0;
+
+        for (int col = 0; col < r.counts.length; col++) {
+
+            long n = r.counts[col].sum();
+
+            // Ties go to the leftmost column
+            if (n > most && board.canPlay(col)) {
+                best = col;
+                most = n;
+            }
+
+        }
+
+        return best;
+
+    }
+
+    /**
+     * Counts a user's vote, unless they've already voted this round. Safe to
+     * call from any thread
+     *
+     * @param user The user voting
+     * @param col The column they voted for, starting from 0
+     * @return true if the vote was counted
+     */
+    public boolean cast(String user, int col) {
+
+        Round r = round;
+        if (r == null || col < 0 || col >= r.counts.length) return false;
+
+        if (!addVoter(r.number, user)) return false;
+
+        r.counts[col].increment();
+        r.total.increment();
+
+        return true;
+
+    }
+
+    /**
+     * Remembers that the given user has voted in the given round
+     *
+     * @param number The round they're voting in
+     * @param user The user voting
+     * @return true if they hadn't voted in the round yet
+     */
+    private boolean addVoter(int number, String user) {
+
+        long hash = hash(user);
+        long entry = ((long) number << KEY_BITS) | (hash & KEY_MASK);
+        int i = (int) (hash >>> KEY_BITS) & mask;
+
+        for (int probe = 0; probe < MAX_PROBES; probe++, i = (i + 1) & mask) {
+
+            while (true) {
+
+                long v = voters.get(i);
+
+                if (v == entry) return false;
+
+                // Another voter in this round, or a vote racing in from a later one
+                if (!isOlder(v, number)) break;
+
+                if (voters.compareAndSet(i, v, entry)) return true;
+
+            }
+
+        }
+
+        dropped.increment();
+        return false;
+
+    }
+
+    /**
+     * Whether or not the given slot was filled before the given round, and so is free to reuse
+     */
+    private static boolean isOlder(long slot, int number) {
+        int age = (number - (int) (slot >>> KEY_BITS)) & ROUND_MASK;
+        return age != 0 && age < (1 << (ROUND_BITS - 1));
+    }
+
+    /**
+     * Hashes a user's name, ignoring case, without copying it
+     */
+    private static long hash(String user) {
+
+        long h = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < user.length(); i++) {
+            h ^= Character.toLowerCase(user.charAt(i));
+            h *= 0x100000001b3L;
+        }
+
+        // Spread the bits, since the top ones pick the slot
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+
+        return h;
+
+    }
+
+    /**
+     * Lists the columns with votes in the current round, most votes first,
+     * e.g. "4 (12), 3 (5)". Must be called from within the channel's mailbox
+     *
+     * @param max The most columns to list
+     * @return The tally, or null if nobody has voted since it was last listed
+     */
+    public String tally(int max) {
+
+        Round r = round;
+        if (r == null) return null;
+
+        long total = r.total.sum();
+        if (total == r.tallied) return null;
+        r.tallied = total;
+
+        int width = r.counts.length;
+        long[] counts = new long[width];
+        for (int col = 0; col < width; col++) counts[col] = r.counts[col].sum();
+
+        StringBuilder list = new StringBuilder();
+
+        // Selection is fine, only a handful of columns are ever listed
+        for (int n = 0; n < max; n++) {
+
+            int best = -1;
+            for (int col = 0; col < width; col++) if (counts[col] > 0 && (best < 0 || counts[col] > counts[best])) best = col;
+
+            if (best < 0) break;
+
+            if (list.length() > 0) list.append(", ");
+            list.append(best + 1).append(" (").append(counts[best]).append(')');
+            counts[best] = 0;
+
+        }
+
+        return list.toString();
+
+    }
+
+    /**
+     * Determines whether or not a user's c4!put is a vote
+     *
+     * @param user The user who sent the command
+     * @return false if the user is the player chat is up against
+     */
+    public boolean isVoter(String user) {
+        return opponent == null || !opponent.equalsIgnoreCase(user);
+    }
+
+    /**
+     * Whether or not a round of voting is running
+     * @return true if votes are currently being counted
+     */
+    public boolean isOpen() {
+        return round != null;
+    }
+
+    /**
+     * Gets the number of votes in the current round
+     * @return The number of votes counted, or 0 between rounds
+     */
+    public long getVotes() {
+        Round r = round;
+        return r == null ? 0 : r.total.sum();
+    }
+
+    /**
+     * Gets the number of votes which were thrown away because too many users voted in one round
+     * @return The number of dropped votes
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * The votes in a single round. Votes which arrive just as the round
+     * closes land in the old round, which nothing reads any more
+     */
+    private static class Round {
+
+        private final int number;
+        private final LongAdder[] counts;
+        private final LongAdder total = new LongAdder();
+
+        /**
+         * The total when the tally was last listed. Only touched from within the channel's mailbox
+         */
+        private long tallied = 0;
+
+        private Round(int number, int width) {
+
+            this.number = number;
+            this.counts = new LongAdder[width];
+
+            for (int col = 0; col < width; col++) counts[col] = new LongAdder();
+
+        }
+
+    }
+
+}
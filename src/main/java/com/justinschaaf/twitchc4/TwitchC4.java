@@ -7,7 +7,11 @@ import com.github.philippheuer.events4j.simple.SimpleEventHandler;
 import com.github.twitch4j.TwitchClient;
 import com.github.twitch4j.TwitchClientBuilder;
 
+import javax.management.JMException;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Twitch bot for playing Connect 4 in chat
@@ -18,13 +22,49 @@ public class TwitchC4 {
 
     private static C4Config config;
     private static TwitchClient client;
+    private static C4StreamStatus status;
+    private static C4Timer timer;
+
+    /**
+     * Timers which stand in for {@link #timer} on the threads they're set for,
+     * so each of the {@link C4Simulator}'s threads has a clock of its own. Null
+     * outside the simulator
+     */
+    private static ThreadLocal<C4Timer> threadTimers;
+    private static C4Outbox outbox;
+    private static C4Engine engine;
+    private static C4Book book;
     private static C4Commands cmds;
+    private static C4Journal journal;
+    private static C4Stats stats;
+    private static C4Archive archive;
+    private static C4Metrics metrics;
+    private static C4Shard shard;
+    private static C4Api api;
+
+    /**
+     * Whether or not commands and Twitch requests run on virtual threads
+     */
+    private static boolean virtual = false;
 
     public static void main(String[] args) {
 
         loadConfig();
+        loadThreads();
+        loadMetrics();
+        loadTimer();
         loadClient();
+        loadOutbox();
+        loadStatus();
+        loadEngine();
+        loadBook();
         loadCmds();
+        loadStats();
+        loadArchive();
+        loadJournal();
+        registerCmds();
+        loadShard();
+        loadApi();
 
         scheduleShutdownTasks();
 
@@ -49,12 +89,66 @@ public class TwitchC4 {
         if (!exists) System.exit(0);
 
         config = new ObjectConverter().toObject(cfg, C4Config::new);
+        config.compileTemplates();
+
+    }
+
+    /**
+     * Switches to virtual threads if {@link C4Config#execVirtualThreads} is set
+     * and this JDK has them, otherwise carries on with platform threads
+     */
+    private static void loadThreads() {
+
+        if (!config.execVirtualThreads) return;
+
+        virtual = C4VirtualThreads.isSupported();
+
+        if (!virtual) System.err.println("Virtual threads need Java 21 or newer, this is Java " + System.getProperty("java.version") + ". Using platform threads instead");
 
     }
 
+    /**
+     * Creates the {@link C4Metrics} registry, and exports it over HTTP and JMX
+     * if {@link C4Config#metricsEnabled} and {@link C4Config#metricsJmx} are set.
+     * Loaded first so everything after it can be measured
+     */
+    private static void loadMetrics() {
+
+        metrics = new C4Metrics();
+
+        if (config.metricsEnabled) {
+
+            try {
+                metrics.start(config.metricsHost, config.metricsPort);
+            } catch (IOException e) {
+                System.err.println("Unable to serve metrics on " + config.metricsHost + ":" + config.metricsPort + ": " + e);
+            }
+
+        }
+
+        if (config.metricsJmx) {
+
+            try {
+                metrics.register();
+            } catch (JMException e) {
+                System.err.println("Unable to register the metrics MBean: " + e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Starts the shared {@link C4Timer} which runs every turn and challenge timeout
+     */
+    private static void loadTimer() {
+        timer = new C4Timer(100, TimeUnit.MILLISECONDS, 512, 2);
+    }
+
     /**
      * Instantiates the {@link TwitchClient} this bot uses to connect to Twitch
-     * and joins the channels defined in {@link C4Config#channels}
+     * and joins the channels defined in {@link C4Config#channels}. When sharding,
+     * the channels are joined by the {@link C4Shard} instead
      */
     private static void loadClient() {
 
@@ -69,19 +163,253 @@ public class TwitchC4 {
                 .withDefaultAuthToken(cred)
                 .build();
 
-        for (String c : config.channels) client.getChat().joinChannel(c);
+        if (!config.shardEnabled) for (String c : config.channels) client.getChat().joinChannel(c);
+
+    }
+
+    /**
+     * Starts the {@link C4Outbox} which rate limits every message this bot
+     * sends, on a virtual thread if they're enabled
+     */
+    private static void loadOutbox() {
+
+        C4ChatSink sink = (c, m) -> client.getChat().sendMessage(c, m);
+
+        if (virtual) outbox = new C4Outbox(sink, config.chatModerator, config.cmdErrorWindow, C4VirtualThreads.factory("C4-Outbox"));
+        else outbox = new C4Outbox(sink, config.chatModerator, config.cmdErrorWindow);
+
+    }
+
+    /**
+     * Instantiates the {@link C4StreamStatus} cache for the channels defined in
+     * {@link C4Config#channels} and starts the initial refresh. With virtual
+     * threads, every batch is requested at once, up to
+     * {@link C4Config#execHelixConcurrency} at a time
+     */
+    private static void loadStatus() {
+
+        if (virtual) status = new C4StreamStatus(config.channels, C4VirtualThreads.newExecutor("C4-Helix-"), config.execHelixConcurrency);
+        else status = new C4StreamStatus(config.channels);
+        status.start();
 
     }
 
     /**
-     * Instantiates the {@link C4Commands} command handler and registers it as
-     * an event listener with Event4j's {@link SimpleEventHandler}
+     * Instantiates the {@link C4Engine} the bot opponent uses to pick its moves
+     */
+    private static void loadEngine() {
+        engine = new C4Engine(config.botTableSize, config.gameConnectLength);
+    }
+
+    /**
+     * Memory-maps the {@link C4Book} hints are looked up in, if it exists.
+     * Without one, every hint is searched by the {@link C4Engine}
+     */
+    private static void loadBook() {
+
+        File bookFile = new File(config.hintBook);
+        if (!bookFile.exists()) return;
+
+        try {
+            book = C4Book.open(bookFile.toPath());
+        } catch (IOException e) {
+            System.err.println("Unable to open the opening book " + bookFile + ": " + e);
+        }
+
+    }
+
+    /**
+     * Instantiates the {@link C4Commands} command handler. With virtual
+     * threads, each channel's mailbox is drained on a virtual thread of its
+     * own rather than on the shared pool, so it keeps running commands in order
      */
     private static void loadCmds() {
 
-        // Register chat command handler
-        cmds = new C4Commands();
+        if (virtual) cmds = new C4Commands(C4VirtualThreads.newExecutor("C4-Command-"));
+        else cmds = new C4Commands();
+
+    }
+
+    /**
+     * Opens the {@link C4Journal} and restores every game and challenge which
+     * was live when the bot last stopped, each within its channel's mailbox.
+     * If the persistence directory can't be written, nothing is saved, and
+     * every game and challenge is cancelled when the bot shuts down
+     */
+    private static void loadJournal() {
+
+        if (!config.persistEnabled) {
+            journal = new C4Journal();
+            return;
+        }
+
+        journal = new C4Journal(Paths.get(config.persistDirectory));
+
+        try {
+
+            C4Journal.State state = journal.recover();
+
+            for (C4Journal.SavedChallenge c : state.getChallenges())
+                cmds.submit(c.getChannel(), () -> cmds.getChannel(c.getChannel()).addChallenge(new C4Challenge(c)));
+
+            for (C4Journal.SavedGame g : state.getGames())
+                cmds.submit(g.getChannel(), () -> {
+                    C4Game game = new C4Game(g);
+                    if (!game.isOver()) cmds.getChannel(g.getChannel()).addGame(game);
+                });
+
+        } catch (IOException e) {
+            System.err.println("Unable to write to " + config.persistDirectory + ", games won't be saved: " + e);
+            journal = new C4Journal();
+            return;
+        }
+
+        journal.startSnapshots(config.persistSnapshotInterval, TimeUnit.SECONDS);
+
+    }
+
+    /**
+     * Loads the {@link C4Stats} from the persistence directory, or keeps them
+     * in memory only if persistence is disabled
+     */
+    private static void loadStats() {
+
+        if (config.persistEnabled) {
+
+            try {
+                stats = new C4Stats(Paths.get(config.persistDirectory, "stats.log"));
+                return;
+            } catch (IOException e) {
+                System.err.println("Unable to load stats, they won't be saved: " + e);
+            }
+
+        }
+
+        stats = new C4Stats();
+
+    }
+
+    /**
+     * Opens the {@link C4Archive} if {@link C4Config#archiveEnabled} is set.
+     * Loaded before the journal, as games which had already finished when the
+     * bot stopped are ended as soon as they're restored
+     */
+    private static void loadArchive() {
+
+        if (config.archiveEnabled) {
+
+            try {
+                archive = new C4Archive(Paths.get(config.archiveDirectory), config.archiveSegmentSize * 1024L * 1024L);
+                return;
+            } catch (IOException e) {
+                System.err.println("Unable to open the archive, finished games won't be archived: " + e);
+            }
+
+        }
+
+        archive = new C4Archive();
+
+    }
+
+    /**
+     * Registers the {@link C4Commands} command handler as an event listener
+     * with Event4j's {@link SimpleEventHandler}. Done after restoring saved
+     * games, so they're back before any new commands arrive
+     */
+    private static void registerCmds() {
         client.getEventManager().getEventHandler(SimpleEventHandler.class).registerListener(cmds);
+    }
+
+    /**
+     * Starts the {@link C4Shard} which splits the channels defined in
+     * {@link C4Config#channels} with the other instances sharing
+     * {@link C4Config#shardDirectory}, if sharding is enabled. Done last, so
+     * games handed over from other instances land in a fully loaded bot
+     */
+    private static void loadShard() {
+
+        if (!config.shardEnabled) return;
+
+        try {
+
+            C4Coordinator coordinator = new C4FileCoordinator(Paths.get(config.shardDirectory), TimeUnit.SECONDS.toMillis(config.shardExpiry));
+            shard = new C4Shard(config.shardInstance, coordinator, config.shardReplicas, config.channels, new C4Shard.Bot());
+
+        } catch (IOException e) {
+            System.err.println("Unable to open the shard directory " + config.shardDirectory + ": " + e);
+            System.exit(1);
+        }
+
+        shard.start(config.shardHeartbeat, TimeUnit.SECONDS);
+
+    }
+
+    /**
+     * Starts the {@link C4Api} which serves each channel's games to stream
+     * overlays, if {@link C4Config#apiEnabled} is set
+     */
+    private static void loadApi() {
+
+        if (!config.apiEnabled) return;
+
+        api = new C4Api(config.apiMaxWait);
+
+        try {
+            api.start(config.apiHost, config.apiPort);
+        } catch (IOException e) {
+            System.err.println("Unable to serve the API on " + config.apiHost + ":" + config.apiPort + ": " + e);
+            api = null;
+        }
+
+    }
+
+    /**
+     * Sets up the bot without connecting to Twitch. Every message is sent
+     * straight to the given sink, and every command runs on the thread which
+     * submitted it. Streams are always treated as offline, so both
+     * {@link C4Config#gameWhileOnline} and {@link C4Config#gameWhileOffline}
+     * should be enabled. Used by the benchmarks
+     *
+     * @param cfg The config to use
+     * @param sink Where to send chat messages
+     */
+    static void loadHeadless(C4Config cfg, C4ChatSink sink) {
+        loadHeadless(cfg, sink, new C4Timer(100, TimeUnit.MILLISECONDS, 512, 2));
+    }
+
+    /**
+     * Sets up the bot without connecting to Twitch, using the given timer for
+     * every turn and challenge timeout. Used by the {@link C4Simulator} to run
+     * games on a virtual clock
+     *
+     * @param cfg The config to use
+     * @param sink Where to send chat messages
+     * @param t The timer to use
+     */
+    static void loadHeadless(C4Config cfg, C4ChatSink sink, C4Timer t) {
+
+        config = cfg;
+        config.compileTemplates();
+
+        if (timer != null) timer.stop();
+        timer = t;
+        threadTimers = null;
+
+        client = null;
+        status = new C4StreamStatus(config.channels);
+        outbox = new C4Outbox(sink);
+
+        if (engine != null) engine.shutdown();
+        engine = new C4Engine(config.botTableSize, config.gameConnectLength);
+        book = null;
+
+        cmds = new C4Commands(Runnable::run);
+        journal = new C4Journal();
+        stats = new C4Stats();
+        archive = new C4Archive();
+        metrics = new C4Metrics();
+        shard = null;
+        api = null;
 
     }
 
@@ -108,6 +436,113 @@ public class TwitchC4 {
         return client;
     }
 
+    /**
+     * Gives each thread which sets a timer in the given thread local its own
+     * {@link C4Timer}, in place of the shared one. Only meant for running the
+     * bot headless, where each thread plays its own channels
+     *
+     * @param timers The timer for each thread, or null on threads which use the shared timer
+     */
+    static void setThreadTimers(ThreadLocal<C4Timer> timers) {
+        threadTimers = timers;
+    }
+
+    /**
+     * Gets the shared {@link C4Timer} this bot schedules timeouts with, or the
+     * calling thread's own timer if it has one
+     * @return The timer for this bot
+     */
+    public static C4Timer getTimer() {
+
+        if (threadTimers != null) {
+            C4Timer t = threadTimers.get();
+            if (t != null) return t;
+        }
+
+        return timer;
+
+    }
+
+    /**
+     * Gets the {@link C4Outbox} this bot queues chat messages in
+     * @return The outbox for this bot
+     */
+    public static C4Outbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Gets the {@link C4StreamStatus} cache this bot uses to tell if a channel is live
+     * @return The stream status cache for this bot
+     */
+    public static C4StreamStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the {@link C4Engine} the bot opponent uses to pick its moves
+     * @return The engine for this bot
+     */
+    public static C4Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Gets the {@link C4Book} hints are looked up in
+     * @return The opening book, or null if there isn't one
+     */
+    public static C4Book getBook() {
+        return book;
+    }
+
+    /**
+     * Gets the {@link C4Journal} this bot saves games and challenges with
+     * @return The journal for this bot
+     */
+    public static C4Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Gets the {@link C4Stats} this bot records results in
+     * @return The stats for this bot
+     */
+    public static C4Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Gets the {@link C4Archive} this bot keeps finished games in
+     * @return The archive for this bot
+     */
+    public static C4Archive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Gets the {@link C4Metrics} this bot records what it's doing in
+     * @return The metrics for this bot
+     */
+    public static C4Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the {@link C4Shard} which decides which channels this instance handles
+     * @return The shard, or null if sharding is disabled
+     */
+    public static C4Shard getShard() {
+        return shard;
+    }
+
+    /**
+     * Gets the {@link C4Api} which serves each channel's games over HTTP
+     * @return The API, or null if it's disabled
+     */
+    public static C4Api getApi() {
+        return api;
+    }
+
     /**
      * Gets the {@link C4Commands} this bot uses to handle commands
      * @return The command handler for this bot
@@ -0,0 +1,168 @@
+package com.justinschaaf.twitchc4;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that every game written to the {@link C4Archive} is read back
+ * exactly as it was, across segments and after a torn write at the end
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4ArchiveTest {
+
+    /**
+     * Small enough that a few hundred games span many segments
+     */
+    private static final long SEGMENT_SIZE = 4096;
+
+    private static final int GAMES = 300;
+
+    @TempDir
+    Path dir;
+
+    private final List<C4Game> games = new ArrayList<>();
+
+    @BeforeEach
+    public void load() {
+        TwitchC4.loadHeadless(new C4Config(), (channel, message) -> {});
+    }
+
+    @AfterEach
+    public void stop() {
+        for (C4Game g : games) if (!g.isOver()) g.cancel();
+    }
+
+    @Test
+    public void readsBackEveryGame() throws Exception {
+
+        write(GAMES);
+
+        assertTrue(C4Archive.segments(dir).size() > 1);
+
+        try (C4Archive.Reader r = new C4Archive.Reader(dir)) {
+            for (int i = 0; i < GAMES; i++) assertGame(i, r.next());
+            assertNull(r.next());
+        }
+
+    }
+
+    @Test
+    public void skipsToAnyGame() throws Exception {
+
+        write(GAMES);
+
+        for (int skip : new int[] {0, 1, 17, GAMES / 2, GAMES - 1}) {
+
+            try (C4Archive.Reader r = new C4Archive.Reader(dir)) {
+                assertEquals(skip, r.skip(skip));
+                assertGame(skip, r.next());
+            }
+
+        }
+
+        try (C4Archive.Reader r = new C4Archive.Reader(dir)) {
+            assertEquals(GAMES, r.skip(GAMES + 100));
+            assertNull(r.next());
+        }
+
+    }
+
+    @Test
+    public void cutsOffATornRecord() throws Exception {
+
+        write(GAMES);
+
+        // A record cut off part way through, as if the bot died mid-write
+        List<Integer> segments = C4Archive.segments(dir);
+        int last = segments.get(segments.size() - 1);
+
+        Files.write(C4Archive.segment(dir, last), new byte[] {0, 0, 0, 50, 1, 2, 3}, StandardOpenOption.APPEND);
+        Files.write(C4Archive.index(dir, last), new byte[] {9, 9, 9}, StandardOpenOption.APPEND);
+
+        C4Archive archive = new C4Archive(dir, SEGMENT_SIZE);
+        assertEquals(GAMES, archive.getArchived());
+
+        // Anything written after it lands right after the last whole record
+        archive.record(game(GAMES), winner(GAMES));
+        archive.close();
+
+        try (C4Archive.Reader r = new C4Archive.Reader(dir)) {
+            for (int i = 0; i <= GAMES; i++) assertGame(i, r.next());
+            assertNull(r.next());
+        }
+
+        try (C4Archive.Reader r = new C4Archive.Reader(dir)) {
+            assertEquals(GAMES, r.skip(GAMES));
+            assertGame(GAMES, r.next());
+        }
+
+    }
+
+    /**
+     * Archives the given number of games, then closes the archive
+     */
+    private void write(int count) throws Exception {
+
+        C4Archive archive = new C4Archive(dir, SEGMENT_SIZE);
+
+        for (int i = 0; i < count; i++) archive.record(game(i), winner(i));
+        archive.close();
+
+        assertEquals(count, archive.getArchived());
+
+    }
+
+    /**
+     * Plays a different number of moves in each game, across the bottom two
+     * rows so nobody wins before they're recorded
+     */
+    private C4Game game(int i) {
+
+        C4Game g = new C4Game("test" + i % 3, "p1_" + i, "p\u00e9" + i);
+        games.add(g);
+
+        for (int move = 0; move < i % 15; move++) g.doTurn(move % 7 + 1);
+
+        return g;
+
+    }
+
+    private String winner(int i) {
+        return i % 3 == 0 ? null : games.get(i).getPlayer(i % 3);
+    }
+
+    private void assertGame(int i, C4Archive.Record r) {
+
+        C4Game g = games.get(i);
+
+        assertEquals(g.getId(), r.getId());
+        assertEquals(g.getChannel(), r.getChannel());
+        assertEquals(g.getPlayer(C4Board.P1), r.getPlayer(C4Board.P1));
+        assertEquals(g.getPlayer(C4Board.P2), r.getPlayer(C4Board.P2));
+        assertEquals(winner(i), r.getWinner());
+        assertEquals(7, r.getWidth());
+        assertEquals(6, r.getHeight());
+        assertEquals(g.getStartedAt(), r.getStartedAt());
+
+        short[] moves = new short[r.getMoveCount()];
+        for (int m = 0; m < moves.length; m++) moves[m] = (short) r.getMove(m);
+
+        assertArrayEquals(g.getHistory(), moves, "game " + i);
+
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.justinschaaf.twitchc4;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that {@link C4Board#isWin(int, int, int)}, which only looks at the
+ * last move, agrees with {@link C4Game#getWinner()}, which scans the whole
+ * board, after every move of many seeded random games
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4BoardTest {
+
+    private static final int GAMES = 500;
+
+    @Test
+    public void standardBoard() {
+        check(7, 6, 4);
+    }
+
+    @Test
+    public void connectOne() {
+        check(7, 6, 1);
+        check(1, 1, 1);
+    }
+
+    @Test
+    public void connectTwo() {
+        check(3, 3, 2);
+    }
+
+    @Test
+    public void connectLongerThanBoard() {
+        check(3, 2, 4);
+    }
+
+    @Test
+    public void tallNarrowBoard() {
+        check(2, 12, 3);
+    }
+
+    @Test
+    public void wideShallowBoard() {
+        check(15, 3, 5);
+    }
+
+    @Test
+    public void largeBoard() {
+        check(20, 12, 5);
+    }
+
+    /**
+     * Plays random games on the given board until each is won or full,
+     * checking both win detectors after every move
+     */
+    private static void check(int width, int height, int length) {
+
+        C4Config cfg = new C4Config();
+        cfg.gameBoardWidth = width;
+        cfg.gameBoardHeight = height;
+        cfg.gameConnectLength = length;
+        cfg.gameRandomStart = false;
+        TwitchC4.loadHeadless(cfg, (channel, message) -> {});
+
+        Random random = new Random(width * 31L * 31L + height * 31L + length);
+
+        for (int game = 0; game < GAMES; game++) {
+
+            C4Game g = new C4Game("test", "p1", "p2");
+            C4Board board = g.getBoard();
+            int player = C4Board.P1;
+
+            while (!board.isFull()) {
+
+                int col;
+                do col = random.nextInt(width); while (!board.canPlay(col));
+
+                int row = board.play(col, player);
+                boolean win = board.isWin(col, row, length);
+                String where = width + "x" + height + " connect " + length + ", game " + game + ", move " + board.getMoves();
+
+                assertEquals(win ? player : C4Board.EMPTY, g.getWinner(), where);
+
+                if (win) break;
+                player = player == C4Board.P1 ? C4Board.P2 : C4Board.P1;
+
+            }
+
+            g.cancel();
+
+        }
+
+    }
+
+}
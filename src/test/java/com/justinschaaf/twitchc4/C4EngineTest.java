@@ -0,0 +1,182 @@
+package com.justinschaaf.twitchc4;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the engine's parallel search at the root never picks a move it
+ * hasn't proved best, using seeded random positions where exactly one move
+ * wins straight away or exactly one move stops the opponent from winning
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4EngineTest {
+
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 6;
+    private static final int LENGTH = 4;
+
+    /**
+     * More threads than the root has moves to share out, so every move but the first is searched in parallel
+     */
+    private static final int PARALLELISM = 4;
+
+    private static final int POSITIONS = 40;
+
+    private C4Engine engine;
+
+    @BeforeEach
+    public void start() {
+        engine = new C4Engine(1 << 16, LENGTH, PARALLELISM);
+    }
+
+    @AfterEach
+    public void stop() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void playsTheOnlyWinningMove() throws Exception {
+
+        for (Position p : positions(1)) {
+
+            for (int depth = 1; depth <= 6; depth++) {
+
+                C4Engine.Result r = engine.analyse(p.board, p.player, 1000, depth).get();
+
+                assertEquals(p.column, r.getColumn(), p + " at depth " + depth);
+                assertTrue(r.isWin(), p + " at depth " + depth);
+                assertEquals(1, r.getDistance(), p + " at depth " + depth);
+
+            }
+
+        }
+
+    }
+
+    @Test
+    public void blocksTheOnlyThreat() throws Exception {
+
+        for (Position p : positions(2)) {
+
+            for (int depth = 2; depth <= 6; depth++) {
+
+                C4Engine.Result r = engine.analyse(p.board, p.player, 1000, depth).get();
+
+                // Blocking may only let the opponent win above it, in which case every move loses
+                if (!r.isLoss()) assertEquals(p.column, r.getColumn(), p + " at depth " + depth);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Plays seeded random games until it finds positions where exactly one
+     * column wins on the spot, either for the player to move or, with nothing
+     * to win for them, for their opponent
+     *
+     * @param mover 1 to find a win for the player to move, 2 for a threat they have to block
+     */
+    private List<Position> positions(int mover) {
+
+        List<Position> found = new ArrayList<>();
+        Random random = new Random(mover);
+
+        while (found.size() < POSITIONS) {
+
+            C4Board board = C4Board.create(WIDTH, HEIGHT);
+            int player = C4Board.P1;
+
+            while (!board.isFull()) {
+
+                int opponent = 3 - player;
+                List<Integer> wins = wins(board, player);
+                List<Integer> threats = wins(board, opponent);
+
+                if (mover == 1 && wins.size() == 1) {
+                    found.add(new Position(board.copy(), player, wins.get(0)));
+                    break;
+                }
+
+                if (mover == 2 && wins.isEmpty() && threats.size() == 1) {
+                    found.add(new Position(board.copy(), player, threats.get(0)));
+                    break;
+                }
+
+                // Don't end the game or hand the opponent a win, so the position stays interesting
+                if (!wins.isEmpty() || !threats.isEmpty()) break;
+
+                int col;
+                do col = random.nextInt(WIDTH); while (!board.canPlay(col));
+
+                board.play(col, player);
+                player = opponent;
+
+            }
+
+        }
+
+        return found;
+
+    }
+
+    /**
+     * Lists the columns where the given player would win on the spot
+     */
+    private static List<Integer> wins(C4Board board, int player) {
+
+        List<Integer> wins = new ArrayList<>();
+
+        for (int col = 0; col < board.getWidth(); col++) {
+
+            if (!board.canPlay(col)) continue;
+
+            int row = board.play(col, player);
+            if (board.isWin(col, row, LENGTH)) wins.add(col);
+            board.undo(col, player);
+
+        }
+
+        return wins;
+
+    }
+
+    private static class Position {
+
+        private final C4Board board;
+        private final int player;
+        private final int column;
+
+        private Position(C4Board board, int player, int column) {
+            this.board = board;
+            this.player = player;
+            this.column = column;
+        }
+
+        @Override
+        public String toString() {
+
+            StringBuilder sb = new StringBuilder("player ").append(player).append(" to move in");
+
+            for (int row = board.getHeight() - 1; row >= 0; row--) {
+                sb.append(' ');
+                for (int col = 0; col < board.getWidth(); col++) sb.append(board.get(col, row));
+            }
+
+            return sb.toString();
+
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.justinschaaf.twitchc4;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the {@link C4Journal} brings back every live game and challenge
+ * after a restart, whether they were in the snapshot or only in the log, and
+ * that a corrupt snapshot is moved aside rather than stopping the journal
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4JournalTest {
+
+    @TempDir
+    Path dir;
+
+    private C4Config cfg;
+    private C4Journal journal;
+
+    @BeforeEach
+    public void load() throws Exception {
+
+        cfg = new C4Config();
+        cfg.gameWhileOnline = true;
+        cfg.gameRandomStart = false;
+
+        journal = restart();
+        journal.recover();
+
+    }
+
+    @AfterEach
+    public void close() {
+        journal.close();
+    }
+
+    @Test
+    public void restoresGamesAndChallengesAfterRestart() throws Exception {
+
+        C4Commands cmds = TwitchC4.getCmds();
+
+        cmds.handle("test", "alice", Set.of(), "c4!play");
+        cmds.handle("test", "bob", Set.of(), "c4!play");
+        cmds.handle("test", "carol", Set.of(), "c4!play erin");
+
+        C4Game game = cmds.getChannel("test").findGame("alice");
+
+        // Some moves end up in the snapshot, the rest only in the log after it
+        put(game, 1, 2, 3);
+        journal.snapshot();
+        put(game, 4, 4);
+
+        short[] history = game.getHistory();
+        assertEquals(5, history.length);
+
+        long id = game.getId();
+
+        journal = restart();
+        C4Journal.State state = journal.recover();
+
+        List<C4Journal.SavedGame> games = list(state.getGames());
+        assertEquals(1, games.size());
+
+        C4Game restored = new C4Game(games.get(0));
+        assertEquals(id, restored.getId());
+        assertArrayEquals(history, restored.getHistory());
+        assertEquals(game.getPlayerTurn(), restored.getPlayerTurn());
+
+        List<C4Journal.SavedChallenge> challenges = list(state.getChallenges());
+        assertEquals(1, challenges.size());
+
+        C4Challenge challenge = new C4Challenge(challenges.get(0));
+        assertEquals("carol", challenge.getFrom());
+        assertEquals("erin", challenge.getTo());
+
+        assertTrue(journal.nextId() > Math.max(id, challenge.getId()));
+
+    }
+
+    @Test
+    public void leavesOutEndedGamesButNeverReusesTheirIds() throws Exception {
+
+        C4Commands cmds = TwitchC4.getCmds();
+
+        cmds.handle("test", "alice", Set.of(), "c4!play");
+        cmds.handle("test", "bob", Set.of(), "c4!play");
+
+        C4Game game = cmds.getChannel("test").findGame("alice");
+        put(game, 1);
+        cmds.handle("test", "alice", Set.of(), "c4!forfeit");
+
+        assertTrue(game.isOver());
+
+        journal = restart();
+        C4Journal.State state = journal.recover();
+
+        assertTrue(list(state.getGames()).isEmpty());
+        assertTrue(journal.nextId() > game.getId());
+
+    }
+
+    @Test
+    public void quarantinesACorruptSnapshot() throws Exception {
+
+        journal.close();
+        Files.write(dir.resolve("snapshot.bin"), new byte[64]);
+
+        journal = restart();
+        C4Journal.State state = journal.recover();
+
+        assertTrue(list(state.getGames()).isEmpty());
+        assertFalse(Files.exists(dir.resolve("snapshot.bin")));
+
+        List<Path> aside;
+        try (Stream<Path> files = Files.list(dir)) {
+            aside = files.filter(p -> p.getFileName().toString().startsWith("corrupt-")).collect(Collectors.toList());
+        }
+
+        assertEquals(1, aside.size());
+        assertTrue(Files.exists(aside.get(0).resolve("snapshot.bin")));
+
+        // The journal carries on with a fresh log rather than saving nothing
+        TwitchC4.getCmds().handle("test", "carol", Set.of(), "c4!play erin");
+
+        journal = restart();
+        assertEquals(1, list(journal.recover().getChallenges()).size());
+
+    }
+
+    /**
+     * Closes the current journal and sets the bot up again with a new one on
+     * the same directory, as if it had been restarted
+     */
+    private C4Journal restart() throws Exception {
+
+        if (journal != null) journal.close();
+
+        TwitchC4.loadHeadless(cfg, (channel, message) -> {});
+
+        C4Journal j = new C4Journal(dir);
+
+        // The bot only sets its journal up when it connects, so swap it in by hand
+        Field f = TwitchC4.class.getDeclaredField("journal");
+        f.setAccessible(true);
+        f.set(null, j);
+
+        return j;
+
+    }
+
+    /**
+     * Plays the given columns, starting from 1, for whoever's turn it is
+     */
+    private static void put(C4Game game, int... cols) {
+        for (int col : cols) TwitchC4.getCmds().handle(game.getChannel(), game.getPlayerTurn(), Set.of(), "c4!put " + col);
+    }
+
+    private static <T> List<T> list(Iterable<T> items) {
+
+        List<T> list = new ArrayList<>();
+        items.forEach(list::add);
+
+        return list;
+
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.justinschaaf.twitchc4;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the {@link C4Limiter} lets each user send a burst of commands,
+ * then one per cooldown, without one user's bucket touching another's
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4LimiterTest {
+
+    private static final int BURST = 3;
+    private static final long COOLDOWN = 200;
+
+    @Test
+    public void dropsCommandsPastTheBurst() {
+
+        C4Limiter limiter = new C4Limiter(BURST, COOLDOWN, 64);
+
+        for (int i = 0; i < BURST; i++) assertTrue(limiter.tryAcquire("test", "alice"), "command " + i);
+
+        assertFalse(limiter.tryAcquire("test", "alice"));
+        assertFalse(limiter.tryAcquire("test", "ALICE"));
+        assertEquals(2, limiter.getDropped());
+
+    }
+
+    @Test
+    public void keepsUsersAndChannelsApart() {
+
+        C4Limiter limiter = new C4Limiter(BURST, COOLDOWN, 64);
+
+        for (int i = 0; i < BURST; i++) limiter.tryAcquire("test", "alice");
+
+        assertFalse(limiter.tryAcquire("test", "alice"));
+        assertTrue(limiter.tryAcquire("test", "bob"));
+        assertTrue(limiter.tryAcquire("other", "alice"));
+
+    }
+
+    @Test
+    public void earnsOneCommandPerCooldown() throws InterruptedException {
+
+        C4Limiter limiter = new C4Limiter(BURST, COOLDOWN, 64);
+
+        for (int i = 0; i < BURST; i++) limiter.tryAcquire("test", "alice");
+
+        // Halfway between one cooldown and two, so exactly one command has been earned back
+        Thread.sleep(COOLDOWN * 3 / 2);
+
+        assertTrue(limiter.tryAcquire("test", "alice"));
+        assertFalse(limiter.tryAcquire("test", "alice"));
+
+    }
+
+    @Test
+    public void refillsTheWholeBurst() throws InterruptedException {
+
+        C4Limiter limiter = new C4Limiter(BURST, COOLDOWN, 64);
+
+        for (int i = 0; i < BURST; i++) limiter.tryAcquire("test", "alice");
+
+        Thread.sleep(COOLDOWN * (BURST + 1));
+
+        for (int i = 0; i < BURST; i++) assertTrue(limiter.tryAcquire("test", "alice"), "command " + i);
+        assertFalse(limiter.tryAcquire("test", "alice"));
+
+    }
+
+    @Test
+    public void neverLimitsWithoutACooldown() {
+
+        C4Limiter limiter = new C4Limiter(BURST, 0, 64);
+
+        for (int i = 0; i < 100; i++) assertTrue(limiter.tryAcquire("test", "alice"));
+        assertEquals(0, limiter.getDropped());
+
+    }
+
+    @Test
+    public void letsEveryoneThroughWhenTheTableIsFull() {
+
+        // The smallest table there is, so most of these users can't find a free bucket
+        C4Limiter limiter = new C4Limiter(1, COOLDOWN, 1);
+
+        for (int i = 0; i < 1000; i++) limiter.tryAcquire("test", "user" + i);
+
+        int dropped = 0;
+        for (int i = 0; i < 1000; i++) if (!limiter.tryAcquire("test", "user" + i)) dropped++;
+
+        // Only users who got a bucket are held to it, and there are far fewer buckets than users
+        assertTrue(dropped > 0 && dropped <= 32, dropped + " dropped");
+
+    }
+
+}
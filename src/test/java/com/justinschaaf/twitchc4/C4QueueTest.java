@@ -0,0 +1,100 @@
+package com.justinschaaf.twitchc4;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the {@link C4Queue} pairs each player with the nearest rated
+ * opponent within reach, wherever they are in their bucket
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4QueueTest {
+
+    private C4Channel channel;
+    private C4Queue queue;
+
+    @BeforeEach
+    public void load() {
+
+        C4Config cfg = new C4Config();
+        cfg.gameConcurrent = false;
+        cfg.gameRandomStart = false;
+
+        // Never tick during a test, so windows stay at their starting width
+        cfg.queueInterval = 3600;
+        cfg.queueTimeout = 7200;
+
+        TwitchC4.loadHeadless(cfg, (channel, message) -> {});
+
+        channel = TwitchC4.getCmds().getChannel("test");
+        queue = channel.getQueue();
+
+    }
+
+    @Test
+    public void looksPastTheLongestWaitingInABucket() {
+
+        // 1100 has waited longest in its bucket, but is out of reach of 1210 while 1124 isn't
+        wait("old", 1100, "new", 1124);
+        queue.join("late", 1210);
+
+        assertPaired("new", "late");
+        assertTrue(queue.contains("old"));
+
+    }
+
+    @Test
+    public void picksTheNearestRating() {
+
+        wait("far", 1150, "near", 1170);
+        queue.join("late", 1200);
+
+        assertPaired("near", "late");
+
+    }
+
+    @Test
+    public void leavesPlayersOutOfReachWaiting() {
+
+        queue.join("low", 1000);
+        queue.join("high", 1101);
+
+        assertEquals(0, channel.getGameCount());
+        assertEquals(2, queue.size());
+
+    }
+
+    /**
+     * Queues two players while a game is being played, so they aren't paired with each other
+     */
+    private void wait(String a, int aRating, String b, int bRating) {
+
+        C4Game blocking = new C4Game(channel.getName(), "x", "y");
+        channel.addGame(blocking);
+
+        queue.join(a, aRating);
+        queue.join(b, bRating);
+
+        blocking.cancel();
+        assertEquals(0, channel.getGameCount());
+
+    }
+
+    private void assertPaired(String p1, String p2) {
+
+        assertEquals(1, channel.getGameCount());
+
+        C4Game g = channel.getGames().iterator().next();
+        assertEquals(Arrays.asList(p1, p2), Arrays.asList(g.getPlayers()));
+
+        assertTrue(!queue.contains(p1) && !queue.contains(p2));
+
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.justinschaaf.twitchc4;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the {@link C4Ring} only moves the channels it has to when an
+ * instance joins or leaves, and that every instance builds the same ring
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4RingTest {
+
+    private static final int REPLICAS = 64;
+    private static final int CHANNELS = 10000;
+
+    private static final List<String> MEMBERS = Arrays.asList("a", "b", "c", "d", "e");
+
+    @Test
+    public void onlyMovesChannelsToAJoiningInstance() {
+
+        C4Ring before = new C4Ring(MEMBERS, REPLICAS);
+        C4Ring after = new C4Ring(Arrays.asList("a", "b", "c", "d", "e", "f"), REPLICAS);
+
+        int moved = 0;
+
+        for (int i = 0; i < CHANNELS; i++) {
+
+            String channel = "channel" + i;
+            if (before.owner(channel).equals(after.owner(channel))) continue;
+
+            assertEquals("f", after.owner(channel), channel);
+            moved++;
+
+        }
+
+        // About 1/6 of the channels should move, nowhere near all of them
+        assertTrue(moved > CHANNELS / 12 && moved < CHANNELS / 4, moved + " moved");
+
+    }
+
+    @Test
+    public void onlyMovesChannelsFromALeavingInstance() {
+
+        C4Ring before = new C4Ring(MEMBERS, REPLICAS);
+        C4Ring after = new C4Ring(Arrays.asList("a", "b", "d", "e"), REPLICAS);
+
+        for (int i = 0; i < CHANNELS; i++) {
+
+            String channel = "channel" + i;
+            if (!before.owner(channel).equals("c")) assertEquals(before.owner(channel), after.owner(channel), channel);
+            else assertTrue(!after.owner(channel).equals("c"), channel);
+
+        }
+
+    }
+
+    @Test
+    public void buildsTheSameRingInAnyOrder() {
+
+        C4Ring ring = new C4Ring(MEMBERS, REPLICAS);
+        C4Ring reversed = new C4Ring(Arrays.asList("e", "d", "c", "b", "a"), REPLICAS);
+
+        for (int i = 0; i < CHANNELS; i++) assertEquals(ring.owner("channel" + i), reversed.owner("channel" + i));
+
+    }
+
+    @Test
+    public void ignoresTheCaseOfChannels() {
+
+        C4Ring ring = new C4Ring(MEMBERS, REPLICAS);
+
+        for (int i = 0; i < 100; i++) assertEquals(ring.owner("channel" + i), ring.owner("CHANNEL" + i));
+
+    }
+
+    @Test
+    public void hasNoOwnersWhenEmpty() {
+        assertNull(new C4Ring(Collections.emptyList(), REPLICAS).owner("test"));
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.justinschaaf.twitchc4;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a channel handed over by one instance carries on at the next
+ * exactly as it was, and that the {@link C4FileCoordinator} gives each
+ * handover to one instance and only drops it once it's been restored
+ *
+ * @author Justin H. Schaaf (justinschaaf.com)
+ */
+public class C4ShardTest {
+
+    @TempDir
+    Path dir;
+
+    private C4Config cfg;
+
+    @BeforeEach
+    public void load() {
+
+        cfg = new C4Config();
+        cfg.gameWhileOnline = true;
+        cfg.gameRandomStart = false;
+
+        TwitchC4.loadHeadless(cfg, (channel, message) -> {});
+
+    }
+
+    @Test
+    public void carriesGamesAndChallengesOverToTheNextInstance() {
+
+        C4Commands cmds = TwitchC4.getCmds();
+
+        cmds.handle("test", "alice", Set.of(), "c4!play");
+        cmds.handle("test", "bob", Set.of(), "c4!play");
+        cmds.handle("test", "carol", Set.of(), "c4!play erin");
+
+        C4Game game = cmds.getChannel("test").findGame("alice");
+        for (int col : new int[] {1, 2, 3, 4, 4}) cmds.handle("test", game.getPlayerTurn(), Set.of(), "c4!put " + col);
+
+        short[] history = game.getHistory();
+        String turn = game.getPlayerTurn();
+
+        byte[] state = new C4Shard.Bot().release("test");
+        assertNotNull(state);
+
+        // Nothing is left behind, but nothing is announced as over either
+        assertEquals(0, cmds.getChannel("test").getGameCount());
+        assertEquals(0, cmds.getChannel("test").getChallengeCount());
+
+        // The next instance
+        TwitchC4.loadHeadless(cfg, (channel, message) -> {});
+        assertTrue(new C4Shard.Bot().restore("test", state));
+
+        C4Channel channel = TwitchC4.getCmds().getChannel("test");
+
+        C4Game restored = channel.findGame("alice");
+        assertNotNull(restored);
+        assertArrayEquals(history, restored.getHistory());
+        assertEquals(turn, restored.getPlayerTurn());
+
+        C4Challenge challenge = channel.findChallenge("carol");
+        assertNotNull(challenge);
+        assertEquals("erin", challenge.getTo());
+
+    }
+
+    @Test
+    public void releasesNothingFromAnEmptyChannel() {
+        assertNull(new C4Shard.Bot().release("test"));
+    }
+
+    @Test
+    public void rejectsACorruptHandover() {
+
+        TwitchC4.getCmds().handle("test", "carol", Set.of(), "c4!play erin");
+
+        byte[] state = new C4Shard.Bot().release("test");
+        state[state.length / 2] ^= 1;
+
+        assertThrows(IOException.class, () -> new C4Journal().takeOver(state));
+        assertFalse(new C4Shard.Bot().restore("test", state));
+
+    }
+
+    @Test
+    public void givesEachHandoverToOneInstanceOldestFirst() throws Exception {
+
+        C4FileCoordinator first = new C4FileCoordinator(dir, 1000);
+        C4FileCoordinator second = new C4FileCoordinator(dir, 1000);
+
+        first.handOver("test", new byte[] {1});
+        Thread.sleep(5);
+        first.handOver("test", new byte[] {2});
+
+        assertEquals(Set.of("test"), second.getHandovers());
+
+        List<Byte> taken = new ArrayList<>();
+        second.takeOver("test", state -> taken.add(state[0]));
+        first.takeOver("test", state -> taken.add(state[0]));
+
+        assertEquals(List.of((byte) 1, (byte) 2), taken);
+        assertTrue(first.getHandovers().isEmpty());
+        assertTrue(files().isEmpty());
+
+    }
+
+    @Test
+    public void keepsARejectedHandoverAside() throws Exception {
+
+        C4FileCoordinator coordinator = new C4FileCoordinator(dir, 1000);
+
+        coordinator.handOver("test", new byte[] {1});
+        coordinator.takeOver("test", state -> false);
+
+        // It isn't offered again, but it isn't lost either
+        assertTrue(coordinator.getHandovers().isEmpty());
+
+        List<String> left = files();
+        assertEquals(1, left.size());
+        assertTrue(left.get(0).endsWith(".failed"), left.get(0));
+
+    }
+
+    /**
+     * Lists the handover files left in the coordinator's directory
+     */
+    private List<String> files() throws Exception {
+
+        try (Stream<Path> files = Files.list(dir.resolve("handovers"))) {
+            return files.map(p -> p.getFileName().toString()).collect(Collectors.toList());
+        }
+
+    }
+
+}